@@ -0,0 +1,92 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openstack4j.model.compute.Server;
+import org.springframework.cloud.deployer.spi.app.AppStatus;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks building the status of an app from the servers of its instances.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AppStatusBenchmark {
+
+	private static final String APP_ID = "benchmark-app";
+
+	@Param({ "10", "100", "1000", "10000" })
+	private int servers;
+
+	private List<Server> serverList;
+
+	private OpenStackAppDeployer deployer;
+
+	private OpenStackDeployerProperties properties;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		properties = new OpenStackDeployerProperties();
+		deployer = Deployers.appDeployer(properties);
+		serverList = SyntheticServers.forApp(APP_ID, servers);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		deployer.destroy();
+	}
+
+	@Benchmark
+	public AppStatus buildAppStatus() {
+		return deployer.buildAppStatus(APP_ID, serverList);
+	}
+
+	@Benchmark
+	public void instanceState(Blackhole blackhole) {
+		for (Server server : serverList) {
+			blackhole.consume(new OpenStackAppInstanceStatus(APP_ID, server, properties).getState());
+		}
+	}
+
+	@Benchmark
+	public void instanceAttributes(Blackhole blackhole) {
+		for (Server server : serverList) {
+			blackhole.consume(new OpenStackAppInstanceStatus(APP_ID, server, properties).getAttributes());
+		}
+	}
+
+}
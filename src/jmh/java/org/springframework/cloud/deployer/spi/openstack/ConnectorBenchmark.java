@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openstack4j.model.compute.Flavor;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.cloud.deployer.spi.openstack.OpenStackRequestScheduler.OperationClass.GET;
+
+/**
+ * Benchmarks the latency of Nova calls made concurrently against the
+ * {@link OpenStackStandIn}, answering at once or after a delay, with and without
+ * connections kept alive, and with the connector's default pool of two connections per
+ * host against a pool sized for the callers. The connection pool is per JVM, so each
+ * setting gets a fork of its own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class ConnectorBenchmark {
+
+	@Param({ "0", "10" })
+	private long latency;
+
+	@Param({ "0", "5000" })
+	private long keepAlive;
+
+	@Param({ "2", "64" })
+	private int maxConnectionsPerRoute;
+
+	private OpenStackStandIn standIn;
+
+	private OpenStackSessionManager sessionManager;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		standIn = new OpenStackStandIn(latency, 0);
+		OpenStackDeployerProperties properties = standIn.properties();
+		properties.setConnector(OpenStackDeployerProperties.Connector.HTTPCLIENT);
+		properties.setKeepAlive(keepAlive);
+		properties.setMaxConnectionsPerRoute(maxConnectionsPerRoute);
+		sessionManager = new OpenStackSessionManager(properties);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		sessionManager.destroy();
+		standIn.close();
+	}
+
+	@Benchmark
+	public List<? extends Flavor> listFlavors() {
+		return sessionManager.execute(GET, client -> client.compute().flavors().list());
+	}
+
+}
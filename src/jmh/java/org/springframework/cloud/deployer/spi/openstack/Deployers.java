@@ -0,0 +1,72 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.openstack4j.api.OSClient;
+import org.openstack4j.model.compute.Server;
+import org.springframework.cloud.deployer.spi.openstack.OpenStackRequestScheduler.OperationClass;
+
+import java.util.Collections;
+import java.util.function.Function;
+
+/**
+ * Creates deployers for benchmarks. Their Nova calls never leave the JVM: every call
+ * answers with a fixed server, and listings with just that server.
+ */
+final class Deployers {
+
+	private Deployers() {
+	}
+
+	static OpenStackAppDeployer appDeployer(OpenStackDeployerProperties properties) {
+		OpenStackSessionManager sessionManager = new FixedSessionManager(properties, null);
+		OpenStackServerInventory inventory = new OpenStackServerInventory(sessionManager, properties);
+		return new OpenStackAppDeployer(properties, sessionManager, inventory,
+				new OpenStackResourceResolver(sessionManager, properties),
+				new OpenStackDeletionTracker(inventory, properties),
+				new OpenStackDeploymentRegistry(sessionManager, properties));
+	}
+
+	static OpenStackTaskLauncher taskLauncher(OpenStackDeployerProperties properties, Server server) {
+		OpenStackSessionManager sessionManager = new FixedSessionManager(properties, server);
+		OpenStackServerInventory inventory = new OpenStackServerInventory(sessionManager, properties);
+		return new OpenStackTaskLauncher(properties, sessionManager, inventory,
+				new OpenStackResourceResolver(sessionManager, properties),
+				new OpenStackDeletionTracker(inventory, properties),
+				new OpenStackDeploymentRegistry(sessionManager, properties));
+	}
+
+	private static class FixedSessionManager extends OpenStackSessionManager {
+
+		private final Server server;
+
+		FixedSessionManager(OpenStackDeployerProperties properties, Server server) {
+			super(properties);
+			this.server = server;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public <T> T execute(OperationClass operationClass, Function<OSClient, T> call) {
+			if (operationClass == OperationClass.LIST) {
+				return (T) (server != null ? Collections.singletonList(server) : Collections.emptyList());
+			}
+			return (T) server;
+		}
+	}
+
+}
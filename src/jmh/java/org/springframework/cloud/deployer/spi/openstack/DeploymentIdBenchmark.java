@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.cloud.deployer.spi.app.AppDeployer;
+import org.springframework.cloud.deployer.spi.core.AppDefinition;
+import org.springframework.cloud.deployer.spi.core.AppDeploymentRequest;
+import org.springframework.core.io.ByteArrayResource;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks creating the ids and id metadata of apps and tasks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeploymentIdBenchmark {
+
+	private OpenStackAppDeployer appDeployer;
+
+	private OpenStackTaskLauncher taskLauncher;
+
+	private AppDeploymentRequest request;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		OpenStackDeployerProperties properties = new OpenStackDeployerProperties();
+		appDeployer = Deployers.appDeployer(properties);
+		taskLauncher = Deployers.taskLauncher(properties, null);
+		AppDefinition definition = new AppDefinition("benchmark.app", Collections.emptyMap());
+		request = new AppDeploymentRequest(definition, new ByteArrayResource(new byte[0]),
+				Collections.singletonMap(AppDeployer.GROUP_PROPERTY_KEY, "benchmark-group"));
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		appDeployer.destroy();
+		taskLauncher.destroy();
+	}
+
+	@Benchmark
+	public Map<String, String> createIdMap() {
+		return appDeployer.createIdMap("benchmark-group-benchmark-app", request, 3);
+	}
+
+	@Benchmark
+	public String appDeploymentId() {
+		return appDeployer.createDeploymentId(request);
+	}
+
+	@Benchmark
+	public String taskDeploymentId() {
+		return taskLauncher.createDeploymentId(request);
+	}
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.openstack4j.model.compute.Server;
+import org.openstack4j.openstack.compute.domain.NovaServer;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds servers as Nova would return them for a deployed app, without talking to Nova.
+ */
+final class SyntheticServers {
+
+	private static final Server.Status[] STATUSES = { Server.Status.ACTIVE, Server.Status.ACTIVE,
+			Server.Status.ACTIVE, Server.Status.BUILD, Server.Status.ERROR };
+
+	private SyntheticServers() {
+	}
+
+	/**
+	 * Create the given number of servers of one app, mostly active with some building
+	 * and failed ones mixed in.
+	 */
+	static List<Server> forApp(String appId, int count) {
+		List<Server> servers = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) {
+			servers.add(server(appId, i, STATUSES[i % STATUSES.length]));
+		}
+		return servers;
+	}
+
+	/**
+	 * Create the server of a launched task, whose deployment id is the task id.
+	 */
+	static Server forTask(String taskId, Server.Status status) {
+		Server server = server(taskId, 0, status);
+		server.getMetadata().put(AbstractOpenStackDeployer.SPRING_DEPLOYMENT_KEY, taskId);
+		return server;
+	}
+
+	static Server server(String appId, int index, Server.Status status) {
+		NovaServer server = new NovaServer();
+		server.id = "00000000-0000-0000-0000-" + String.format("%012d", index);
+		server.name = appId + "-" + index;
+		server.status = status;
+		server.accessIPv4 = "10.0." + (index / 256 % 256) + "." + (index % 256);
+		server.created = new Date();
+		Map<String, String> metadata = new HashMap<>();
+		metadata.put(AbstractOpenStackDeployer.SPRING_APP_KEY, appId);
+		metadata.put(AbstractOpenStackDeployer.SPRING_DEPLOYMENT_KEY, appId + "-" + index);
+		metadata.put(AbstractOpenStackDeployer.SPRING_MARKER_KEY, AbstractOpenStackDeployer.SPRING_MARKER_VALUE);
+		server.metadata = metadata;
+		return server;
+	}
+
+}
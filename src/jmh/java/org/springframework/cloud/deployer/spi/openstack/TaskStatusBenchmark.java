@@ -0,0 +1,71 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openstack4j.model.compute.Server;
+import org.springframework.cloud.deployer.spi.task.TaskStatus;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Benchmarks building the status of a task, with Nova answering from memory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TaskStatusBenchmark {
+
+	private static final String TASK_ID = "benchmark-task-abc123";
+
+	@Param({ "BUILD", "ACTIVE", "ERROR" })
+	private Server.Status status;
+
+	private OpenStackTaskLauncher taskLauncher;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Server server = SyntheticServers.forTask(TASK_ID, status);
+		taskLauncher = Deployers.taskLauncher(new OpenStackDeployerProperties(), server);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		taskLauncher.destroy();
+	}
+
+	@Benchmark
+	public TaskStatus buildTaskStatus() {
+		return taskLauncher.buildTaskStatus(TASK_ID);
+	}
+
+}
@@ -19,17 +19,29 @@ package org.springframework.cloud.deployer.spi.openstack;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.openstack4j.api.OSClient;
+import org.openstack4j.model.common.ActionResponse;
+import org.openstack4j.model.compute.Action;
 import org.openstack4j.model.compute.Server;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.cloud.deployer.spi.app.AppDeployer;
 import org.springframework.cloud.deployer.spi.app.AppStatus;
+import org.springframework.cloud.deployer.spi.app.DeploymentState;
 import org.springframework.cloud.deployer.spi.core.AppDeploymentRequest;
 import org.springframework.cloud.deployer.spi.core.RuntimeEnvironmentInfo;
+import org.springframework.cloud.deployer.spi.openstack.OpenStackDeployerProperties.TeardownStrategy;
+import org.springframework.cloud.deployer.spi.openstack.OpenStackLifecycleEngine.Operation;
 import org.springframework.cloud.deployer.spi.util.RuntimeVersionUtils;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
+import static org.springframework.cloud.deployer.spi.openstack.OpenStackRequestScheduler.OperationClass.ACTION;
+import static org.springframework.cloud.deployer.spi.openstack.OpenStackRequestScheduler.OperationClass.DELETE;
 import static org.springframework.util.CollectionUtils.isEmpty;
 import static org.springframework.util.StringUtils.collectionToCommaDelimitedString;
 
@@ -41,21 +53,117 @@ public class AbstractOpenStackDeployer {
 	protected static final String SPRING_DEPLOYMENT_KEY = "spring-deployment-id";
 	protected static final String SPRING_GROUP_KEY = "spring-group-id";
 	protected static final String SPRING_APP_KEY = "spring-app-id";
+	protected static final String SPRING_GENERATION_KEY = "spring-generation";
 	protected static final String SPRING_MARKER_KEY = "role";
 	protected static final String SPRING_MARKER_VALUE = "spring-app";
 
 	protected static final Log logger = LogFactory.getLog(AbstractOpenStackDeployer.class);
 
-	protected OSClient client;
+	protected OpenStackSessionManager sessionManager;
+
+	protected OpenStackServerInventory inventory;
+
+	protected OpenStackResourceResolver resourceResolver;
+
+	protected OpenStackDeletionTracker deletionTracker;
+
+	protected OpenStackDeploymentRegistry registry;
+
+	protected OpenStackLifecycleEngine lifecycleEngine;
+
+	protected OpenStackImageBaker imageBaker;
+
+	protected OpenStackMetrics metrics = OpenStackMetrics.NONE;
 
 	protected OpenStackDeployerProperties properties = new OpenStackDeployerProperties();
 
+	private final List<DisposableBean> ownedComponents = new ArrayList<>();
+
+	/**
+	 * Create the deployment registry of a deployer built from a client rather than by the
+	 * container, and start reconciling it with Nova as the container would.
+	 */
+	static OpenStackDeploymentRegistry createRegistry(OpenStackSessionManager sessionManager,
+			OpenStackDeployerProperties properties) {
+		OpenStackDeploymentRegistry registry = new OpenStackDeploymentRegistry(sessionManager, properties);
+		registry.afterPropertiesSet();
+		return registry;
+	}
+
+	/**
+	 * Take over the given components, which this deployer created itself rather than
+	 * being given them by the container, so that they are destroyed along with it.
+	 */
+	protected void own(DisposableBean... components) {
+		ownedComponents.addAll(Arrays.asList(components));
+	}
+
+	/**
+	 * Destroy the components this deployer created itself, in the order they were
+	 * taken over.
+	 */
+	protected void destroyOwnedComponents() {
+		for (DisposableBean component : ownedComponents) {
+			try {
+				component.destroy();
+			}
+			catch (Exception e) {
+				logger.warn(String.format("Failed to destroy %s: %s", component, e.getMessage()));
+			}
+		}
+		ownedComponents.clear();
+	}
+
+	/**
+	 * Return an OpenStack client bound to the calling thread.
+	 */
+	protected OSClient client() {
+		return sessionManager.getClient();
+	}
+
+	/**
+	 * Set the engine used to run deploy and undeploy work asynchronously. When no engine
+	 * is set, all operations block until the OpenStack calls complete.
+	 */
+	public void setLifecycleEngine(OpenStackLifecycleEngine lifecycleEngine) {
+		this.lifecycleEngine = lifecycleEngine;
+	}
+
+	/**
+	 * Set the baker used to boot servers from images with the artifact already on them.
+	 * When no baker is set, servers boot from the requested image as is.
+	 */
+	public void setImageBaker(OpenStackImageBaker imageBaker) {
+		this.imageBaker = imageBaker;
+	}
+
+	/**
+	 * Set the metrics the phases of deploys or launches are recorded to.
+	 */
+	public void setMetrics(OpenStackMetrics metrics) {
+		this.metrics = metrics != null ? metrics : OpenStackMetrics.NONE;
+	}
+
+	/**
+	 * Resolve the image to boot the servers of the given request from, baking the
+	 * artifact of the request into it when an image baker is set.
+	 */
+	protected String resolveBootImage(AppDeploymentRequest request, String flavorId) {
+		String imageId = resourceResolver.resolveImage(request);
+		if (imageBaker == null) {
+			return imageId;
+		}
+		return imageBaker.resolve(request.getResource(),
+				request.getDeploymentProperties().get(OpenStackImageBaker.ARTIFACT_VERSION_PROPERTY_KEY), imageId, flavorId);
+	}
+
 	/**
 	 * Create the RuntimeEnvironmentInfo.
 	 *
 	 * @return the OpenStack runtime environment info
 	 */
 	protected RuntimeEnvironmentInfo createRuntimeEnvironmentInfo(Class spiClass, Class implementationClass) {
+		OSClient client = client();
 		return new RuntimeEnvironmentInfo.Builder()
 				.spiClass(spiClass)
 				.implementationName(implementationClass.getSimpleName())
@@ -86,6 +194,82 @@ public class AbstractOpenStackDeployer {
 		return map;
 	}
 
+	/**
+	 * Create the id map of an instance of the given generation of an app, or of the first
+	 * deployed one if the generation is {@code null}.
+	 */
+	protected Map<String, String> createIdMap(String appId, AppDeploymentRequest request, Integer instanceIndex,
+			String generation) {
+		Map<String, String> map = createIdMap(appId, request, instanceIndex);
+		if (generation != null) {
+			map.put(SPRING_GENERATION_KEY, generation);
+		}
+		return map;
+	}
+
+	/**
+	 * Tear down a server according to the configured {@link TeardownStrategy} and have
+	 * the deletion confirmed in the background.
+	 */
+	protected void teardownServer(String serverId) {
+		TeardownStrategy strategy = properties.getTeardownStrategy();
+		if (strategy == TeardownStrategy.SUSPEND_THEN_DELETE) {
+			logger.debug(String.format("Suspending server: %s", serverId));
+			ActionResponse suspensionResponse = sessionManager.execute(ACTION,
+					client -> client.compute().servers().action(serverId, Action.SUSPEND));
+			logger.debug(String.format("Suspension status: %s", suspensionResponse));
+		}
+
+		ActionResponse deletionResponse;
+		if (strategy == TeardownStrategy.FORCE_DELETE) {
+			logger.debug(String.format("Force deleting server: %s", serverId));
+			deletionResponse = sessionManager.execute(ACTION,
+					client -> client.compute().servers().action(serverId, Action.FORCEDELETE));
+		}
+		else {
+			logger.debug(String.format("Deleting server: %s", serverId));
+			deletionResponse = sessionManager.execute(DELETE, client -> client.compute().servers().delete(serverId));
+		}
+		logger.debug(String.format("Deletion status: %s", deletionResponse));
+		if (!deletionResponse.isSuccess() && deletionResponse.getCode() != 404) {
+			throw new IllegalStateException(String.format("Failed to delete server %s: %s", serverId,
+					deletionResponse.getFault()));
+		}
+		deletionTracker.track(serverId);
+	}
+
+	/**
+	 * Tear down all servers of the given app or task and forget them. The servers are
+	 * found in the deployment registry, or in the inventory if the registry knows none of
+	 * them. A failure to tear down one server does not stop the others.
+	 */
+	protected void teardownApp(String appId) {
+		Set<String> serverIds = new LinkedHashSet<>(registry.getServerIds(appId));
+		if (serverIds.isEmpty()) {
+			for (Server server : inventory.getServersForApp(appId)) {
+				serverIds.add(server.getId());
+			}
+		}
+		RuntimeException failure = null;
+		for (String serverId : serverIds) {
+			try {
+				teardownServer(serverId);
+				registry.remove(appId, serverId);
+			}
+			catch (RuntimeException e) {
+				if (failure == null) {
+					failure = e;
+				}
+				else {
+					failure.addSuppressed(e);
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
 	protected AppStatus buildAppStatus(String id, List<? extends Server> servers) {
 		AppStatus.Builder statusBuilder = AppStatus.of(id);
 		if (!isEmpty(servers)) {
@@ -93,6 +277,15 @@ public class AbstractOpenStackDeployer {
 				statusBuilder.with(new OpenStackAppInstanceStatus(id, server, properties));
 			}
 		}
+		else if (lifecycleEngine != null) {
+			// Nova does not know about the app yet, report what we are still doing with it
+			if (lifecycleEngine.getInFlight(id) == Operation.DEPLOY) {
+				statusBuilder.generalState(DeploymentState.deploying);
+			}
+			else if (lifecycleEngine.getFailure(id) != null) {
+				statusBuilder.generalState(DeploymentState.failed);
+			}
+		}
 		return statusBuilder.build();
 	}
 
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * The default {@link TaskIdGenerator}. An id is the task name followed by a time
+ * component with a monotonic counter in its low bits and a node component chosen at
+ * random once per process, all in base 36. Ids never repeat within a process, even for
+ * concurrent launches in the same millisecond, and two processes only collide if they
+ * drew the same node component.
+ */
+public class DefaultTaskIdGenerator implements TaskIdGenerator {
+
+	/**
+	 * Number of low bits of the time component used by the counter, allowing 1024 ids
+	 * per millisecond before the time component runs ahead of the clock.
+	 */
+	private static final int COUNTER_BITS = 10;
+
+	private static final int NODE_LENGTH = 4;
+
+	private static final int NODE_RANGE = 36 * 36 * 36 * 36;
+
+	private final AtomicLong last = new AtomicLong();
+
+	private final String node;
+
+	private final LongSupplier clock;
+
+	public DefaultTaskIdGenerator() {
+		this(new SecureRandom().nextInt(NODE_RANGE));
+	}
+
+	/**
+	 * Create a generator with a fixed node component.
+	 */
+	public DefaultTaskIdGenerator(int node) {
+		this(node, System::currentTimeMillis);
+	}
+
+	DefaultTaskIdGenerator(int node, LongSupplier clock) {
+		this.clock = clock;
+		String encoded = Integer.toString(Math.floorMod(node, NODE_RANGE), 36);
+		StringBuilder padded = new StringBuilder(NODE_LENGTH);
+		for (int i = encoded.length(); i < NODE_LENGTH; i++) {
+			padded.append('0');
+		}
+		this.node = padded.append(encoded).toString();
+	}
+
+	@Override
+	public String generate(String taskName) {
+		long now = clock.getAsLong() << COUNTER_BITS;
+		long time = last.updateAndGet(previous -> Math.max(previous + 1, now));
+		StringBuilder id = new StringBuilder(taskName.length() + 18);
+		for (int i = 0; i < taskName.length(); i++) {
+			// OpenStack does not allow . in the name and does not allow uppercase in the name
+			char c = taskName.charAt(i);
+			id.append(c == '.' ? '-' : Character.toLowerCase(c));
+		}
+		return id.append('-').append(Long.toString(time, 36)).append(node).toString();
+	}
+
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.cloud.deployer.spi.openstack.OpenStackRequestScheduler.OperationClass;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link OpenStackMetrics} published to a Micrometer {@link MeterRegistry}.
+ * <p>
+ * Nova calls are timed by {@code openstack.nova.calls}, tagged with the operation
+ * class and the outcome; the timer counts double as call and error counts. The timers
+ * are registered up front, so recording a call allocates nothing. Deploy and launch
+ * phases are timed by {@code openstack.deploy.phase}, tagged with the phase and group,
+ * and with the app when {@code appTag} is set. Each phase timer is registered once, on
+ * its first use.
+ */
+public class MicrometerOpenStackMetrics implements OpenStackMetrics {
+
+	static final String CALLS = "openstack.nova.calls";
+
+	static final String PHASES = "openstack.deploy.phase";
+
+	private final MeterRegistry registry;
+
+	private final Map<OperationClass, Timer> successes = new EnumMap<>(OperationClass.class);
+
+	private final Map<OperationClass, Timer> errors = new EnumMap<>(OperationClass.class);
+
+	private final ConcurrentMap<PhaseKey, Timer> phases = new ConcurrentHashMap<>();
+
+	private final boolean appTag;
+
+	public MicrometerOpenStackMetrics(MeterRegistry registry) {
+		this(registry, false);
+	}
+
+	public MicrometerOpenStackMetrics(MeterRegistry registry, boolean appTag) {
+		this.registry = registry;
+		this.appTag = appTag;
+		for (OperationClass operationClass : OperationClass.values()) {
+			successes.put(operationClass, callTimer(operationClass, "success"));
+			errors.put(operationClass, callTimer(operationClass, "error"));
+		}
+	}
+
+	@Override
+	public void recordCall(OperationClass operationClass, long nanos, boolean success) {
+		(success ? successes : errors).get(operationClass).record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public void recordPhase(String phase, String app, String group, long nanos) {
+		PhaseKey key = new PhaseKey(phase, appTag ? app : null, group != null ? group : "none");
+		Timer timer = phases.get(key);
+		if (timer == null) {
+			timer = phases.computeIfAbsent(key, this::phaseTimer);
+		}
+		timer.record(nanos, TimeUnit.NANOSECONDS);
+	}
+
+	private Timer phaseTimer(PhaseKey key) {
+		Timer.Builder builder = Timer.builder(PHASES)
+				.tag("phase", key.phase)
+				.tag("group", key.group)
+				.publishPercentileHistogram();
+		if (key.app != null) {
+			builder.tag("app", key.app);
+		}
+		return builder.register(registry);
+	}
+
+	private Timer callTimer(OperationClass operationClass, String outcome) {
+		return Timer.builder(CALLS)
+				.tag("operation", operationClass.name().toLowerCase())
+				.tag("outcome", outcome)
+				.publishPercentileHistogram()
+				.register(registry);
+	}
+
+	private static class PhaseKey {
+
+		private final String phase;
+
+		private final String app;
+
+		private final String group;
+
+		PhaseKey(String phase, String app, String group) {
+			this.phase = phase;
+			this.app = app;
+			this.group = group;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof PhaseKey)) {
+				return false;
+			}
+			PhaseKey other = (PhaseKey) o;
+			return phase.equals(other.phase) && Objects.equals(app, other.app) && group.equals(other.group);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(phase, app, group);
+		}
+	}
+
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.annotation.JsonRootName;
+import org.openstack4j.openstack.compute.domain.NovaServerCreate;
+
+/**
+ * A {@link NovaServerCreate} that asks Nova to create several identical servers in a
+ * single request. openstack4j does not expose {@code min_count}/{@code max_count} on
+ * its builder, so use {@link #toBuilder()} on an instance of this class to populate
+ * the remaining attributes.
+ */
+@JsonRootName("server")
+class MultiServerCreate extends NovaServerCreate {
+
+	private static final long serialVersionUID = 1L;
+
+	@JsonProperty("min_count")
+	private final Integer minCount;
+
+	@JsonProperty("max_count")
+	private final Integer maxCount;
+
+	MultiServerCreate(int count) {
+		this.minCount = count;
+		this.maxCount = count;
+	}
+
+}
@@ -17,35 +17,91 @@
 package org.springframework.cloud.deployer.spi.openstack;
 
 import org.openstack4j.api.OSClient;
-import org.openstack4j.model.common.ActionResponse;
 import org.openstack4j.model.compute.Server;
 import org.openstack4j.model.compute.ServerCreate;
+import org.openstack4j.model.compute.builder.ServerCreateBuilder;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cloud.deployer.spi.app.AppDeployer;
 import org.springframework.cloud.deployer.spi.app.AppStatus;
 import org.springframework.cloud.deployer.spi.app.DeploymentState;
 import org.springframework.cloud.deployer.spi.core.AppDeploymentRequest;
 import org.springframework.cloud.deployer.spi.core.RuntimeEnvironmentInfo;
-
-import java.util.HashMap;
+import org.springframework.cloud.deployer.spi.openstack.OpenStackLifecycleEngine.Operation;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.openstack4j.api.Builders.server;
-import static org.openstack4j.model.compute.Action.SUSPEND;
+import static org.springframework.cloud.deployer.spi.openstack.OpenStackRequestScheduler.OperationClass.BOOT;
+import static org.springframework.cloud.deployer.spi.openstack.OpenStackRequestScheduler.OperationClass.DELETE;
 import static org.springframework.util.CollectionUtils.isEmpty;
 
 /**
  * A deployer that targets OpenStack.
  */
-public class OpenStackAppDeployer extends AbstractOpenStackDeployer implements AppDeployer {
+public class OpenStackAppDeployer extends AbstractOpenStackDeployer implements AppDeployer, DisposableBean {
 
 	private static final String SERVER_PORT_KEY = "server.port";
 
-	@Autowired
+	private final ExecutorService bootExecutor;
+
+	private final ExecutorService teardownExecutor;
+
+	private final OpenStackStatusWaiter statusWaiter;
+
+	private final AtomicLong nameSequence = new AtomicLong(System.currentTimeMillis());
+
 	public OpenStackAppDeployer(OpenStackDeployerProperties properties, OSClient client) {
+		this(properties, new OpenStackSessionManager(properties, client));
+		own(registry, deletionTracker, inventory, sessionManager);
+	}
+
+	private OpenStackAppDeployer(OpenStackDeployerProperties properties, OpenStackSessionManager sessionManager) {
+		this(properties, sessionManager, new OpenStackServerInventory(sessionManager, properties));
+	}
+
+	private OpenStackAppDeployer(OpenStackDeployerProperties properties, OpenStackSessionManager sessionManager,
+			OpenStackServerInventory inventory) {
+		this(properties, sessionManager, inventory, new OpenStackResourceResolver(sessionManager, properties),
+				new OpenStackDeletionTracker(inventory, properties),
+				createRegistry(sessionManager, properties));
+	}
+
+	@Autowired
+	public OpenStackAppDeployer(OpenStackDeployerProperties properties, OpenStackSessionManager sessionManager,
+			OpenStackServerInventory inventory, OpenStackResourceResolver resourceResolver,
+			OpenStackDeletionTracker deletionTracker, OpenStackDeploymentRegistry registry) {
 		this.properties = properties;
-		this.client = client;
+		this.sessionManager = sessionManager;
+		this.inventory = inventory;
+		this.resourceResolver = resourceResolver;
+		this.deletionTracker = deletionTracker;
+		this.registry = registry;
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("openstack-boot-");
+		threadFactory.setDaemon(true);
+		this.bootExecutor = Executors.newFixedThreadPool(Math.max(1, properties.getBootParallelism()), threadFactory);
+		CustomizableThreadFactory teardownThreadFactory = new CustomizableThreadFactory("openstack-teardown-");
+		teardownThreadFactory.setDaemon(true);
+		this.teardownExecutor = Executors.newFixedThreadPool(Math.max(1, properties.getDestroyParallelism()),
+				teardownThreadFactory);
+		this.statusWaiter = new OpenStackStatusWaiter(inventory, properties, this::status);
 	}
 
 	@Override
@@ -54,32 +110,22 @@ public class OpenStackAppDeployer extends AbstractOpenStackDeployer implements A
 		String appId = createDeploymentId(request);
 		logger.debug(String.format("Deploying app: %s", appId));
 
+		String group = request.getDeploymentProperties().get(GROUP_PROPERTY_KEY);
 		try {
+			long start = System.nanoTime();
 			AppStatus status = status(appId);
-			if (!status.getState().equals(DeploymentState.unknown)) {
+			metrics.recordPhase(OpenStackMetrics.PHASE_STATUS, appId, group, System.nanoTime() - start);
+			boolean failedWithoutInstances = status.getState().equals(DeploymentState.failed)
+					&& status.getInstances().isEmpty();
+			if (!status.getState().equals(DeploymentState.unknown) && !failedWithoutInstances) {
 				throw new IllegalStateException(String.format("App '%s' is already deployed", appId));
 			}
 
-			int externalPort = configureExternalPort(request);
-
-			String countProperty = request.getDeploymentProperties().get(COUNT_PROPERTY_KEY);
-			int count = (countProperty != null) ? Integer.parseInt(countProperty) : 1;
-
-			String indexedProperty = request.getDeploymentProperties().get(INDEXED_PROPERTY_KEY);
-			boolean indexed = (indexedProperty != null) && Boolean.valueOf(indexedProperty);
-
-			if (indexed) {
-				for (int index=0 ; index < count ; index++) {
-					String indexedId = appId + "-" + index;
-					Map<String, String> idMap = createIdMap(appId, request, index);
-					logger.debug(String.format("Creating service: %s on %d with index %d", appId, externalPort, index));
-					createApplication(indexedId, request, idMap, externalPort);
-				}
+			if (lifecycleEngine != null) {
+				lifecycleEngine.submit(appId, Operation.DEPLOY, () -> createApplications(appId, request));
 			}
 			else {
-				Map<String, String> idMap = createIdMap(appId, request, null);
-				logger.debug(String.format("Creating service: %s on {}", appId, externalPort));
-				createApplication(appId, request, idMap, externalPort);
+				createApplications(appId, request);
 			}
 
 			return appId;
@@ -98,19 +144,103 @@ public class OpenStackAppDeployer extends AbstractOpenStackDeployer implements A
 		}
 
 		try {
-			deleteApplication(appId);
+			if (lifecycleEngine != null) {
+				lifecycleEngine.submit(appId, Operation.UNDEPLOY, () -> {
+					deleteApplication(appId);
+					inventory.invalidate();
+				});
+			}
+			else {
+				deleteApplication(appId);
+				inventory.invalidate();
+			}
 		} catch (RuntimeException e) {
 			logger.error(e.getMessage(), e);
 			throw e;
 		}
 	}
 
+	/**
+	 * Change the number of instances of a deployed app in place. The servers the app has
+	 * now, as reported by {@link #status(String)}, are compared with the requested count:
+	 * only missing instances are booted and only surplus ones torn down, all in parallel.
+	 * Instances of an indexed app keep their index, so the missing indices below the
+	 * count are booted and the instances at or above it torn down. Of a non-indexed app,
+	 * instances that are not active are torn down first.
+	 *
+	 * @param appId the id of the app
+	 * @param request the request the app was deployed with, to boot further instances of
+	 * @param count the number of instances the app should have
+	 * @throws IllegalStateException if the app is not deployed, or an instance could not
+	 * be booted or torn down
+	 */
+	public void scale(String appId, AppDeploymentRequest request, int count) {
+		logger.debug(String.format("Scaling app %s to %d instances", appId, count));
+		if (count < 0) {
+			throw new IllegalArgumentException(String.format("Cannot scale app '%s' to %d instances", appId, count));
+		}
+		AppStatus status = status(appId);
+		if (status.getState().equals(DeploymentState.unknown)) {
+			throw new IllegalStateException(String.format("App '%s' is not deployed", appId));
+		}
+
+		try {
+			if (lifecycleEngine != null) {
+				lifecycleEngine.submit(appId, Operation.SCALE, () -> scaleApplication(appId, request, count));
+			}
+			else {
+				scaleApplication(appId, request, count);
+			}
+		} catch (RuntimeException e) {
+			logger.error(e.getMessage(), e);
+			throw e;
+		}
+	}
+
+	/**
+	 * Replace the instances of a deployed app with a new generation booted from the given
+	 * request, for instance to upgrade it to a new artifact or flavor without undeploying
+	 * it first. The instances are replaced in batches of
+	 * {@link OpenStackDeployerProperties#getRedeployBatchSize()}: the new generation of a
+	 * batch is booted and, once all of it is active, the old instances it replaces are
+	 * torn down. Up to {@link OpenStackDeployerProperties#getRedeployMaxUnavailable()}
+	 * old instances of each batch are torn down before their replacements boot. With a
+	 * batch size of zero or less the whole new generation is booted before any of the old
+	 * one is torn down. The app keeps its number of instances, and an indexed app the
+	 * index of each instance.
+	 * <p>
+	 * If an instance of a batch fails to boot or become active the redeploy stops there:
+	 * the instances of that batch that are not active are torn down, and the batches not
+	 * yet replaced keep running the old generation.
+	 *
+	 * @param appId the id of the app
+	 * @param request the request to boot the new generation of
+	 * @throws IllegalStateException if the app is not deployed, or a batch could not be
+	 * replaced
+	 */
+	public void redeploy(String appId, AppDeploymentRequest request) {
+		logger.debug(String.format("Redeploying app: %s", appId));
+		AppStatus status = status(appId);
+		if (status.getState().equals(DeploymentState.unknown)) {
+			throw new IllegalStateException(String.format("App '%s' is not deployed", appId));
+		}
+
+		try {
+			if (lifecycleEngine != null) {
+				lifecycleEngine.submit(appId, Operation.REDEPLOY, () -> redeployApplication(appId, request));
+			}
+			else {
+				redeployApplication(appId, request);
+			}
+		} catch (RuntimeException e) {
+			logger.error(e.getMessage(), e);
+			throw e;
+		}
+	}
 
 	@Override
 	public AppStatus status(String appId) {
-		Map<String, String> selector = new HashMap<>();
-		selector.put(SPRING_APP_KEY, appId);
-		List<? extends Server> servers = client.compute().servers().list(selector);
+		List<Server> servers = inventory.getServersForApp(appId);
 		if (logger.isDebugEnabled()) {
 			logger.debug(String.format("Building AppStatus for app: %s", appId));
 			if (!isEmpty(servers)) {
@@ -126,11 +256,77 @@ public class OpenStackAppDeployer extends AbstractOpenStackDeployer implements A
 		return status;
 	}
 
+	/**
+	 * Return the status of several apps at once. All statuses are built from the same
+	 * listing of the servers, so this costs at most one Nova call regardless of the
+	 * number of apps.
+	 *
+	 * @param appIds the ids of the apps
+	 * @return the status of each app, keyed by app id in the order requested
+	 */
+	public Map<String, AppStatus> statuses(String... appIds) {
+		Map<String, List<Server>> serversByApp = inventory.getServersByApp();
+		Map<String, AppStatus> statuses = new LinkedHashMap<>();
+		for (String appId : appIds) {
+			List<Server> servers = serversByApp.get(appId);
+			statuses.put(appId, buildAppStatus(appId, servers != null ? servers : Collections.emptyList()));
+		}
+		return statuses;
+	}
+
+	/**
+	 * Return a future that completes with the status of the app once it is deployed,
+	 * failed or in error. Waits for many apps share their status polls.
+	 *
+	 * @param appId the id of the app
+	 * @param timeout the maximum time to wait in milliseconds, after which the future
+	 * completes exceptionally with a {@link TimeoutException}
+	 */
+	public CompletableFuture<AppStatus> whenDeployed(String appId, long timeout) {
+		return statusWaiter.await(appId, timeout);
+	}
+
+	/**
+	 * Block until the app is deployed.
+	 *
+	 * @param appId the id of the app
+	 * @param timeout the maximum time to wait in milliseconds
+	 * @return the status of the deployed app
+	 * @throws IllegalStateException if the app failed, or was not deployed in time
+	 */
+	public AppStatus waitForDeployed(String appId, long timeout) {
+		AppStatus status;
+		try {
+			status = whenDeployed(appId, timeout).get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(String.format("Interrupted while waiting for app '%s'", appId), e);
+		}
+		catch (ExecutionException e) {
+			throw new IllegalStateException(String.format("App '%s' was not deployed: %s", appId,
+					e.getCause().getMessage()), e.getCause());
+		}
+		if (status.getState() != DeploymentState.deployed) {
+			throw new IllegalStateException(String.format("App '%s' was not deployed, state is %s", appId,
+					status.getState()));
+		}
+		return status;
+	}
+
 	@Override
 	public RuntimeEnvironmentInfo environmentInfo() {
 		return super.createRuntimeEnvironmentInfo(AppDeployer.class, this.getClass());
 	}
 
+	@Override
+	public void destroy() {
+		bootExecutor.shutdownNow();
+		teardownExecutor.shutdownNow();
+		statusWaiter.destroy();
+		destroyOwnedComponents();
+	}
+
 	protected int configureExternalPort(final AppDeploymentRequest request) {
 		int externalPort = 8080;
 		Map<String, String> parameters = request.getDefinition().getProperties();
@@ -154,37 +350,452 @@ public class OpenStackAppDeployer extends AbstractOpenStackDeployer implements A
 		return deploymentId.replace('.', '-').toLowerCase();
 	}
 
-	private void createApplication(String appId, AppDeploymentRequest request, Map<String, String> idMap, int externalPort) {
+	private void createApplications(String appId, AppDeploymentRequest request) {
+		long start = System.nanoTime();
+		int externalPort = configureExternalPort(request);
+
+		String countProperty = request.getDeploymentProperties().get(COUNT_PROPERTY_KEY);
+		int count = (countProperty != null) ? Integer.parseInt(countProperty) : 1;
+
+		Boots boots = new Boots(appId);
+		if (isIndexed(request)) {
+			for (int index=0 ; index < count ; index++) {
+				bootIndexed(boots, appId, request, externalPort, index, null);
+			}
+		}
+		else {
+			Map<String, String> idMap = createIdMap(appId, request, null);
+			logger.debug(String.format("Creating service: %s on %d with count %d", appId, externalPort, count));
+			boots.submit(() -> createApplication(appId, appId, request, idMap, externalPort, count));
+		}
+		boots.await();
+		inventory.invalidate();
+		metrics.recordPhase(OpenStackMetrics.PHASE_BOOT, appId, request.getDeploymentProperties().get(GROUP_PROPERTY_KEY),
+				System.nanoTime() - start);
+	}
+
+	private void scaleApplication(String appId, AppDeploymentRequest request, int count) {
+		int externalPort = configureExternalPort(request);
+		// diff against what Nova has now, not a listing from before the last change
+		inventory.invalidate();
+		List<Server> servers = new ArrayList<>();
+		int generation = 0;
+		for (Server server : inventory.getServersForApp(appId)) {
+			if (!deletionTracker.isPending(server.getId())) {
+				servers.add(server);
+				generation = Math.max(generation, generationOf(server));
+			}
+		}
+		// instances booted to scale up belong to the generation the app runs now
+		String current = generation > 0 ? String.valueOf(generation) : null;
+
+		List<Server> surplus = new ArrayList<>();
+		Boots boots = new Boots(appId);
+		int missing = 0;
+		if (isIndexed(request)) {
+			Set<Integer> present = new HashSet<>();
+			for (Server server : servers) {
+				int index = indexOf(appId, server);
+				if (index < 0 || index >= count || !present.add(index)) {
+					surplus.add(server);
+				}
+			}
+			for (int index = 0; index < count; index++) {
+				if (!present.contains(index)) {
+					bootIndexed(boots, appId, request, externalPort, index, current);
+					missing++;
+				}
+			}
+		}
+		else if (servers.size() < count) {
+			missing = count - servers.size();
+			int instances = missing;
+			Map<String, String> idMap = createIdMap(appId, request, null, current);
+			String name = instanceName(appId);
+			logger.debug(String.format("Creating service: %s on %d with count %d", name, externalPort, instances));
+			boots.submit(() -> createApplication(appId, name, request, idMap, externalPort, instances));
+		}
+		else {
+			// keep the active servers, tear down those still building or failed first
+			servers.sort(Comparator.comparing(server -> server.getStatus() != Server.Status.ACTIVE));
+			surplus.addAll(servers.subList(count, servers.size()));
+		}
+		logger.info(String.format("Scaling app %s from %d to %d instances: %d to boot, %d to tear down", appId,
+				servers.size(), count, missing, surplus.size()));
+
+		Map<String, Future<?>> teardowns = submitTeardowns(appId, surplus);
+		RuntimeException failure = null;
+		try {
+			boots.await();
+		}
+		catch (RuntimeException e) {
+			failure = e;
+		}
+		failure = awaitTeardowns(appId, teardowns, failure);
+		inventory.invalidate();
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	private void redeployApplication(String appId, AppDeploymentRequest request) {
+		int externalPort = configureExternalPort(request);
+		boolean indexed = isIndexed(request);
+		inventory.invalidate();
+		List<Server> servers = new ArrayList<>();
+		int generation = 0;
+		for (Server server : inventory.getServersForApp(appId)) {
+			if (!deletionTracker.isPending(server.getId())) {
+				servers.add(server);
+				generation = Math.max(generation, generationOf(server));
+			}
+		}
+		String next = String.valueOf(generation + 1);
+		if (indexed) {
+			servers.sort(Comparator.comparingInt(server -> indexOf(appId, server)));
+		}
+		else {
+			// replace the instances that are not active first
+			servers.sort(Comparator.comparing(server -> server.getStatus() == Server.Status.ACTIVE));
+		}
+		int batchSize = properties.getRedeployBatchSize() > 0 ? properties.getRedeployBatchSize()
+				: Math.max(1, servers.size());
+		int maxUnavailable = Math.max(0, properties.getRedeployMaxUnavailable());
+		logger.info(String.format("Redeploying app %s as generation %s: %d instances in batches of %d", appId, next,
+				servers.size(), batchSize));
+
+		for (int from = 0; from < servers.size(); from += batchSize) {
+			List<Server> batch = servers.subList(from, Math.min(from + batchSize, servers.size()));
+			int early = Math.min(maxUnavailable, batch.size());
+			awaitTeardowns(appId, batch.subList(0, early));
+
+			Boots boots = new Boots(appId);
+			if (indexed) {
+				for (int i = 0; i < batch.size(); i++) {
+					int index = indexOf(appId, batch.get(i));
+					bootIndexed(boots, appId, request, externalPort, index >= 0 ? index : from + i, next);
+				}
+			}
+			else {
+				int instances = batch.size();
+				Map<String, String> idMap = createIdMap(appId, request, null, next);
+				String name = instanceName(appId);
+				logger.debug(String.format("Creating service: %s on %d with count %d", name, externalPort, instances));
+				boots.submit(() -> createApplication(appId, name, request, idMap, externalPort, instances));
+			}
+			try {
+				boots.await();
+				awaitGeneration(appId, next, from + batch.size());
+			}
+			catch (RuntimeException e) {
+				logger.warn(String.format("Redeploy of app %s stopped after %d of %d instances, tearing down the "
+						+ "instances of generation %s that are not active", appId, from, servers.size(), next));
+				inventory.invalidate();
+				List<Server> failed = new ArrayList<>();
+				for (Server server : inventory.getServersForApp(appId)) {
+					if (next.equals(generationKey(server)) && server.getStatus() != Server.Status.ACTIVE
+							&& !deletionTracker.isPending(server.getId())) {
+						failed.add(server);
+					}
+				}
+				RuntimeException failure = awaitTeardowns(appId, submitTeardowns(appId, failed), e);
+				inventory.invalidate();
+				throw failure;
+			}
+			awaitTeardowns(appId, batch.subList(early, batch.size()));
+			logger.debug(String.format("Replaced %d of %d instances of app %s", from + batch.size(), servers.size(),
+					appId));
+		}
+		inventory.invalidate();
+	}
+
+	/**
+	 * Wait until the given number of servers of the given generation of an app are active.
+	 *
+	 * @throws IllegalStateException if one of them is in error, or they are not active
+	 * within {@link OpenStackDeployerProperties#getRedeployBatchTimeout()}
+	 */
+	private void awaitGeneration(String appId, String generation, int expected) {
+		long deadline = System.currentTimeMillis() + properties.getRedeployBatchTimeout();
+		long interval = Math.max(1, properties.getWaitInitialInterval());
+		while (true) {
+			inventory.invalidate();
+			int active = 0;
+			for (Server server : inventory.getServersForApp(appId)) {
+				if (!generation.equals(generationKey(server))) {
+					continue;
+				}
+				if (server.getStatus() == Server.Status.ERROR) {
+					throw new IllegalStateException(String.format("Server %s of app %s failed to boot", server.getId(),
+							appId));
+				}
+				if (server.getStatus() == Server.Status.ACTIVE) {
+					active++;
+				}
+			}
+			if (active >= expected) {
+				return;
+			}
+			if (System.currentTimeMillis() >= deadline) {
+				throw new IllegalStateException(String.format("Only %d of %d instances of generation %s of app '%s' "
+						+ "became active within %d ms", active, expected, generation, appId,
+						properties.getRedeployBatchTimeout()));
+			}
+			try {
+				Thread.sleep(interval);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(String.format("Interrupted while redeploying app '%s'", appId), e);
+			}
+			interval = Math.min(interval * 2, Math.max(interval, properties.getWaitMaxInterval()));
+		}
+	}
+
+	private Map<String, Future<?>> submitTeardowns(String appId, List<Server> servers) {
+		Map<String, Future<?>> teardowns = new LinkedHashMap<>();
+		for (Server server : servers) {
+			teardowns.put(server.getId(), teardownExecutor.submit(() -> {
+				teardownServer(server.getId());
+				registry.remove(appId, server.getId());
+			}));
+		}
+		return teardowns;
+	}
+
+	/**
+	 * Tear down the given servers of an app in parallel and wait for them.
+	 *
+	 * @throws IllegalStateException if a server could not be torn down
+	 */
+	private void awaitTeardowns(String appId, List<Server> servers) {
+		RuntimeException failure = awaitTeardowns(appId, submitTeardowns(appId, servers), null);
+		if (failure != null) {
+			throw failure;
+		}
+	}
 
-		// Create a Server Model Object
-		ServerCreate sc = server()
-							.name(appId)
-							.flavor("flavorId")
-							.image("imageId")
+	/**
+	 * Wait for the given teardowns, adding any that failed to the failure passed in.
+	 *
+	 * @return the failure passed in, or the first teardown failure if there was none
+	 */
+	private RuntimeException awaitTeardowns(String appId, Map<String, Future<?>> teardowns,
+			RuntimeException failure) {
+		for (Map.Entry<String, Future<?>> teardown : teardowns.entrySet()) {
+			RuntimeException teardownFailure = null;
+			try {
+				teardown.getValue().get();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				teardownFailure = new IllegalStateException(String.format("Interrupted while tearing down app '%s'",
+						appId), e);
+			}
+			catch (ExecutionException e) {
+				teardownFailure = new IllegalStateException(String.format("Failed to tear down server %s of app %s",
+						teardown.getKey(), appId), e.getCause());
+			}
+			if (teardownFailure != null && failure != null) {
+				failure.addSuppressed(teardownFailure);
+			}
+			else if (teardownFailure != null) {
+				failure = teardownFailure;
+			}
+		}
+		return failure;
+	}
+
+	private void bootIndexed(Boots boots, String appId, AppDeploymentRequest request, int externalPort, int index,
+			String generation) {
+		String indexedId = appId + "-" + index;
+		Map<String, String> idMap = createIdMap(appId, request, index, generation);
+		logger.debug(String.format("Creating service: %s on %d with index %d", appId, externalPort, index));
+		boots.submit(() -> createApplication(appId, indexedId, request, idMap, externalPort, 1));
+	}
+
+	/**
+	 * Return the name to boot further instances of a non-indexed app under. The ids of
+	 * the instances in its status are the server names, so it must differ from the name
+	 * of every boot before, which Nova suffixes with -1, -2, ... for several instances.
+	 */
+	private String instanceName(String appId) {
+		return appId + "-" + Long.toString(nameSequence.incrementAndGet(), 36);
+	}
+
+	private static boolean isIndexed(AppDeploymentRequest request) {
+		String indexedProperty = request.getDeploymentProperties().get(INDEXED_PROPERTY_KEY);
+		return (indexedProperty != null) && Boolean.valueOf(indexedProperty);
+	}
+
+	/**
+	 * Return the index of the given server of an indexed app, or -1 if it has none.
+	 */
+	private static int indexOf(String appId, Server server) {
+		String deploymentId = server.getMetadata() != null ? server.getMetadata().get(SPRING_DEPLOYMENT_KEY) : null;
+		if (deploymentId == null || !deploymentId.startsWith(appId + "-")) {
+			return -1;
+		}
+		try {
+			return Integer.parseInt(deploymentId.substring(appId.length() + 1));
+		}
+		catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	private static String generationKey(Server server) {
+		return server.getMetadata() != null ? server.getMetadata().get(SPRING_GENERATION_KEY) : null;
+	}
+
+	/**
+	 * Return the generation of the given server, 0 if it was booted by the first deploy.
+	 */
+	private static int generationOf(Server server) {
+		String generation = generationKey(server);
+		if (generation == null) {
+			return 0;
+		}
+		try {
+			return Integer.parseInt(generation);
+		}
+		catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private Server createApplication(String appId, String name, AppDeploymentRequest request,
+			Map<String, String> idMap, int externalPort, int count) {
+
+		// Create a Server Model Object, booting all instances in one request when count > 1
+		String flavorId = resourceResolver.resolveFlavor(request);
+		ServerCreateBuilder builder = count > 1 ? new MultiServerCreate(count).toBuilder() : server();
+		ServerCreate sc = builder
+							.name(name)
+							.flavor(flavorId)
+							.image(resolveBootImage(request, flavorId))
 							.addMetadata(idMap)
 							.addMetadataItem(SPRING_MARKER_KEY, SPRING_MARKER_VALUE)
 //							.addNetworkPort(externalPort)
 							.build();
 
-		// Boot the Server
-		Server server = client
-							.compute()
-							.servers()
-							.boot(sc);
-
+		// Boot the Server, only the first of a multi-instance boot is returned
+		Server server = sessionManager.execute(BOOT, client -> client.compute().servers().boot(sc));
+		// record the deployment id the server carries, as reconcile would, not its name
+		String deploymentId = idMap.get(SPRING_DEPLOYMENT_KEY);
+		registry.put(appId, deploymentId, server.getId());
+		if (count > 1) {
+			// record the rest from a listing, teardown only looks in the registry; Nova names
+			// them after the request, which tells them apart from servers booted before
+			inventory.invalidate();
+			Set<String> known = registry.getServerIds(appId);
+			for (Server booted : inventory.getServersForApp(appId)) {
+				if (!known.contains(booted.getId()) && booted.getName() != null
+						&& booted.getName().startsWith(name + "-")) {
+					registry.put(appId, deploymentId, booted.getId());
+				}
+			}
+		}
+		return server;
 	}
 
 
 	private void deleteApplication(String appId) {
-		// Suspend Server
-		logger.debug(String.format("Suspending service: %s", appId));
-		ActionResponse suspensionResponse = client.compute().servers().action(appId, SUSPEND);
-		logger.debug(String.format("Suspension status: %s", suspensionResponse));
-
-		// Delete Server
 		logger.debug(String.format("Deleting service: %s", appId));
-		ActionResponse deletionResponse = client.compute().servers().delete(appId);
-		logger.debug(String.format("Deletion status: %s", deletionResponse));
+		teardownApp(appId);
+	}
+
+	/**
+	 * The instance boots of one deploy, scale or redeploy batch of an app, run in
+	 * parallel. Once a boot fails the boots that have not started yet are skipped, and
+	 * {@link #await()} waits for those in flight and deletes every server recorded for
+	 * the app since, so a failed deployment does not leave a partially booted app behind.
+	 */
+	private final class Boots {
+
+		private final String appId;
+
+		private final Set<String> known;
+
+		private final AtomicBoolean failed = new AtomicBoolean();
+
+		private final List<Future<?>> boots = new ArrayList<>();
+
+		Boots(String appId) {
+			this.appId = appId;
+			this.known = registry.getServerIds(appId);
+		}
+
+		void submit(Runnable boot) {
+			boots.add(bootExecutor.submit(() -> {
+				if (failed.get()) {
+					return;
+				}
+				try {
+					boot.run();
+				}
+				catch (RuntimeException e) {
+					failed.set(true);
+					throw e;
+				}
+			}));
+		}
+
+		/**
+		 * Wait for all boots to complete, rolling back the servers they booted if any
+		 * of them failed.
+		 */
+		void await() {
+			RuntimeException failure = null;
+			for (Future<?> boot : boots) {
+				RuntimeException bootFailure = null;
+				try {
+					boot.get();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					failed.set(true);
+					bootFailure = new IllegalStateException(String.format("Interrupted while deploying app '%s'",
+							appId), e);
+				}
+				catch (ExecutionException e) {
+					bootFailure = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+							: new IllegalStateException(e.getCause());
+				}
+				if (bootFailure != null && failure != null) {
+					failure.addSuppressed(bootFailure);
+				}
+				else if (bootFailure != null) {
+					failure = bootFailure;
+				}
+				if (Thread.currentThread().isInterrupted()) {
+					break;
+				}
+			}
+			if (failure != null) {
+				rollback();
+				throw failure;
+			}
+		}
+
+		private void rollback() {
+			// the registry holds every server of a multi-instance boot, not just the one returned
+			Set<String> booted = new LinkedHashSet<>(registry.getServerIds(appId));
+			booted.removeAll(known);
+			logger.warn(String.format("Deployment of app %s failed, rolling back %d booted servers", appId,
+					booted.size()));
+			for (String serverId : booted) {
+				try {
+					sessionManager.execute(DELETE, client -> client.compute().servers().delete(serverId));
+					deletionTracker.track(serverId);
+					registry.remove(appId, serverId);
+				}
+				catch (RuntimeException e) {
+					logger.error(String.format("Failed to roll back server %s: %s", serverId, e.getMessage()), e);
+				}
+			}
+			inventory.invalidate();
+		}
 	}
 
 }
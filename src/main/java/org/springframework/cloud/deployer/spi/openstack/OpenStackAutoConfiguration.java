@@ -16,16 +16,30 @@
 
 package org.springframework.cloud.deployer.spi.openstack;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import org.openstack4j.api.OSClient;
-import org.openstack4j.openstack.OSFactory;
+import org.springframework.beans.factory.ObjectProvider;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.autoconfigure.AutoConfigureOrder;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionOutcome;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.SpringBootCondition;
+import org.springframework.boot.bind.RelaxedPropertyResolver;
 import org.springframework.boot.context.properties.EnableConfigurationProperties;
 import org.springframework.cloud.deployer.spi.app.AppDeployer;
 import org.springframework.cloud.deployer.spi.task.TaskLauncher;
 import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Conditional;
+import org.springframework.context.annotation.ConditionContext;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.core.Ordered;
+import org.springframework.core.type.AnnotatedTypeMetadata;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Spring Bean configuration for the {@link OpenStackAppDeployer}.
@@ -39,21 +53,149 @@ public class OpenStackAutoConfiguration {
 	private OpenStackDeployerProperties properties;
 
 	@Bean
-	public AppDeployer appDeployer(OSClient osClient) {
-		return new OpenStackAppDeployer(properties, osClient);
+	public AppDeployer appDeployer(OpenStackShards shards, ObjectProvider<OpenStackLifecycleEngine> lifecycleEngine,
+			ObjectProvider<OpenStackMetrics> metrics) {
+		Map<OpenStackShard, OpenStackAppDeployer> appDeployers = new LinkedHashMap<>();
+		for (OpenStackShard shard : shards.getShards()) {
+			OpenStackAppDeployer appDeployer = shard.createAppDeployer();
+			appDeployer.setLifecycleEngine(lifecycleEngine.getIfAvailable());
+			appDeployer.setMetrics(metrics.getIfAvailable());
+			appDeployers.put(shard, appDeployer);
+		}
+		if (!shards.isSharded()) {
+			return appDeployers.get(shards.getDefaultShard());
+		}
+		return new OpenStackShardedAppDeployer(shards, appDeployers);
+	}
+
+	@Bean
+	public TaskLauncher taskDeployer(OpenStackShards shards, ObjectProvider<OpenStackLifecycleEngine> lifecycleEngine,
+			ObjectProvider<OpenStackMetrics> metrics, TaskIdGenerator taskIdGenerator) {
+		Map<OpenStackShard, OpenStackTaskLauncher> taskLaunchers = new LinkedHashMap<>();
+		for (OpenStackShard shard : shards.getShards()) {
+			OpenStackTaskLauncher taskLauncher = shard.createTaskLauncher();
+			taskLauncher.setLifecycleEngine(lifecycleEngine.getIfAvailable());
+			taskLauncher.setMetrics(metrics.getIfAvailable());
+			taskLauncher.setTaskIdGenerator(taskIdGenerator);
+			taskLaunchers.put(shard, taskLauncher);
+		}
+		if (!shards.isSharded()) {
+			return taskLaunchers.get(shards.getDefaultShard());
+		}
+		return new OpenStackShardedTaskLauncher(shards, taskLaunchers);
+	}
+
+	/**
+	 * The shards to deploy to: the endpoint configured at the top level, and any further
+	 * shards configured under {@code shards}.
+	 */
+	@Bean
+	public OpenStackShards shards(OpenStackSessionManager sessionManager, OpenStackServerInventory serverInventory,
+			OpenStackResourceResolver resourceResolver, OpenStackDeletionTracker deletionTracker,
+			OpenStackDeploymentRegistry deploymentRegistry, ObjectProvider<OpenStackWarmPool> warmPool,
+			ObjectProvider<OpenStackImageBaker> imageBaker, ObjectProvider<OpenStackMetrics> metrics) {
+		OpenStackShard defaultShard = new OpenStackShard(OpenStackShards.DEFAULT_SHARD, properties, sessionManager,
+				serverInventory, resourceResolver, deletionTracker, deploymentRegistry,
+				warmPool.getIfAvailable(), imageBaker.getIfAvailable());
+		return new OpenStackShards(defaultShard, properties, metrics.getIfAvailable());
+	}
+
+	@Bean
+	@ConditionalOnMissingBean
+	public TaskIdGenerator taskIdGenerator() {
+		return new DefaultTaskIdGenerator();
 	}
 
 	@Bean
-	public TaskLauncher taskDeployer(OSClient osClient) {
-		return new OpenStackTaskLauncher(properties, osClient);
+	public OpenStackServerInventory serverInventory(OpenStackSessionManager sessionManager,
+			ObjectProvider<OpenStackMetrics> metrics) {
+		OpenStackServerInventory serverInventory = new OpenStackServerInventory(sessionManager, properties);
+		serverInventory.setMetrics(metrics.getIfAvailable());
+		return serverInventory;
 	}
 
 	@Bean
-	public OSClient osClient() {
-		return OSFactory.builderV2()
-				.endpoint(properties.getEndpoint())
-				.credentials(properties.getUserId(),properties.getPassword())
-				.tenantName(properties.getTenantName())
-				.authenticate();
+	public OpenStackResourceResolver resourceResolver(OpenStackSessionManager sessionManager) {
+		return new OpenStackResourceResolver(sessionManager, properties);
 	}
+
+	@Bean
+	public OpenStackDeletionTracker deletionTracker(OpenStackServerInventory serverInventory) {
+		return new OpenStackDeletionTracker(serverInventory, properties);
+	}
+
+	@Bean
+	public OpenStackDeploymentRegistry deploymentRegistry(OpenStackSessionManager sessionManager) {
+		return new OpenStackDeploymentRegistry(sessionManager, properties);
+	}
+
+	@Bean
+	@Conditional(WarmPoolEnabledCondition.class)
+	public OpenStackWarmPool warmPool(OpenStackSessionManager sessionManager) {
+		return new OpenStackWarmPool(sessionManager, properties);
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "spring.cloud.deployer.openstack", name = "async-lifecycle", havingValue = "true")
+	public OpenStackLifecycleEngine lifecycleEngine() {
+		return new OpenStackLifecycleEngine(properties);
+	}
+
+	@Bean
+	@ConditionalOnProperty(prefix = "spring.cloud.deployer.openstack", name = "image-baking", havingValue = "true")
+	public OpenStackImageBaker imageBaker(OpenStackSessionManager sessionManager) {
+		return new OpenStackImageBaker(sessionManager, properties);
+	}
+
+	@Bean
+	public OpenStackSessionManager sessionManager(ObjectProvider<OpenStackMetrics> metrics) {
+		OpenStackSessionManager sessionManager = new OpenStackSessionManager(properties);
+		sessionManager.setMetrics(metrics.getIfAvailable());
+		return sessionManager;
+	}
+
+	/**
+	 * Publishes the OpenStack metrics to Micrometer when it is on the classpath and a
+	 * registry is available.
+	 */
+	@Configuration
+	@ConditionalOnClass(MeterRegistry.class)
+	static class MetricsConfiguration {
+
+		@Bean
+		public OpenStackMetrics openStackMetrics(ObjectProvider<MeterRegistry> meterRegistry,
+				OpenStackDeployerProperties properties) {
+			MeterRegistry registry = meterRegistry.getIfAvailable();
+			return registry != null ? new MicrometerOpenStackMetrics(registry, properties.isMetricsAppTag())
+					: OpenStackMetrics.NONE;
+		}
+	}
+
+	/**
+	 * A client bound to the thread that first asks for it. It is created on first use, so
+	 * that startup does not wait for Keystone. Code running on other threads should
+	 * obtain its client from the {@link OpenStackSessionManager}.
+	 */
+	@Bean
+	@Lazy
+	public OSClient osClient(OpenStackSessionManager sessionManager) {
+		return sessionManager.getClient();
+	}
+
+	/**
+	 * Matches when {@code warm-pool-size} is positive.
+	 */
+	static class WarmPoolEnabledCondition extends SpringBootCondition {
+
+		@Override
+		public ConditionOutcome getMatchOutcome(ConditionContext context, AnnotatedTypeMetadata metadata) {
+			RelaxedPropertyResolver resolver = new RelaxedPropertyResolver(context.getEnvironment(),
+					"spring.cloud.deployer.openstack.");
+			Integer size = resolver.getProperty("warm-pool-size", Integer.class, 0);
+			return size > 0 ? ConditionOutcome.match("warm pool size is " + size)
+					: ConditionOutcome.noMatch("warm pool disabled");
+		}
+
+	}
+
 }
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.impl.NoConnectionReuseStrategy;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.openstack4j.connectors.httpclient.HttpClientFactory;
+import org.openstack4j.core.transport.Config;
+import org.openstack4j.core.transport.HttpExecutorService;
+import org.openstack4j.core.transport.internal.HttpExecutor;
+import org.springframework.cloud.deployer.spi.openstack.OpenStackDeployerProperties.Connector;
+import org.springframework.util.ReflectionUtils;
+
+import java.lang.reflect.Field;
+import java.util.Date;
+import java.util.Locale;
+import java.util.ServiceLoader;
+
+/**
+ * Selects the openstack4j connector HTTP calls are made with and derives its
+ * {@link Config} from the {@link OpenStackDeployerProperties}: connection pool size and
+ * timeouts, and for the Apache HttpClient connector also how long idle connections are
+ * kept alive and whether responses are compressed.
+ * <p>
+ * openstack4j has a single connector, and the Apache HttpClient connector a single
+ * connection pool, per JVM. The connector is chosen by the first call here, and the pool
+ * is built with the settings of the first client making a call.
+ * <p>
+ * The Apache HttpClient connector also records the 413 and 429 answers to the calls
+ * made on each thread, see {@link #takeRateLimited()}.
+ */
+final class OpenStackConnector {
+
+	private static final Log logger = LogFactory.getLog(OpenStackConnector.class);
+
+	private static final String CONNECTOR_PACKAGE = "org.openstack4j.connectors.";
+
+	private static final ThreadLocal<RateLimited> rateLimited = new ThreadLocal<>();
+
+	private static HttpExecutorService service;
+
+	private OpenStackConnector() {
+	}
+
+	/**
+	 * Select the configured connector, if not done yet, and return the client
+	 * configuration to use with it.
+	 */
+	static Config configure(OpenStackDeployerProperties properties) {
+		synchronized (OpenStackConnector.class) {
+			if (service == null) {
+				service = select(properties.getConnector());
+				logger.info(String.format("Calling OpenStack through the %s", service.getExecutorDisplayName()));
+				if (isConnector(service, Connector.HTTPCLIENT)) {
+					HttpClientTuning.register(properties);
+				}
+			}
+		}
+		Config config = Config.newConfig()
+				.withConnectionTimeout(properties.getConnectTimeout())
+				.withReadTimeout(properties.getReadTimeout());
+		if (properties.getMaxConnections() > 0) {
+			config.withMaxConnections(properties.getMaxConnections());
+		}
+		if (properties.getMaxConnectionsPerRoute() > 0) {
+			config.withMaxConnectionsPerRoute(properties.getMaxConnectionsPerRoute());
+		}
+		return config;
+	}
+
+	/**
+	 * Return and forget the rate limiting Nova answered the last call on this thread
+	 * with, or {@code null} if it did not or the connector cannot tell. openstack4j turns
+	 * 413 and 429 answers to server actions and deletes into successful responses, so
+	 * this is the only way to see them for those calls.
+	 */
+	static RateLimited takeRateLimited() {
+		RateLimited limited = rateLimited.get();
+		rateLimited.remove();
+		return limited;
+	}
+
+	private static HttpExecutorService select(Connector connector) {
+		HttpExecutor executor = HttpExecutor.create();
+		// loads the first connector on the classpath, as openstack4j does on its first call
+		executor.getExecutorName();
+		Field field = ReflectionUtils.findField(HttpExecutor.class, "service", HttpExecutorService.class);
+		if (field == null) {
+			throw new IllegalStateException("Cannot select a connector with this version of openstack4j");
+		}
+		ReflectionUtils.makeAccessible(field);
+		HttpExecutorService current = (HttpExecutorService) ReflectionUtils.getField(field, executor);
+		if (connector == Connector.DEFAULT || isConnector(current, connector)) {
+			return current;
+		}
+		for (HttpExecutorService candidate : ServiceLoader.load(HttpExecutorService.class,
+				HttpExecutor.class.getClassLoader())) {
+			if (isConnector(candidate, connector)) {
+				ReflectionUtils.setField(field, executor, candidate);
+				return candidate;
+			}
+		}
+		throw new IllegalStateException(String.format("The openstack4j %s connector is not on the classpath",
+				connector.name().toLowerCase(Locale.ROOT)));
+	}
+
+	private static boolean isConnector(HttpExecutorService service, Connector connector) {
+		return service.getClass().getName()
+				.startsWith(CONNECTOR_PACKAGE + connector.name().toLowerCase(Locale.ROOT) + ".");
+	}
+
+	/**
+	 * Applies the settings openstack4j has no {@link Config} for to the Apache HttpClient
+	 * connector. Kept apart so that HttpClient is only loaded when that connector is used.
+	 */
+	private static class HttpClientTuning {
+
+		static void register(OpenStackDeployerProperties properties) {
+			long keepAlive = properties.getKeepAlive();
+			boolean compression = properties.isCompression();
+			HttpClientFactory.registerInterceptor((builder, requestConfig, config) -> {
+				if (keepAlive > 0) {
+					builder.setKeepAliveStrategy((response, context) -> {
+						long advertised = DefaultConnectionKeepAliveStrategy.INSTANCE
+								.getKeepAliveDuration(response, context);
+						return advertised > 0 ? Math.min(advertised, keepAlive) : keepAlive;
+					});
+					// connections are dropped before servers commonly time them out, rather
+					// than checked for staleness, which blocks every call for a millisecond
+					requestConfig.setStaleConnectionCheckEnabled(false);
+				}
+				else {
+					builder.setConnectionReuseStrategy(NoConnectionReuseStrategy.INSTANCE);
+				}
+				if (!compression) {
+					builder.disableContentCompression();
+				}
+				builder.addInterceptorLast((HttpResponseInterceptor) (response, context) -> record(response));
+			});
+		}
+
+		/**
+		 * Remember whether the response rate limits us, on the thread that made the call.
+		 */
+		private static void record(HttpResponse response) {
+			int status = response.getStatusLine().getStatusCode();
+			if (status != 413 && status != 429) {
+				rateLimited.remove();
+				return;
+			}
+			Header header = response.getFirstHeader("Retry-After");
+			rateLimited.set(new RateLimited(status, header != null ? parseRetryAfter(header.getValue()) : -1));
+		}
+
+		/**
+		 * Parse a Retry-After header, given in seconds or as a date, into milliseconds.
+		 */
+		private static long parseRetryAfter(String value) {
+			String trimmed = value.trim();
+			if (trimmed.matches("\\d+")) {
+				return Long.parseLong(trimmed) * 1000;
+			}
+			Date date = DateUtils.parseDate(trimmed);
+			return date != null ? Math.max(0, date.getTime() - System.currentTimeMillis()) : -1;
+		}
+	}
+
+	/**
+	 * A 413 or 429 answer from Nova.
+	 */
+	static final class RateLimited {
+
+		private final int status;
+
+		private final long retryAfter;
+
+		RateLimited(int status, long retryAfter) {
+			this.status = status;
+			this.retryAfter = retryAfter;
+		}
+
+		int getStatus() {
+			return status;
+		}
+
+		/**
+		 * Return the time in milliseconds Nova asked us to wait, or -1 if it did not say.
+		 */
+		long getRetryAfter() {
+			return retryAfter;
+		}
+	}
+
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Confirms in the background that servers we asked Nova to delete are really gone.
+ * Deletions are confirmed from the {@link OpenStackServerInventory}, which sees them in
+ * its {@code changes-since} listings, so confirming any number of deletions costs one
+ * incremental listing per poll rather than a call per server. While deletions are
+ * pending the inventory is refreshed with an exponentially growing interval, starting at
+ * {@link OpenStackDeployerProperties#getDeletionPollInterval()}; a deletion that is not
+ * seen within {@link OpenStackDeployerProperties#getDeletionConfirmTimeout()} is no
+ * longer waited for. A refresh may see a server deleted before it is tracked, so the
+ * deletions seen recently are remembered for as long and confirm it right away.
+ */
+public class OpenStackDeletionTracker implements DisposableBean {
+
+	private static final Log logger = LogFactory.getLog(OpenStackDeletionTracker.class);
+
+	private static final long MAX_POLL_INTERVAL = 30000;
+
+	private static final int MAX_UNEXPIRED_DELETIONS = 1024;
+
+	private final OpenStackServerInventory inventory;
+
+	private final OpenStackDeployerProperties properties;
+
+	/**
+	 * The servers whose deletion is pending, with the time at which we stop waiting.
+	 */
+	private final Map<String, Long> pending = new ConcurrentHashMap<>();
+
+	/**
+	 * The servers the inventory saw deleted, with the time at which we forget them.
+	 */
+	private final Map<String, Long> deleted = new ConcurrentHashMap<>();
+
+	private final AtomicBoolean polling = new AtomicBoolean();
+
+	private final ScheduledExecutorService poller;
+
+	public OpenStackDeletionTracker(OpenStackServerInventory inventory, OpenStackDeployerProperties properties) {
+		this.inventory = inventory;
+		this.properties = properties;
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("openstack-deletion-");
+		threadFactory.setDaemon(true);
+		this.poller = Executors.newSingleThreadScheduledExecutor(threadFactory);
+		inventory.addDeletionListener(this::confirm);
+	}
+
+	/**
+	 * Start confirming the deletion of the given server.
+	 */
+	public void track(String serverId) {
+		long deadline = System.currentTimeMillis() + properties.getDeletionConfirmTimeout();
+		if (pending.putIfAbsent(serverId, deadline) != null) {
+			return;
+		}
+		// checked after adding it, as confirm() records the deletion before removing it
+		if (deleted.containsKey(serverId)) {
+			confirm(serverId);
+			return;
+		}
+		startPolling();
+	}
+
+	/**
+	 * Return whether the deletion of the given server has not been confirmed yet.
+	 */
+	public boolean isPending(String serverId) {
+		return pending.containsKey(serverId);
+	}
+
+	@Override
+	public void destroy() {
+		poller.shutdownNow();
+	}
+
+	private void confirm(String serverId) {
+		long now = System.currentTimeMillis();
+		if (deleted.size() >= MAX_UNEXPIRED_DELETIONS) {
+			deleted.values().removeIf(expiry -> now >= expiry);
+		}
+		deleted.put(serverId, now + properties.getDeletionConfirmTimeout());
+		if (pending.remove(serverId) != null) {
+			logger.debug(String.format("Deletion of server %s confirmed", serverId));
+		}
+	}
+
+	private void startPolling() {
+		if (polling.compareAndSet(false, true)) {
+			schedule(properties.getDeletionPollInterval());
+		}
+	}
+
+	private void schedule(long delay) {
+		poller.schedule(() -> poll(delay), delay, TimeUnit.MILLISECONDS);
+	}
+
+	private void poll(long delay) {
+		try {
+			inventory.refresh();
+		}
+		catch (RuntimeException e) {
+			logger.debug(String.format("Failed to check %d pending deletions: %s", pending.size(), e.getMessage()));
+		}
+		long now = System.currentTimeMillis();
+		for (Iterator<Map.Entry<String, Long>> entries = pending.entrySet().iterator(); entries.hasNext();) {
+			Map.Entry<String, Long> entry = entries.next();
+			if (now >= entry.getValue()) {
+				logger.warn(String.format("Deletion of server %s not confirmed within %d ms", entry.getKey(),
+						properties.getDeletionConfirmTimeout()));
+				entries.remove();
+			}
+		}
+		if (!pending.isEmpty()) {
+			schedule(Math.min(delay * 2, MAX_POLL_INTERVAL));
+			return;
+		}
+		polling.set(false);
+		// a server tracked while we were stopping must not be left unpolled
+		if (!pending.isEmpty()) {
+			startPolling();
+		}
+	}
+
+}
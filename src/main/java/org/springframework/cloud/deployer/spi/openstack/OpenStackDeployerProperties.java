@@ -18,14 +18,439 @@ package org.springframework.cloud.deployer.spi.openstack;
 
 import org.springframework.boot.context.properties.ConfigurationProperties;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 @ConfigurationProperties(prefix = "spring.cloud.deployer.openstack")
 public class OpenStackDeployerProperties {
 
+	/**
+	 * How servers are torn down on undeploy and task cleanup.
+	 */
+	public enum TeardownStrategy {
+
+		/**
+		 * Delete the server directly.
+		 */
+		DELETE,
+
+		/**
+		 * Force-delete the server, bypassing any soft-delete retention.
+		 */
+		FORCE_DELETE,
+
+		/**
+		 * Suspend the server first, then delete it.
+		 */
+		SUSPEND_THEN_DELETE
+	}
+
+	/**
+	 * The openstack4j connector HTTP calls are made with.
+	 */
+	public enum Connector {
+
+		/**
+		 * The first connector found on the classpath.
+		 */
+		DEFAULT,
+
+		/**
+		 * The Apache HttpClient connector.
+		 */
+		HTTPCLIENT,
+
+		/**
+		 * The OkHttp connector.
+		 */
+		OKHTTP,
+
+		/**
+		 * The Jersey 2 connector.
+		 */
+		JERSEY2,
+
+		/**
+		 * The RESTEasy connector.
+		 */
+		RESTEASY
+	}
+
+	/**
+	 * A further region or project to place deployments on. Settings left unset are
+	 * taken from the top-level properties.
+	 */
+	public static class Shard {
+
+		private String userId;
+		private String password;
+		private String tenantName;
+		private String endpoint;
+
+		/**
+		 * Region of the endpoint to use.
+		 */
+		private String region;
+
+		/**
+		 * Share of the deployments this shard takes relative to the other shards.
+		 */
+		private Integer weight;
+
+		/**
+		 * Maximum number of servers deployed on this shard, zero for no limit other than
+		 * the Nova quota.
+		 */
+		private Integer maxInstances;
+
+		public String getUserId() {
+			return userId;
+		}
+
+		public void setUserId(String userId) {
+			this.userId = userId;
+		}
+
+		public String getPassword() {
+			return password;
+		}
+
+		public void setPassword(String password) {
+			this.password = password;
+		}
+
+		public String getTenantName() {
+			return tenantName;
+		}
+
+		public void setTenantName(String tenantName) {
+			this.tenantName = tenantName;
+		}
+
+		public String getEndpoint() {
+			return endpoint;
+		}
+
+		public void setEndpoint(String endpoint) {
+			this.endpoint = endpoint;
+		}
+
+		public String getRegion() {
+			return region;
+		}
+
+		public void setRegion(String region) {
+			this.region = region;
+		}
+
+		public Integer getWeight() {
+			return weight;
+		}
+
+		public void setWeight(Integer weight) {
+			this.weight = weight;
+		}
+
+		public Integer getMaxInstances() {
+			return maxInstances;
+		}
+
+		public void setMaxInstances(Integer maxInstances) {
+			this.maxInstances = maxInstances;
+		}
+	}
+
 	private String userId;
 	private String password;
 	private String tenantName;
 	private String endpoint;
 
+	/**
+	 * Region of the endpoint to use, for clouds with more than one.
+	 */
+	private String region;
+
+	/**
+	 * Further regions or projects to spread deployments over, by shard name. The
+	 * endpoint configured at the top level remains the default shard. Shard names must
+	 * not contain a dot, since they prefix the ids of the deployments placed on them.
+	 */
+	private Map<String, Shard> shards = new LinkedHashMap<>();
+
+	/**
+	 * Share of the deployments the default shard takes relative to the other shards.
+	 */
+	private int shardWeight = 1;
+
+	/**
+	 * Maximum number of servers deployed on the default shard, zero for no limit other
+	 * than the Nova quota.
+	 */
+	private int maxInstances = 0;
+
+	/**
+	 * Interval in milliseconds between background refreshes of the server inventory.
+	 * A value of zero or less disables background refreshing.
+	 */
+	private long inventoryRefreshInterval = 5000;
+
+	/**
+	 * Maximum age in milliseconds of the server inventory before a read lists the
+	 * servers again.
+	 */
+	private long inventoryMaxStaleness = 10000;
+
+	/**
+	 * Interval in milliseconds at which the inventory lists all servers instead of only
+	 * the servers changed since its last refresh.
+	 */
+	private long inventoryFullResyncInterval = 300000;
+
+	/**
+	 * Number of servers to request per call when listing servers.
+	 */
+	private int listPageSize = 500;
+
+	/**
+	 * Maximum number of instance boots dispatched concurrently for indexed deployments.
+	 */
+	private int bootParallelism = 4;
+
+	/**
+	 * Whether deploy, undeploy, launch and cleanup return as soon as the work is queued
+	 * instead of waiting for the OpenStack calls to complete.
+	 */
+	private boolean asyncLifecycle = false;
+
+	/**
+	 * Number of worker threads running queued lifecycle operations.
+	 */
+	private int lifecycleWorkers = 4;
+
+	/**
+	 * Maximum number of lifecycle operations waiting for a worker.
+	 */
+	private int lifecycleQueueCapacity = 100;
+
+	/**
+	 * Time in milliseconds a caller waits for room in a full lifecycle queue before the
+	 * operation is rejected.
+	 */
+	private long lifecycleSubmitTimeout = 30000;
+
+	/**
+	 * Time in milliseconds the failure of a lifecycle operation is reported for an id
+	 * that Nova has no servers for.
+	 */
+	private long lifecycleFailureTtl = 600000;
+
+	/**
+	 * Time in milliseconds before the Keystone token expires at which it is refreshed.
+	 */
+	private long tokenRefreshMargin = 300000;
+
+	/**
+	 * Initial interval in milliseconds between attempts to authenticate at startup.
+	 */
+	private long authRetryInitialInterval = 1000;
+
+	/**
+	 * Maximum interval in milliseconds between attempts to authenticate at startup.
+	 */
+	private long authRetryMaxInterval = 60000;
+
+	/**
+	 * ID or name of the flavor used when a deployment requests neither a flavor nor
+	 * memory or cpu. Without it the smallest flavor is used.
+	 */
+	private String flavor;
+
+	/**
+	 * ID or name of the image used when a deployment does not request one. Required
+	 * unless every deployment requests an image.
+	 */
+	private String image;
+
+	/**
+	 * Time in milliseconds the flavor and image catalogs are cached.
+	 */
+	private long resourceCacheTtl = 300000;
+
+	/**
+	 * Time in milliseconds a flavor or image that was not found is remembered as
+	 * missing, during which resolving it again fails without reloading its catalog.
+	 */
+	private long resourceMissCacheTtl = 10000;
+
+	/**
+	 * Maximum number of servers deleted concurrently when a task is destroyed or an app
+	 * is scaled down.
+	 */
+	private int destroyParallelism = 8;
+
+	/**
+	 * How servers are torn down on undeploy and task cleanup.
+	 */
+	private TeardownStrategy teardownStrategy = TeardownStrategy.SUSPEND_THEN_DELETE;
+
+	/**
+	 * Initial interval in milliseconds between checks that a deleted server is gone.
+	 */
+	private long deletionPollInterval = 1000;
+
+	/**
+	 * Time in milliseconds after which an unconfirmed deletion is no longer checked.
+	 */
+	private long deletionConfirmTimeout = 600000;
+
+	/**
+	 * Initial interval in milliseconds between status polls when waiting for an app.
+	 */
+	private long waitInitialInterval = 500;
+
+	/**
+	 * Maximum interval in milliseconds between status polls when waiting for an app.
+	 */
+	private long waitMaxInterval = 10000;
+
+	/**
+	 * Maximum number of server list calls per second, zero or less for no limit.
+	 */
+	private double rateLimitList = 0;
+
+	/**
+	 * Maximum number of server get calls per second, zero or less for no limit.
+	 */
+	private double rateLimitGet = 0;
+
+	/**
+	 * Maximum number of server boot calls per second, zero or less for no limit.
+	 */
+	private double rateLimitBoot = 0;
+
+	/**
+	 * Maximum number of server action calls per second, zero or less for no limit.
+	 */
+	private double rateLimitAction = 0;
+
+	/**
+	 * Maximum number of server delete calls per second, zero or less for no limit.
+	 */
+	private double rateLimitDelete = 0;
+
+	/**
+	 * Initial time in milliseconds to wait before retrying a call that Nova rejected as
+	 * over limit without saying when to retry.
+	 */
+	private long rateLimitRetryBackoff = 1000;
+
+	/**
+	 * Maximum number of retries of a call that Nova rejected as over limit.
+	 */
+	private int rateLimitMaxRetries = 5;
+
+	/**
+	 * Number of idle, pre-booted servers to keep ready per flavor and image for task
+	 * launches, zero to disable the warm pool.
+	 */
+	private int warmPoolSize = 0;
+
+	/**
+	 * Time in milliseconds after which an unclaimed warm server is deleted, and after
+	 * which a flavor and image no longer launched stop being kept warm.
+	 */
+	private long warmPoolIdleTtl = 1800000;
+
+	/**
+	 * Interval in milliseconds at which the warm pool is replenished.
+	 */
+	private long warmPoolReplenishInterval = 30000;
+
+	/**
+	 * Whether to bake the artifact of each deployment into a Glance image and boot from
+	 * that image.
+	 */
+	private boolean imageBaking = false;
+
+	/**
+	 * Maximum number of baked images to keep, the least recently used are deleted first.
+	 */
+	private int bakedImageCacheSize = 20;
+
+	/**
+	 * Maximum time in milliseconds to bake an image.
+	 */
+	private long imageBakeTimeout = 1800000;
+
+	/**
+	 * Path of the journal the deployment registry is persisted to. When not set, the
+	 * registry is kept in memory only and rebuilt from Nova on startup.
+	 */
+	private String registryJournal;
+
+	/**
+	 * The openstack4j connector HTTP calls are made with.
+	 */
+	private Connector connector = Connector.DEFAULT;
+
+	/**
+	 * Maximum number of pooled HTTP connections, zero or less for the connector's default.
+	 */
+	private int maxConnections = 64;
+
+	/**
+	 * Maximum number of pooled HTTP connections to a single host, zero or less for the
+	 * connector's default.
+	 */
+	private int maxConnectionsPerRoute = 64;
+
+	/**
+	 * Timeout in milliseconds for opening an HTTP connection, zero for none.
+	 */
+	private int connectTimeout = 10000;
+
+	/**
+	 * Timeout in milliseconds for waiting on data from an HTTP connection, zero for none.
+	 */
+	private int readTimeout = 60000;
+
+	/**
+	 * Time in milliseconds an idle HTTP connection is kept for reuse, or less if the
+	 * server says so, zero to close connections after each call. Applies to the Apache
+	 * HttpClient connector.
+	 */
+	private long keepAlive = 5000;
+
+	/**
+	 * Whether to accept gzip compressed responses. Applies to the Apache HttpClient
+	 * connector.
+	 */
+	private boolean compression = true;
+
+	/**
+	 * Number of instances replaced at a time when an app is redeployed, zero or less to
+	 * boot the whole new generation before tearing down the old one (blue/green).
+	 */
+	private int redeployBatchSize = 1;
+
+	/**
+	 * Number of instances of each redeploy batch that may be torn down before their
+	 * replacements are active, trading capacity for quota during the upgrade.
+	 */
+	private int redeployMaxUnavailable = 0;
+
+	/**
+	 * Maximum time in milliseconds to wait for the new instances of a redeploy batch to
+	 * become active.
+	 */
+	private long redeployBatchTimeout = 600000;
+
+	/**
+	 * Whether to tag the deploy phase timers with the app or task name. Every name then
+	 * gets its own timers, so leave this off when many distinct names are deployed.
+	 */
+	private boolean metricsAppTag = false;
+
 	public String getUserId() {
 		return userId;
 	}
@@ -58,4 +483,420 @@ public class OpenStackDeployerProperties {
 		this.endpoint = endpoint;
 	}
 
+	public long getInventoryRefreshInterval() {
+		return inventoryRefreshInterval;
+	}
+
+	public void setInventoryRefreshInterval(long inventoryRefreshInterval) {
+		this.inventoryRefreshInterval = inventoryRefreshInterval;
+	}
+
+	public long getInventoryMaxStaleness() {
+		return inventoryMaxStaleness;
+	}
+
+	public void setInventoryMaxStaleness(long inventoryMaxStaleness) {
+		this.inventoryMaxStaleness = inventoryMaxStaleness;
+	}
+
+	public int getBootParallelism() {
+		return bootParallelism;
+	}
+
+	public void setBootParallelism(int bootParallelism) {
+		this.bootParallelism = bootParallelism;
+	}
+
+	public boolean isAsyncLifecycle() {
+		return asyncLifecycle;
+	}
+
+	public void setAsyncLifecycle(boolean asyncLifecycle) {
+		this.asyncLifecycle = asyncLifecycle;
+	}
+
+	public int getLifecycleWorkers() {
+		return lifecycleWorkers;
+	}
+
+	public void setLifecycleWorkers(int lifecycleWorkers) {
+		this.lifecycleWorkers = lifecycleWorkers;
+	}
+
+	public int getLifecycleQueueCapacity() {
+		return lifecycleQueueCapacity;
+	}
+
+	public void setLifecycleQueueCapacity(int lifecycleQueueCapacity) {
+		this.lifecycleQueueCapacity = lifecycleQueueCapacity;
+	}
+
+	public long getLifecycleSubmitTimeout() {
+		return lifecycleSubmitTimeout;
+	}
+
+	public void setLifecycleSubmitTimeout(long lifecycleSubmitTimeout) {
+		this.lifecycleSubmitTimeout = lifecycleSubmitTimeout;
+	}
+
+	public long getLifecycleFailureTtl() {
+		return lifecycleFailureTtl;
+	}
+
+	public void setLifecycleFailureTtl(long lifecycleFailureTtl) {
+		this.lifecycleFailureTtl = lifecycleFailureTtl;
+	}
+
+	public long getTokenRefreshMargin() {
+		return tokenRefreshMargin;
+	}
+
+	public void setTokenRefreshMargin(long tokenRefreshMargin) {
+		this.tokenRefreshMargin = tokenRefreshMargin;
+	}
+
+	public String getFlavor() {
+		return flavor;
+	}
+
+	public void setFlavor(String flavor) {
+		this.flavor = flavor;
+	}
+
+	public String getImage() {
+		return image;
+	}
+
+	public void setImage(String image) {
+		this.image = image;
+	}
+
+	public long getResourceCacheTtl() {
+		return resourceCacheTtl;
+	}
+
+	public void setResourceCacheTtl(long resourceCacheTtl) {
+		this.resourceCacheTtl = resourceCacheTtl;
+	}
+
+	public long getResourceMissCacheTtl() {
+		return resourceMissCacheTtl;
+	}
+
+	public void setResourceMissCacheTtl(long resourceMissCacheTtl) {
+		this.resourceMissCacheTtl = resourceMissCacheTtl;
+	}
+
+	public int getDestroyParallelism() {
+		return destroyParallelism;
+	}
+
+	public void setDestroyParallelism(int destroyParallelism) {
+		this.destroyParallelism = destroyParallelism;
+	}
+
+	public TeardownStrategy getTeardownStrategy() {
+		return teardownStrategy;
+	}
+
+	public void setTeardownStrategy(TeardownStrategy teardownStrategy) {
+		this.teardownStrategy = teardownStrategy;
+	}
+
+	public long getDeletionPollInterval() {
+		return deletionPollInterval;
+	}
+
+	public void setDeletionPollInterval(long deletionPollInterval) {
+		this.deletionPollInterval = deletionPollInterval;
+	}
+
+	public long getDeletionConfirmTimeout() {
+		return deletionConfirmTimeout;
+	}
+
+	public void setDeletionConfirmTimeout(long deletionConfirmTimeout) {
+		this.deletionConfirmTimeout = deletionConfirmTimeout;
+	}
+
+	public long getWaitInitialInterval() {
+		return waitInitialInterval;
+	}
+
+	public void setWaitInitialInterval(long waitInitialInterval) {
+		this.waitInitialInterval = waitInitialInterval;
+	}
+
+	public long getWaitMaxInterval() {
+		return waitMaxInterval;
+	}
+
+	public void setWaitMaxInterval(long waitMaxInterval) {
+		this.waitMaxInterval = waitMaxInterval;
+	}
+
+	public double getRateLimitList() {
+		return rateLimitList;
+	}
+
+	public void setRateLimitList(double rateLimitList) {
+		this.rateLimitList = rateLimitList;
+	}
+
+	public double getRateLimitGet() {
+		return rateLimitGet;
+	}
+
+	public void setRateLimitGet(double rateLimitGet) {
+		this.rateLimitGet = rateLimitGet;
+	}
+
+	public double getRateLimitBoot() {
+		return rateLimitBoot;
+	}
+
+	public void setRateLimitBoot(double rateLimitBoot) {
+		this.rateLimitBoot = rateLimitBoot;
+	}
+
+	public double getRateLimitAction() {
+		return rateLimitAction;
+	}
+
+	public void setRateLimitAction(double rateLimitAction) {
+		this.rateLimitAction = rateLimitAction;
+	}
+
+	public double getRateLimitDelete() {
+		return rateLimitDelete;
+	}
+
+	public void setRateLimitDelete(double rateLimitDelete) {
+		this.rateLimitDelete = rateLimitDelete;
+	}
+
+	public long getRateLimitRetryBackoff() {
+		return rateLimitRetryBackoff;
+	}
+
+	public void setRateLimitRetryBackoff(long rateLimitRetryBackoff) {
+		this.rateLimitRetryBackoff = rateLimitRetryBackoff;
+	}
+
+	public int getRateLimitMaxRetries() {
+		return rateLimitMaxRetries;
+	}
+
+	public void setRateLimitMaxRetries(int rateLimitMaxRetries) {
+		this.rateLimitMaxRetries = rateLimitMaxRetries;
+	}
+
+	public int getWarmPoolSize() {
+		return warmPoolSize;
+	}
+
+	public void setWarmPoolSize(int warmPoolSize) {
+		this.warmPoolSize = warmPoolSize;
+	}
+
+	public long getWarmPoolIdleTtl() {
+		return warmPoolIdleTtl;
+	}
+
+	public void setWarmPoolIdleTtl(long warmPoolIdleTtl) {
+		this.warmPoolIdleTtl = warmPoolIdleTtl;
+	}
+
+	public long getWarmPoolReplenishInterval() {
+		return warmPoolReplenishInterval;
+	}
+
+	public void setWarmPoolReplenishInterval(long warmPoolReplenishInterval) {
+		this.warmPoolReplenishInterval = warmPoolReplenishInterval;
+	}
+
+	public boolean isImageBaking() {
+		return imageBaking;
+	}
+
+	public void setImageBaking(boolean imageBaking) {
+		this.imageBaking = imageBaking;
+	}
+
+	public int getBakedImageCacheSize() {
+		return bakedImageCacheSize;
+	}
+
+	public void setBakedImageCacheSize(int bakedImageCacheSize) {
+		this.bakedImageCacheSize = bakedImageCacheSize;
+	}
+
+	public long getImageBakeTimeout() {
+		return imageBakeTimeout;
+	}
+
+	public void setImageBakeTimeout(long imageBakeTimeout) {
+		this.imageBakeTimeout = imageBakeTimeout;
+	}
+
+	public int getListPageSize() {
+		return listPageSize;
+	}
+
+	public void setListPageSize(int listPageSize) {
+		this.listPageSize = listPageSize;
+	}
+
+	public long getInventoryFullResyncInterval() {
+		return inventoryFullResyncInterval;
+	}
+
+	public void setInventoryFullResyncInterval(long inventoryFullResyncInterval) {
+		this.inventoryFullResyncInterval = inventoryFullResyncInterval;
+	}
+
+	public String getRegion() {
+		return region;
+	}
+
+	public void setRegion(String region) {
+		this.region = region;
+	}
+
+	public Map<String, Shard> getShards() {
+		return shards;
+	}
+
+	public void setShards(Map<String, Shard> shards) {
+		this.shards = shards;
+	}
+
+	public int getShardWeight() {
+		return shardWeight;
+	}
+
+	public void setShardWeight(int shardWeight) {
+		this.shardWeight = shardWeight;
+	}
+
+	public int getMaxInstances() {
+		return maxInstances;
+	}
+
+	public void setMaxInstances(int maxInstances) {
+		this.maxInstances = maxInstances;
+	}
+
+	public String getRegistryJournal() {
+		return registryJournal;
+	}
+
+	public void setRegistryJournal(String registryJournal) {
+		this.registryJournal = registryJournal;
+	}
+
+	public Connector getConnector() {
+		return connector;
+	}
+
+	public void setConnector(Connector connector) {
+		this.connector = connector;
+	}
+
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	public void setMaxConnections(int maxConnections) {
+		this.maxConnections = maxConnections;
+	}
+
+	public int getMaxConnectionsPerRoute() {
+		return maxConnectionsPerRoute;
+	}
+
+	public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+		this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+	}
+
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	public void setConnectTimeout(int connectTimeout) {
+		this.connectTimeout = connectTimeout;
+	}
+
+	public int getReadTimeout() {
+		return readTimeout;
+	}
+
+	public void setReadTimeout(int readTimeout) {
+		this.readTimeout = readTimeout;
+	}
+
+	public long getKeepAlive() {
+		return keepAlive;
+	}
+
+	public void setKeepAlive(long keepAlive) {
+		this.keepAlive = keepAlive;
+	}
+
+	public boolean isCompression() {
+		return compression;
+	}
+
+	public void setCompression(boolean compression) {
+		this.compression = compression;
+	}
+
+	public long getAuthRetryInitialInterval() {
+		return authRetryInitialInterval;
+	}
+
+	public void setAuthRetryInitialInterval(long authRetryInitialInterval) {
+		this.authRetryInitialInterval = authRetryInitialInterval;
+	}
+
+	public long getAuthRetryMaxInterval() {
+		return authRetryMaxInterval;
+	}
+
+	public void setAuthRetryMaxInterval(long authRetryMaxInterval) {
+		this.authRetryMaxInterval = authRetryMaxInterval;
+	}
+
+	public int getRedeployBatchSize() {
+		return redeployBatchSize;
+	}
+
+	public void setRedeployBatchSize(int redeployBatchSize) {
+		this.redeployBatchSize = redeployBatchSize;
+	}
+
+	public int getRedeployMaxUnavailable() {
+		return redeployMaxUnavailable;
+	}
+
+	public void setRedeployMaxUnavailable(int redeployMaxUnavailable) {
+		this.redeployMaxUnavailable = redeployMaxUnavailable;
+	}
+
+	public long getRedeployBatchTimeout() {
+		return redeployBatchTimeout;
+	}
+
+	public void setRedeployBatchTimeout(long redeployBatchTimeout) {
+		this.redeployBatchTimeout = redeployBatchTimeout;
+	}
+
+	public boolean isMetricsAppTag() {
+		return metricsAppTag;
+	}
+
+	public void setMetricsAppTag(boolean metricsAppTag) {
+		this.metricsAppTag = metricsAppTag;
+	}
+
 }
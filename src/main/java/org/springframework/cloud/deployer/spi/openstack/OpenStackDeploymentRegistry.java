@@ -0,0 +1,404 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openstack4j.model.compute.Server;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.springframework.cloud.deployer.spi.openstack.AbstractOpenStackDeployer.SPRING_APP_KEY;
+import static org.springframework.cloud.deployer.spi.openstack.AbstractOpenStackDeployer.SPRING_DEPLOYMENT_KEY;
+import static org.springframework.cloud.deployer.spi.openstack.AbstractOpenStackDeployer.SPRING_MARKER_KEY;
+import static org.springframework.cloud.deployer.spi.openstack.AbstractOpenStackDeployer.SPRING_MARKER_VALUE;
+
+/**
+ * Maps app and task ids to the ids of the servers booted for them, so that servers can
+ * be addressed by their Nova UUID without listing. Each server is recorded with its
+ * deployment id, which carries the instance index of indexed apps.
+ * <p>
+ * When {@link OpenStackDeployerProperties#getRegistryJournal()} is set, every change is
+ * appended to that journal file and forced to disk before the call returns, and the
+ * journal is replayed on startup. The journal is rewritten once it holds more than
+ * twice as many records as there are servers, and on the next change after an append
+ * failed, so that no change is lost while the registry is running. On startup, the
+ * registry is also reconciled with the servers Nova lists, to pick up changes made
+ * while we were down.
+ */
+public class OpenStackDeploymentRegistry implements InitializingBean, DisposableBean {
+
+	private static final Log logger = LogFactory.getLog(OpenStackDeploymentRegistry.class);
+
+	private static final String PUT = "put";
+
+	private static final String REMOVE = "remove";
+
+	private static final int MIN_COMPACTION_RECORDS = 1000;
+
+	private final OpenStackSessionManager sessionManager;
+
+	private final OpenStackDeployerProperties properties;
+
+	private final ConcurrentMap<String, ConcurrentMap<String, Entry>> apps = new ConcurrentHashMap<>();
+
+	private final Object journalMonitor = new Object();
+
+	private final Path journalPath;
+
+	private FileChannel journal;
+
+	private int journalRecords;
+
+	/**
+	 * Whether an append or compaction failed, leaving the journal behind the registry.
+	 */
+	private boolean journalDirty;
+
+	private int serverCount;
+
+	private volatile ExecutorService reconciler;
+
+	public OpenStackDeploymentRegistry(OpenStackSessionManager sessionManager, OpenStackDeployerProperties properties) {
+		this.sessionManager = sessionManager;
+		this.properties = properties;
+		this.journalPath = properties.getRegistryJournal() != null ? Paths.get(properties.getRegistryJournal()) : null;
+		if (journalPath != null) {
+			load();
+		}
+	}
+
+	/**
+	 * Reconcile with Nova in the background, on a thread that ends with the
+	 * reconciliation.
+	 */
+	@Override
+	public void afterPropertiesSet() {
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("openstack-registry-");
+		threadFactory.setDaemon(true);
+		ExecutorService reconciler = Executors.newSingleThreadExecutor(threadFactory);
+		this.reconciler = reconciler;
+		reconciler.execute(() -> {
+			try {
+				reconcile();
+			}
+			catch (RuntimeException e) {
+				logger.warn(String.format("Failed to reconcile deployment registry: %s", e.getMessage()));
+			}
+			finally {
+				reconciler.shutdown();
+			}
+		});
+	}
+
+	/**
+	 * Record a server booted for the given app.
+	 *
+	 * @param appId the app or task id
+	 * @param deploymentId the deployment id of the instance the server runs
+	 * @param serverId the Nova id of the server
+	 */
+	public void put(String appId, String deploymentId, String serverId) {
+		synchronized (journalMonitor) {
+			if (apps.computeIfAbsent(appId, id -> new ConcurrentHashMap<>())
+					.put(serverId, new Entry(deploymentId, System.currentTimeMillis())) == null) {
+				serverCount++;
+			}
+			append(PUT, appId, deploymentId, serverId);
+		}
+	}
+
+	/**
+	 * Forget a server of the given app.
+	 */
+	public void remove(String appId, String serverId) {
+		synchronized (journalMonitor) {
+			Map<String, Entry> servers = apps.get(appId);
+			if (servers == null || servers.remove(serverId) == null) {
+				return;
+			}
+			serverCount--;
+			if (servers.isEmpty()) {
+				apps.remove(appId, servers);
+			}
+			append(REMOVE, appId, serverId);
+		}
+	}
+
+	/**
+	 * Return the ids of the servers recorded for the given app.
+	 */
+	public Set<String> getServerIds(String appId) {
+		Map<String, Entry> servers = apps.get(appId);
+		return servers != null ? Collections.unmodifiableSet(new HashSet<>(servers.keySet())) : Collections.emptySet();
+	}
+
+	/**
+	 * List our servers and bring the registry in line with them: servers missing from
+	 * the registry are added, and servers Nova no longer has are removed, unless they
+	 * were recorded after the listing started.
+	 */
+	public void reconcile() {
+		long start = System.currentTimeMillis();
+		Map<String, String> filters = new HashMap<>();
+		filters.put(SPRING_MARKER_KEY, SPRING_MARKER_VALUE);
+		Map<String, Map<String, String>> listed = new HashMap<>();
+		Iterator<Server> servers = OpenStackServerPages.stream(sessionManager, filters, properties.getListPageSize())
+				.iterator();
+		while (servers.hasNext()) {
+			Server server = servers.next();
+			Map<String, String> metadata = server.getMetadata();
+			if (metadata == null || !SPRING_MARKER_VALUE.equals(metadata.get(SPRING_MARKER_KEY))
+					|| metadata.get(SPRING_APP_KEY) == null || server.getStatus() == Server.Status.DELETED) {
+				continue;
+			}
+			listed.computeIfAbsent(metadata.get(SPRING_APP_KEY), id -> new HashMap<>())
+					.put(server.getId(), metadata.get(SPRING_DEPLOYMENT_KEY));
+		}
+		int added = 0;
+		int removed = 0;
+		synchronized (journalMonitor) {
+			for (Map.Entry<String, Map<String, String>> app : listed.entrySet()) {
+				Map<String, Entry> known = apps.get(app.getKey());
+				for (Map.Entry<String, String> server : app.getValue().entrySet()) {
+					if (known == null || !known.containsKey(server.getKey())) {
+						put(app.getKey(), server.getValue(), server.getKey());
+						added++;
+					}
+				}
+			}
+			for (Map.Entry<String, ConcurrentMap<String, Entry>> app : apps.entrySet()) {
+				Map<String, String> present = listed.getOrDefault(app.getKey(), Collections.emptyMap());
+				for (Map.Entry<String, Entry> server : app.getValue().entrySet()) {
+					if (!present.containsKey(server.getKey()) && server.getValue().recordedAt < start) {
+						remove(app.getKey(), server.getKey());
+						removed++;
+					}
+				}
+			}
+		}
+		logger.info(String.format("Reconciled deployment registry with Nova: %d servers added, %d removed", added,
+				removed));
+	}
+
+	@Override
+	public void destroy() {
+		if (reconciler != null) {
+			reconciler.shutdownNow();
+		}
+		synchronized (journalMonitor) {
+			if (journalDirty) {
+				compact();
+			}
+			closeJournal();
+		}
+	}
+
+	private void load() {
+		int records = 0;
+		try (BufferedReader reader = Files.newBufferedReader(journalPath, StandardCharsets.UTF_8)) {
+			String line = readRecord(reader);
+			while (line != null) {
+				String next = readRecord(reader);
+				if (next == null && !line.endsWith("\n")) {
+					// cut short by a crash while it was appended
+					logger.warn(String.format("Skipping torn registry record '%s' in %s", line, journalPath));
+					break;
+				}
+				line = line.substring(0, line.length() - 1);
+				String[] fields = line.split("\t");
+				if (fields.length == 4 && PUT.equals(fields[0])) {
+					if (apps.computeIfAbsent(fields[1], id -> new ConcurrentHashMap<>())
+							.put(fields[3], new Entry(fields[2], 0)) == null) {
+						serverCount++;
+					}
+				}
+				else if (fields.length == 3 && REMOVE.equals(fields[0])) {
+					Map<String, Entry> servers = apps.get(fields[1]);
+					if (servers != null && servers.remove(fields[2]) != null) {
+						serverCount--;
+						if (servers.isEmpty()) {
+							apps.remove(fields[1]);
+						}
+					}
+				}
+				else {
+					logger.warn(String.format("Skipping malformed registry record '%s' in %s", line, journalPath));
+					line = next;
+					continue;
+				}
+				records++;
+				line = next;
+			}
+		}
+		catch (NoSuchFileException e) {
+			logger.debug(String.format("No deployment registry at %s yet", journalPath));
+		}
+		catch (IOException e) {
+			throw new IllegalStateException(String.format("Failed to read deployment registry %s", journalPath), e);
+		}
+		logger.debug(String.format("Loaded %d servers from %d records of %s", serverCount, records, journalPath));
+		synchronized (journalMonitor) {
+			// start from a compact journal, which also drops any record cut short
+			compact();
+		}
+	}
+
+	/**
+	 * Read the next record including its line terminator, which a record torn by a crash
+	 * lacks, or return {@code null} at the end of the journal.
+	 */
+	private static String readRecord(BufferedReader reader) throws IOException {
+		StringBuilder record = new StringBuilder();
+		int c;
+		while ((c = reader.read()) != -1) {
+			record.append((char) c);
+			if (c == '\n') {
+				break;
+			}
+		}
+		return record.length() > 0 ? record.toString() : null;
+	}
+
+	private void append(String... fields) {
+		if (journalPath == null) {
+			return;
+		}
+		if (journalDirty) {
+			// rewriting the journal from memory records this change and any lost before it
+			compact();
+			return;
+		}
+		String record = String.join("\t", fields) + "\n";
+		try {
+			if (journal == null) {
+				openJournal();
+			}
+			ByteBuffer buffer = ByteBuffer.wrap(record.getBytes(StandardCharsets.UTF_8));
+			while (buffer.hasRemaining()) {
+				journal.write(buffer);
+			}
+			journal.force(false);
+			journalRecords++;
+		}
+		catch (IOException e) {
+			// the change is kept in memory, and the next change rewrites the journal from it
+			logger.error(String.format("Failed to append to deployment registry %s: %s", journalPath, e.getMessage()));
+			closeJournal();
+			journalDirty = true;
+			return;
+		}
+		if (journalRecords > MIN_COMPACTION_RECORDS && journalRecords > 2 * serverCount) {
+			compact();
+		}
+	}
+
+	/**
+	 * Rewrite the journal with one record per server, replacing the old journal
+	 * atomically.
+	 */
+	private void compact() {
+		Path compacted = journalPath.resolveSibling(journalPath.getFileName() + ".compact");
+		try {
+			if (journalPath.getParent() != null) {
+				Files.createDirectories(journalPath.getParent());
+			}
+			int records = 0;
+			try (FileChannel channel = FileChannel.open(compacted, StandardOpenOption.CREATE,
+					StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+				Writer writer = new BufferedWriter(Channels.newWriter(channel, "UTF-8"));
+				for (Map.Entry<String, ConcurrentMap<String, Entry>> app : apps.entrySet()) {
+					for (Map.Entry<String, Entry> server : app.getValue().entrySet()) {
+						writer.write(String.join("\t", PUT, app.getKey(), server.getValue().deploymentId,
+								server.getKey()));
+						writer.write('\n');
+						records++;
+					}
+				}
+				writer.flush();
+				channel.force(true);
+			}
+			closeJournal();
+			Files.move(compacted, journalPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			journalRecords = records;
+			journalDirty = false;
+			openJournal();
+			logger.debug(String.format("Compacted deployment registry %s to %d records", journalPath, records));
+		}
+		catch (IOException e) {
+			logger.error(String.format("Failed to compact deployment registry %s: %s", journalPath, e.getMessage()));
+			journalDirty = true;
+		}
+	}
+
+	private void openJournal() throws IOException {
+		journal = FileChannel.open(journalPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.APPEND);
+	}
+
+	private void closeJournal() {
+		if (journal == null) {
+			return;
+		}
+		try {
+			journal.close();
+		}
+		catch (IOException e) {
+			logger.debug(String.format("Failed to close deployment registry %s: %s", journalPath, e.getMessage()));
+		}
+		journal = null;
+	}
+
+	private static class Entry {
+
+		private final String deploymentId;
+
+		private final long recordedAt;
+
+		Entry(String deploymentId, long recordedAt) {
+			this.deploymentId = deploymentId != null ? deploymentId : "";
+			this.recordedAt = recordedAt;
+		}
+	}
+
+}
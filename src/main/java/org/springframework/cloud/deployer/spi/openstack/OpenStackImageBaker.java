@@ -0,0 +1,523 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openstack4j.model.compute.Image;
+import org.openstack4j.model.compute.Server;
+import org.openstack4j.model.compute.ServerCreate;
+import org.springframework.core.io.Resource;
+import org.springframework.util.StringUtils;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.openstack4j.api.Builders.server;
+import static org.springframework.cloud.deployer.spi.openstack.OpenStackRequestScheduler.OperationClass.ACTION;
+import static org.springframework.cloud.deployer.spi.openstack.OpenStackRequestScheduler.OperationClass.BOOT;
+import static org.springframework.cloud.deployer.spi.openstack.OpenStackRequestScheduler.OperationClass.DELETE;
+import static org.springframework.cloud.deployer.spi.openstack.OpenStackRequestScheduler.OperationClass.GET;
+import static org.springframework.cloud.deployer.spi.openstack.OpenStackRequestScheduler.OperationClass.LIST;
+
+/**
+ * Bakes the artifact of a deployment request into a Glance image, so servers boot with
+ * the artifact already on disk. Images are keyed by the SHA-256 of the artifact's
+ * identity together with the base image, so each unique artifact is baked once and every
+ * later deployment of it boots from the cached image without transferring it. The
+ * identity is the {@link #ARTIFACT_VERSION_PROPERTY_KEY} deployment property when set;
+ * otherwise the URI and {@code ETag} or {@code Last-Modified} header of {@code http}
+ * artifacts, found with a {@code HEAD} request, and the reference of {@code docker}
+ * artifacts.
+ * <p>
+ * An image is baked by booting a builder server from the base image whose user data
+ * fetches the artifact and powers the server off, then snapshotting it. Baked images
+ * carry their key in their metadata, so the cache survives restarts. At most
+ * {@link OpenStackDeployerProperties#getBakedImageCacheSize()} baked images are kept;
+ * the least recently used ones are deleted beyond that, except those resolved within the
+ * last {@link OpenStackDeployerProperties#getImageBakeTimeout()}, which a deployment may
+ * still be booting from. Uses are recorded in the image metadata at most once per
+ * {@link #LAST_USED_RECORD_INTERVAL}.
+ * <p>
+ * Only artifacts the builder can fetch itself, that is {@code http}, {@code https} and
+ * {@code docker} resources, are baked. Other requests, {@code file} artifacts among
+ * them, boot from the base image, as do {@code docker} references without a tag or
+ * tagged {@code latest}: their reference does not change when the tag is moved to a new
+ * image, so a cached image would never be replaced. Give such artifacts a
+ * {@link #ARTIFACT_VERSION_PROPERTY_KEY}, or pin them by digest, to have them baked.
+ */
+public class OpenStackImageBaker {
+
+	/**
+	 * Deployment property identifying the version of the artifact, for artifacts whose
+	 * content may change without their URI changing.
+	 */
+	public static final String ARTIFACT_VERSION_PROPERTY_KEY = "spring.cloud.deployer.openstack.artifact-version";
+
+	static final String BAKED_DIGEST_KEY = "spring-artifact-digest";
+
+	static final String BAKED_LAST_USED_KEY = "spring-artifact-last-used";
+
+	private static final Log logger = LogFactory.getLog(OpenStackImageBaker.class);
+
+	private static final long POLL_INTERVAL = 5000;
+
+	static final long LAST_USED_RECORD_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
+	private static final int HEAD_TIMEOUT = 10000;
+
+	private final OpenStackSessionManager sessionManager;
+
+	private final OpenStackDeployerProperties properties;
+
+	private final ConcurrentMap<String, CompletableFuture<String>> bakes = new ConcurrentHashMap<>();
+
+	/**
+	 * Baked image IDs by key, in least recently used order.
+	 */
+	private final LinkedHashMap<String, String> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * When each baked image was last resolved by this deployer.
+	 */
+	private final ConcurrentMap<String, Long> lastUsed = new ConcurrentHashMap<>();
+
+	/**
+	 * The last use stored in the metadata of each baked image.
+	 */
+	private final ConcurrentMap<String, Long> recordedUse = new ConcurrentHashMap<>();
+
+	private volatile boolean loaded;
+
+	public OpenStackImageBaker(OpenStackSessionManager sessionManager, OpenStackDeployerProperties properties) {
+		this.sessionManager = sessionManager;
+		this.properties = properties;
+	}
+
+	/**
+	 * Return the ID of the image with the given artifact baked into the given base image,
+	 * baking it first if needed. Returns the base image if the artifact can not be baked.
+	 * @param version the version of the artifact, or {@code null} to identify it by its
+	 * URI and content
+	 */
+	public String resolve(Resource resource, String version, String baseImageId, String flavorId) {
+		String script = fetchScript(resource);
+		if (script == null) {
+			return baseImageId;
+		}
+		if (!StringUtils.hasText(version) && isMovingTag(resource)) {
+			logger.debug(String.format("Not baking %s, its tag may move to another image", resource));
+			return baseImageId;
+		}
+		String key = digest(resource, version, baseImageId);
+		String imageId = lookup(key);
+		if (imageId != null) {
+			logger.debug(String.format("Using baked image %s for %s", imageId, resource));
+			touch(imageId);
+			return imageId;
+		}
+		CompletableFuture<String> bake = new CompletableFuture<>();
+		CompletableFuture<String> existing = bakes.putIfAbsent(key, bake);
+		if (existing != null) {
+			return await(existing, resource);
+		}
+		try {
+			imageId = bake(key, script, baseImageId, flavorId);
+			// cached before the bake is forgotten, or a concurrent deploy would bake it again
+			put(key, imageId);
+			bake.complete(imageId);
+		}
+		catch (RuntimeException e) {
+			bake.completeExceptionally(e);
+			throw e;
+		}
+		finally {
+			bakes.remove(key);
+		}
+		return imageId;
+	}
+
+	private String await(CompletableFuture<String> bake, Resource resource) {
+		try {
+			return bake.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the image of " + resource, e);
+		}
+		catch (ExecutionException e) {
+			throw new IllegalStateException("Failed to bake the image of " + resource, e.getCause());
+		}
+	}
+
+	private String bake(String key, String script, String baseImageId, String flavorId) {
+		logger.info(String.format("Baking image %s from base image %s", key, baseImageId));
+		long deadline = System.currentTimeMillis() + properties.getImageBakeTimeout();
+		ServerCreate sc = server()
+				.name("bake-" + key.substring(0, 12))
+				.flavor(flavorId)
+				.image(baseImageId)
+				.userData(Base64.getEncoder().encodeToString(script.getBytes(StandardCharsets.UTF_8)))
+				.build();
+		Server builder = sessionManager.execute(BOOT, client -> client.compute().servers().boot(sc));
+		RuntimeException failure = null;
+		try {
+			awaitBuilder(builder.getId(), deadline);
+			String imageId = sessionManager.execute(ACTION,
+					client -> client.compute().servers().createSnapshot(builder.getId(), "spring-" + key));
+			awaitImage(imageId, deadline);
+			Map<String, String> metadata = new HashMap<>();
+			long now = System.currentTimeMillis();
+			metadata.put(BAKED_DIGEST_KEY, key);
+			metadata.put(BAKED_LAST_USED_KEY, String.valueOf(now));
+			sessionManager.execute(ACTION, client -> client.compute().images().setMetaData(imageId, metadata));
+			recordedUse.put(imageId, now);
+			logger.info(String.format("Baked image %s as %s", key, imageId));
+			return imageId;
+		}
+		catch (RuntimeException e) {
+			failure = e;
+			throw e;
+		}
+		finally {
+			try {
+				sessionManager.execute(DELETE, client -> client.compute().servers().delete(builder.getId()));
+			}
+			catch (RuntimeException e) {
+				if (failure != null) {
+					failure.addSuppressed(e);
+				}
+				else {
+					logger.warn(String.format("Failed to delete builder server %s: %s", builder.getId(),
+							e.getMessage()));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Wait for the given builder server to power off once it has fetched the artifact,
+	 * polling it with one request at a time so no request is held open while it runs.
+	 */
+	private void awaitBuilder(String serverId, long deadline) {
+		while (true) {
+			Server builder = sessionManager.execute(GET, client -> client.compute().servers().get(serverId));
+			if (builder != null && builder.getStatus() == Server.Status.SHUTOFF) {
+				return;
+			}
+			if (builder == null || builder.getStatus() == Server.Status.ERROR
+					|| builder.getStatus() == Server.Status.DELETED) {
+				throw new IllegalStateException(String.format("Builder server %s did not finish fetching the artifact",
+						serverId));
+			}
+			if (System.currentTimeMillis() >= deadline) {
+				throw new IllegalStateException(String.format("Builder server %s not powered off within %d ms",
+						serverId, properties.getImageBakeTimeout()));
+			}
+			pause(deadline, "builder server " + serverId);
+		}
+	}
+
+	private void awaitImage(String imageId, long deadline) {
+		while (true) {
+			Image image = sessionManager.execute(GET, client -> client.compute().images().get(imageId));
+			if (image != null && image.getStatus() == Image.Status.ACTIVE) {
+				return;
+			}
+			if (image == null || image.getStatus() == Image.Status.ERROR || image.getStatus() == Image.Status.DELETED) {
+				throw new IllegalStateException(String.format("Snapshot %s failed", imageId));
+			}
+			if (System.currentTimeMillis() >= deadline) {
+				throw new IllegalStateException(String.format("Snapshot %s not active within %d ms", imageId,
+						properties.getImageBakeTimeout()));
+			}
+			pause(deadline, "snapshot " + imageId);
+		}
+	}
+
+	/**
+	 * Sleep until the next poll, or until the given deadline if that comes first.
+	 */
+	private static void pause(long deadline, String awaited) {
+		try {
+			Thread.sleep(Math.max(1, Math.min(POLL_INTERVAL, deadline - System.currentTimeMillis())));
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for " + awaited, e);
+		}
+	}
+
+	private String lookup(String key) {
+		if (!loaded) {
+			load();
+		}
+		synchronized (cache) {
+			String imageId = cache.get(key);
+			if (imageId != null) {
+				// pinned against eviction before any other deploy can evict it
+				lastUsed.put(imageId, System.currentTimeMillis());
+			}
+			return imageId;
+		}
+	}
+
+	private void put(String key, String imageId) {
+		List<String> evicted = new ArrayList<>();
+		long now = System.currentTimeMillis();
+		synchronized (cache) {
+			lastUsed.put(imageId, now);
+			cache.put(key, imageId);
+			Iterator<String> eldest = cache.values().iterator();
+			while (cache.size() > properties.getBakedImageCacheSize() && eldest.hasNext()) {
+				String id = eldest.next();
+				Long used = lastUsed.get(id);
+				if (used != null && now - used < properties.getImageBakeTimeout()) {
+					// a deployment may still be booting from it
+					continue;
+				}
+				evicted.add(id);
+				eldest.remove();
+				lastUsed.remove(id);
+				recordedUse.remove(id);
+			}
+		}
+		for (String id : evicted) {
+			logger.info(String.format("Deleting least recently used baked image %s", id));
+			try {
+				sessionManager.execute(DELETE, client -> client.compute().images().delete(id));
+			}
+			catch (RuntimeException e) {
+				logger.warn(String.format("Failed to delete baked image %s: %s", id, e.getMessage()));
+			}
+		}
+	}
+
+	/**
+	 * Record the use of the given image in its metadata, unless the use recorded there is
+	 * recent enough to keep its place in the cache order after a restart.
+	 */
+	private void touch(String imageId) {
+		long now = System.currentTimeMillis();
+		Long recorded = recordedUse.get(imageId);
+		if (recorded != null && now - recorded < LAST_USED_RECORD_INTERVAL) {
+			return;
+		}
+		Map<String, String> metadata = new HashMap<>();
+		metadata.put(BAKED_LAST_USED_KEY, String.valueOf(now));
+		try {
+			sessionManager.execute(ACTION, client -> client.compute().images().setMetaData(imageId, metadata));
+			recordedUse.put(imageId, now);
+		}
+		catch (RuntimeException e) {
+			logger.debug(String.format("Failed to record use of baked image %s: %s", imageId, e.getMessage()));
+		}
+	}
+
+	/**
+	 * Seed the cache with the images baked before, in order of their last use.
+	 */
+	private synchronized void load() {
+		if (loaded) {
+			return;
+		}
+		List<Image> baked = new ArrayList<>();
+		for (Image image : sessionManager.execute(LIST, client -> client.compute().images().list(true))) {
+			Map<String, Object> metadata = image.getMetaData();
+			if (image.getStatus() == Image.Status.ACTIVE && metadata != null
+					&& metadata.get(BAKED_DIGEST_KEY) != null) {
+				baked.add(image);
+			}
+		}
+		baked.sort(Comparator.comparingLong(OpenStackImageBaker::lastUsed));
+		synchronized (cache) {
+			for (Image image : baked) {
+				cache.put(String.valueOf(image.getMetaData().get(BAKED_DIGEST_KEY)), image.getId());
+				recordedUse.put(image.getId(), lastUsed(image));
+			}
+		}
+		loaded = true;
+		logger.debug(String.format("Found %d baked images", baked.size()));
+	}
+
+	private static long lastUsed(Image image) {
+		Object lastUsed = image.getMetaData().get(BAKED_LAST_USED_KEY);
+		try {
+			return lastUsed != null ? Long.parseLong(String.valueOf(lastUsed)) : 0;
+		}
+		catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	/**
+	 * Return the cloud-init script that fetches the given artifact, or {@code null} if
+	 * the builder can not fetch it.
+	 */
+	static String fetchScript(Resource resource) {
+		if (resource == null) {
+			return null;
+		}
+		URI uri;
+		try {
+			uri = resource.getURI();
+		}
+		catch (IOException e) {
+			return null;
+		}
+		String scheme = uri.getScheme();
+		if ("http".equals(scheme) || "https".equals(scheme)) {
+			return "#!/bin/sh\nset -e\nmkdir -p /opt/spring\n"
+					+ "curl -fsSL -o /opt/spring/app.jar " + quote(uri.toString()) + "\npoweroff\n";
+		}
+		if ("docker".equals(scheme)) {
+			return "#!/bin/sh\nset -e\ndocker pull " + quote(uri.getSchemeSpecificPart()) + "\npoweroff\n";
+		}
+		logger.warn(String.format("Can not bake %s, booting from the base image", uri));
+		return null;
+	}
+
+	/**
+	 * Return whether the given artifact is a {@code docker} reference whose tag may be
+	 * moved to another image: one without a tag, or tagged {@code latest}. References
+	 * pinned by digest never move.
+	 */
+	static boolean isMovingTag(Resource resource) {
+		URI uri;
+		try {
+			uri = resource.getURI();
+		}
+		catch (IOException e) {
+			return false;
+		}
+		if (!"docker".equals(uri.getScheme())) {
+			return false;
+		}
+		String reference = uri.getSchemeSpecificPart();
+		if (reference.contains("@")) {
+			return false;
+		}
+		// a colon before the last slash separates a registry port, not a tag
+		String name = reference.substring(reference.lastIndexOf('/') + 1);
+		int colon = name.indexOf(':');
+		return colon < 0 || "latest".equals(name.substring(colon + 1));
+	}
+
+	/**
+	 * Quote the given value as a single shell word.
+	 */
+	static String quote(String value) {
+		return "'" + value.replace("'", "'\\''") + "'";
+	}
+
+	/**
+	 * Return the SHA-256 of the identity of the artifact together with the base image.
+	 */
+	static String digest(Resource resource, String version, String baseImageId) {
+		MessageDigest digest = sha256();
+		digest.update(baseImageId.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+		digest.update(identify(resource, version).getBytes(StandardCharsets.UTF_8));
+		return hex(digest.digest());
+	}
+
+	/**
+	 * Return what identifies the given artifact: its URI and version. The artifact itself
+	 * is never read.
+	 */
+	static String identify(Resource resource, String version) {
+		try {
+			URI uri = resource.getURI();
+			if (StringUtils.hasText(version)) {
+				return uri + "@" + version;
+			}
+			String scheme = uri.getScheme();
+			if ("http".equals(scheme) || "https".equals(scheme)) {
+				String validator = validator(uri);
+				return validator != null ? uri + "@" + validator : uri.toString();
+			}
+			return uri.toString();
+		}
+		catch (IOException e) {
+			throw new IllegalArgumentException("Can not identify artifact " + resource, e);
+		}
+	}
+
+	/**
+	 * Return the {@code ETag}, or failing that the {@code Last-Modified} header, that a
+	 * {@code HEAD} request for the given URI answers with.
+	 */
+	private static String validator(URI uri) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) uri.toURL().openConnection();
+		try {
+			connection.setRequestMethod("HEAD");
+			connection.setConnectTimeout(HEAD_TIMEOUT);
+			connection.setReadTimeout(HEAD_TIMEOUT);
+			int status = connection.getResponseCode();
+			if (status >= 400) {
+				throw new IOException(String.format("HEAD %s returned %d", uri, status));
+			}
+			String etag = connection.getHeaderField("ETag");
+			if (etag != null) {
+				return etag;
+			}
+			String lastModified = connection.getHeaderField("Last-Modified");
+			if (lastModified == null) {
+				logger.debug(String.format("%s has no ETag or Last-Modified, identifying it by its URI", uri));
+			}
+			return lastModified;
+		}
+		finally {
+			connection.disconnect();
+		}
+	}
+
+	private static MessageDigest sha256() {
+		try {
+			return MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String hex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder();
+		for (byte b : bytes) {
+			hex.append(String.format("%02x", b));
+		}
+		return hex.toString();
+	}
+
+}
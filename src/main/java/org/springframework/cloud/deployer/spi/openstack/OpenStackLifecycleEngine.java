@@ -0,0 +1,168 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs deploy, undeploy and scale work in the background so that the deployer methods return
+ * as soon as the work is queued. The engine keeps track of the operations that are in
+ * flight, and of the last failure per id, so that status calls can report them until
+ * Nova reflects the outcome. A failure is forgotten when the next operation for its id
+ * is submitted, or after {@link OpenStackDeployerProperties#getLifecycleFailureTtl()}.
+ * <p>
+ * The number of queued operations is bounded by
+ * {@link OpenStackDeployerProperties#getLifecycleQueueCapacity()}. Once the queue is
+ * full, submitters block for at most
+ * {@link OpenStackDeployerProperties#getLifecycleSubmitTimeout()} before the operation
+ * is rejected.
+ */
+public class OpenStackLifecycleEngine implements DisposableBean {
+
+	private static final Log logger = LogFactory.getLog(OpenStackLifecycleEngine.class);
+
+	public enum Operation {
+		DEPLOY, UNDEPLOY, SCALE, REDEPLOY
+	}
+
+	private final ConcurrentMap<String, Operation> inFlight = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<String, Failure> failures = new ConcurrentHashMap<>();
+
+	private final ThreadPoolExecutor executor;
+
+	private final Semaphore permits;
+
+	private final long submitTimeout;
+
+	private final long failureTtl;
+
+	public OpenStackLifecycleEngine(OpenStackDeployerProperties properties) {
+		int workers = Math.max(1, properties.getLifecycleWorkers());
+		int queueCapacity = Math.max(1, properties.getLifecycleQueueCapacity());
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("openstack-lifecycle-");
+		threadFactory.setDaemon(true);
+		this.executor = new ThreadPoolExecutor(workers, workers, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(queueCapacity), threadFactory);
+		// one permit per queue slot and per worker, so execute() never has to reject
+		this.permits = new Semaphore(queueCapacity + workers);
+		this.submitTimeout = properties.getLifecycleSubmitTimeout();
+		this.failureTtl = properties.getLifecycleFailureTtl();
+	}
+
+	/**
+	 * Queue an operation for the given id.
+	 *
+	 * @throws IllegalStateException if an operation for the id is already in flight or
+	 * the queue stayed full for longer than the submit timeout
+	 */
+	public void submit(String id, Operation operation, Runnable work) {
+		if (inFlight.putIfAbsent(id, operation) != null) {
+			throw new IllegalStateException(String.format("An operation is already in progress for '%s'", id));
+		}
+		failures.remove(id);
+		try {
+			if (!permits.tryAcquire(submitTimeout, TimeUnit.MILLISECONDS)) {
+				throw new IllegalStateException(String.format(
+						"Too many pending OpenStack operations, rejected %s of '%s'", operation, id));
+			}
+		}
+		catch (InterruptedException e) {
+			inFlight.remove(id, operation);
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(String.format("Interrupted while queueing %s of '%s'", operation, id), e);
+		}
+		catch (RuntimeException e) {
+			inFlight.remove(id, operation);
+			throw e;
+		}
+		logger.debug(String.format("Queued %s of %s", operation, id));
+		executor.execute(() -> {
+			try {
+				work.run();
+			}
+			catch (RuntimeException e) {
+				logger.error(String.format("%s of %s failed: %s", operation, id, e.getMessage()), e);
+				long now = System.currentTimeMillis();
+				// ids that are never touched again would otherwise stay for good
+				failures.values().removeIf(failure -> failure.isExpired(now));
+				failures.put(id, new Failure(e, now + failureTtl));
+			}
+			finally {
+				inFlight.remove(id, operation);
+				permits.release();
+			}
+		});
+	}
+
+	/**
+	 * Return the operation in flight for the given id, or {@code null} if there is none.
+	 */
+	public Operation getInFlight(String id) {
+		return inFlight.get(id);
+	}
+
+	/**
+	 * Return the failure of the last operation for the given id, or {@code null} if it
+	 * did not fail.
+	 */
+	public RuntimeException getFailure(String id) {
+		Failure failure = failures.get(id);
+		if (failure == null) {
+			return null;
+		}
+		if (failure.isExpired(System.currentTimeMillis())) {
+			failures.remove(id, failure);
+			return null;
+		}
+		return failure.exception;
+	}
+
+	@Override
+	public void destroy() {
+		executor.shutdownNow();
+		failures.clear();
+	}
+
+	private static class Failure {
+
+		private final RuntimeException exception;
+
+		private final long expiresAt;
+
+		Failure(RuntimeException exception, long expiresAt) {
+			this.exception = exception;
+			this.expiresAt = expiresAt;
+		}
+
+		boolean isExpired(long now) {
+			return now >= expiresAt;
+		}
+
+	}
+
+}
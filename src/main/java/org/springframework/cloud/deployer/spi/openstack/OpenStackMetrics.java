@@ -0,0 +1,75 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.springframework.cloud.deployer.spi.openstack.OpenStackRequestScheduler.OperationClass;
+
+/**
+ * Receives the timings of Nova calls and of the phases of deploys and task launches.
+ * Implementations are called on the hot path and must not block.
+ */
+public interface OpenStackMetrics {
+
+	/**
+	 * Phase of a deploy or launch spent checking whether the app already exists.
+	 */
+	String PHASE_STATUS = "status";
+
+	/**
+	 * Phase of a deploy or launch spent asking Nova to boot the servers.
+	 */
+	String PHASE_BOOT = "boot";
+
+	/**
+	 * Phase of a deploy or launch spent by Nova building a server until it is active.
+	 */
+	String PHASE_ACTIVE = "active";
+
+	/**
+	 * Metrics that record nothing.
+	 */
+	OpenStackMetrics NONE = new OpenStackMetrics() {
+
+		@Override
+		public void recordCall(OperationClass operationClass, long nanos, boolean success) {
+		}
+
+		@Override
+		public void recordPhase(String phase, String app, String group, long nanos) {
+		}
+	};
+
+	/**
+	 * Record one Nova call.
+	 *
+	 * @param operationClass the kind of call
+	 * @param nanos the duration of the call in nanoseconds
+	 * @param success whether Nova answered without an error
+	 */
+	void recordCall(OperationClass operationClass, long nanos, boolean success);
+
+	/**
+	 * Record one phase of a deploy or task launch.
+	 *
+	 * @param phase the phase, one of the {@code PHASE_} constants
+	 * @param app the app or task name
+	 * @param group the group of the app, or {@code null}
+	 * @param nanos the duration of the phase in nanoseconds
+	 */
+	void recordPhase(String phase, String app, String group, long nanos);
+
+}
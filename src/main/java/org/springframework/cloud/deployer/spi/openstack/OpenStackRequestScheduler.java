@@ -0,0 +1,197 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openstack4j.api.exceptions.ResponseException;
+import org.openstack4j.model.common.ActionResponse;
+import org.springframework.cloud.deployer.spi.openstack.OpenStackConnector.RateLimited;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Throttles the calls made to Nova. Every {@link OperationClass} has its own token
+ * bucket. The buckets are independent rather than prioritised: bulk boots or deletes
+ * cannot use up the budget of status reads, but neither is given precedence over the
+ * other. When Nova still answers with 429, the call is retried after the delay Nova
+ * asked for, or after an exponential backoff if it did not say, and the bucket of that
+ * operation class is paused for the same time. A 413 is only retried if Nova asked for
+ * a delay, as older Nova rate limits do; without one it means a quota is exceeded, which
+ * retrying does not change. The delay from the Retry-After header is only known with the
+ * Apache HttpClient connector, see {@link OpenStackConnector#takeRateLimited()}.
+ */
+public class OpenStackRequestScheduler {
+
+	private static final Log logger = LogFactory.getLog(OpenStackRequestScheduler.class);
+
+	private static final Pattern RETRY_AFTER = Pattern.compile("retry-?after\\D{0,5}(\\d+)", Pattern.CASE_INSENSITIVE);
+
+	/**
+	 * The kinds of Nova calls that are limited independently.
+	 */
+	public enum OperationClass {
+		LIST, GET, BOOT, ACTION, DELETE
+	}
+
+	private final Map<OperationClass, TokenBucket> buckets = new EnumMap<>(OperationClass.class);
+
+	private final OpenStackDeployerProperties properties;
+
+	private volatile OpenStackMetrics metrics = OpenStackMetrics.NONE;
+
+	public OpenStackRequestScheduler(OpenStackDeployerProperties properties) {
+		this.properties = properties;
+		buckets.put(OperationClass.LIST, new TokenBucket(properties.getRateLimitList()));
+		buckets.put(OperationClass.GET, new TokenBucket(properties.getRateLimitGet()));
+		buckets.put(OperationClass.BOOT, new TokenBucket(properties.getRateLimitBoot()));
+		buckets.put(OperationClass.ACTION, new TokenBucket(properties.getRateLimitAction()));
+		buckets.put(OperationClass.DELETE, new TokenBucket(properties.getRateLimitDelete()));
+	}
+
+	/**
+	 * Set the metrics every call is recorded to.
+	 */
+	public void setMetrics(OpenStackMetrics metrics) {
+		this.metrics = metrics != null ? metrics : OpenStackMetrics.NONE;
+	}
+
+	/**
+	 * Run a Nova call once the rate limit of its operation class allows it.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T execute(OperationClass operationClass, Supplier<T> call) {
+		TokenBucket bucket = buckets.get(operationClass);
+		long backoff = properties.getRateLimitRetryBackoff();
+		for (int attempt = 0; ; attempt++) {
+			bucket.acquire();
+			long start = System.nanoTime();
+			T result = null;
+			RuntimeException failure = null;
+			try {
+				result = call.get();
+			}
+			catch (RuntimeException e) {
+				failure = e;
+			}
+			RateLimited limited = OpenStackConnector.takeRateLimited();
+			ActionResponse response = result instanceof ActionResponse ? (ActionResponse) result : null;
+			metrics.recordCall(operationClass, System.nanoTime() - start,
+					failure == null && limited == null && (response == null || response.isSuccess()));
+
+			int status = limited != null ? limited.getStatus()
+					: failure instanceof ResponseException ? ((ResponseException) failure).getStatus()
+					: response != null ? response.getCode() : 0;
+			long retryAfter = !isOverLimit(status) ? -1
+					: limited != null && limited.getRetryAfter() >= 0 ? limited.getRetryAfter()
+					: parseRetryAfter(failure != null ? failure.getMessage()
+							: response != null ? response.getFault() : null, -1);
+			boolean rateLimited = status == 429 || (status == 413 && retryAfter >= 0);
+			if (!rateLimited || attempt >= properties.getRateLimitMaxRetries()) {
+				if (failure != null) {
+					throw failure;
+				}
+				if (isOverLimit(status) && response != null && response.isSuccess()) {
+					return (T) ActionResponse.actionFailed(rateLimited ? "Rate limited by Nova"
+							: "Quota exceeded in Nova", status);
+				}
+				return result;
+			}
+			if (retryAfter < 0) {
+				retryAfter = backoff;
+			}
+			logger.warn(String.format("Nova rate limit hit for %s, retrying in %d ms", operationClass, retryAfter));
+			bucket.pause(retryAfter);
+			backoff *= 2;
+		}
+	}
+
+	private static boolean isOverLimit(int status) {
+		return status == 413 || status == 429;
+	}
+
+	private static long parseRetryAfter(String message, long fallback) {
+		if (message != null) {
+			Matcher matcher = RETRY_AFTER.matcher(message);
+			if (matcher.find()) {
+				return Long.parseLong(matcher.group(1)) * 1000;
+			}
+		}
+		return fallback;
+	}
+
+	/**
+	 * A token bucket refilled at a fixed rate that holds at most one second worth of
+	 * tokens. A rate of zero or less disables limiting.
+	 */
+	private static class TokenBucket {
+
+		private final double tokensPerMilli;
+
+		private final double capacity;
+
+		private double tokens;
+
+		private long lastRefill = System.currentTimeMillis();
+
+		private long pausedUntil;
+
+		TokenBucket(double ratePerSecond) {
+			this.tokensPerMilli = ratePerSecond / 1000;
+			this.capacity = Math.max(1, ratePerSecond);
+			this.tokens = capacity;
+		}
+
+		void acquire() {
+			while (true) {
+				long wait;
+				synchronized (this) {
+					long now = System.currentTimeMillis();
+					if (tokensPerMilli <= 0 && now >= pausedUntil) {
+						return;
+					}
+					if (tokensPerMilli > 0) {
+						tokens = Math.min(capacity, tokens + (now - lastRefill) * tokensPerMilli);
+						lastRefill = now;
+					}
+					if (now >= pausedUntil && tokens >= 1) {
+						tokens -= 1;
+						return;
+					}
+					long refillWait = tokensPerMilli > 0 ? (long) Math.ceil((1 - tokens) / tokensPerMilli) : 0;
+					wait = Math.max(pausedUntil - now, refillWait);
+				}
+				try {
+					Thread.sleep(Math.max(1, wait));
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("Interrupted while waiting for the Nova rate limit", e);
+				}
+			}
+		}
+
+		synchronized void pause(long millis) {
+			pausedUntil = Math.max(pausedUntil, System.currentTimeMillis() + millis);
+		}
+	}
+
+}
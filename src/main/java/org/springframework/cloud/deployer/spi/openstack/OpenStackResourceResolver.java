@@ -0,0 +1,268 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openstack4j.model.compute.Flavor;
+import org.openstack4j.model.compute.Image;
+import org.springframework.cloud.deployer.spi.app.AppDeployer;
+import org.springframework.cloud.deployer.spi.core.AppDeploymentRequest;
+import org.springframework.util.StringUtils;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+import static org.springframework.cloud.deployer.spi.openstack.OpenStackRequestScheduler.OperationClass.LIST;
+
+/**
+ * Resolves the flavor and image a server is booted with to their IDs. Flavors and
+ * images are looked up by ID or name in catalogs that are cached for
+ * {@link OpenStackDeployerProperties#getResourceCacheTtl()}, so resolving them adds no
+ * API calls in steady state. A flavor or image that is not found reloads its catalog,
+ * in case it was created since, unless it was not found within the last
+ * {@link OpenStackDeployerProperties#getResourceMissCacheTtl()}.
+ * <p>
+ * The flavor is taken from the {@link #FLAVOR_PROPERTY_KEY} deployment property. If it
+ * is not set but memory or cpu are requested, the smallest flavor satisfying them is
+ * used; otherwise the default flavor from the deployer properties applies, or the
+ * smallest flavor of all if there is no default. The image is taken from the
+ * {@link #IMAGE_PROPERTY_KEY} deployment property or the default image, one of which is
+ * required.
+ */
+public class OpenStackResourceResolver {
+
+	public static final String FLAVOR_PROPERTY_KEY = "spring.cloud.deployer.openstack.flavor";
+
+	public static final String IMAGE_PROPERTY_KEY = "spring.cloud.deployer.openstack.image";
+
+	private static final Log logger = LogFactory.getLog(OpenStackResourceResolver.class);
+
+	private final OpenStackDeployerProperties properties;
+
+	private final Catalog<Flavor> flavors;
+
+	private final Catalog<Image> images;
+
+	public OpenStackResourceResolver(OpenStackSessionManager sessionManager, OpenStackDeployerProperties properties) {
+		this.properties = properties;
+		this.flavors = new Catalog<>("flavor", () -> sessionManager.execute(LIST, client -> client.compute().flavors().list()),
+				Flavor::getId, Flavor::getName);
+		this.images = new Catalog<>("image", () -> sessionManager.execute(LIST, client -> client.compute().images().list()),
+				Image::getId, Image::getName);
+	}
+
+	/**
+	 * Resolve the ID of the flavor to boot the servers of the given request with.
+	 */
+	public String resolveFlavor(AppDeploymentRequest request) {
+		Map<String, String> deploymentProperties = request.getDeploymentProperties();
+		String flavor = deploymentProperties.get(FLAVOR_PROPERTY_KEY);
+		if (StringUtils.hasText(flavor)) {
+			return flavors.resolve(flavor).getId();
+		}
+		String memory = deploymentProperties.get(AppDeployer.MEMORY_PROPERTY_KEY);
+		String cpu = deploymentProperties.get(AppDeployer.CPU_PROPERTY_KEY);
+		if (StringUtils.hasText(memory) || StringUtils.hasText(cpu)) {
+			return findSmallestFlavor(parseMemory(memory), parseCpu(cpu)).getId();
+		}
+		if (!StringUtils.hasText(properties.getFlavor())) {
+			Flavor smallest = findSmallestFlavor(0, 0);
+			logger.debug(String.format("No flavor requested and no default flavor configured, using %s",
+					smallest.getName()));
+			return smallest.getId();
+		}
+		return flavors.resolve(properties.getFlavor()).getId();
+	}
+
+	/**
+	 * Resolve the ID of the image to boot the servers of the given request from.
+	 */
+	public String resolveImage(AppDeploymentRequest request) {
+		String image = request.getDeploymentProperties().get(IMAGE_PROPERTY_KEY);
+		if (!StringUtils.hasText(image)) {
+			image = properties.getImage();
+		}
+		if (!StringUtils.hasText(image)) {
+			throw new IllegalArgumentException(String.format(
+					"No image requested and no default image configured, set %s", IMAGE_PROPERTY_KEY));
+		}
+		return images.resolve(image).getId();
+	}
+
+	/**
+	 * Return the smallest flavor with at least the given memory (in MB) and vcpus.
+	 */
+	public Flavor findSmallestFlavor(int memoryMb, int vcpus) {
+		Flavor smallest = null;
+		for (Flavor flavor : flavors.all()) {
+			if (flavor.getRam() < memoryMb || flavor.getVcpus() < vcpus) {
+				continue;
+			}
+			if (smallest == null || flavor.getRam() < smallest.getRam()
+					|| (flavor.getRam() == smallest.getRam() && flavor.getVcpus() < smallest.getVcpus())
+					|| (flavor.getRam() == smallest.getRam() && flavor.getVcpus() == smallest.getVcpus()
+							&& flavor.getDisk() < smallest.getDisk())) {
+				smallest = flavor;
+			}
+		}
+		if (smallest == null) {
+			throw new IllegalArgumentException(String.format(
+					"No flavor with at least %d MB memory and %d vcpus", memoryMb, vcpus));
+		}
+		return smallest;
+	}
+
+	/**
+	 * Parse a memory specification such as {@code 512}, {@code 512m}, {@code 2g} or
+	 * {@code 1.5g} into MB, rounding fractions of a MB up.
+	 */
+	static int parseMemory(String memory) {
+		if (!StringUtils.hasText(memory)) {
+			return 0;
+		}
+		String value = memory.trim().toLowerCase();
+		int factor = 1;
+		if (value.endsWith("g")) {
+			factor = 1024;
+			value = value.substring(0, value.length() - 1);
+		}
+		else if (value.endsWith("m")) {
+			value = value.substring(0, value.length() - 1);
+		}
+		// unlike Double.parseDouble, rejects suffixes such as 2d and 2f
+		return new BigDecimal(value).multiply(BigDecimal.valueOf(factor)).setScale(0, RoundingMode.CEILING)
+				.intValueExact();
+	}
+
+	static int parseCpu(String cpu) {
+		if (!StringUtils.hasText(cpu)) {
+			return 0;
+		}
+		return (int) Math.ceil(Double.parseDouble(cpu.trim()));
+	}
+
+	/**
+	 * A cache of one kind of resource, indexed by ID and by name.
+	 */
+	private class Catalog<T> {
+
+		private final String kind;
+
+		private final Supplier<List<? extends T>> loader;
+
+		private final Function<T, String> idFunction;
+
+		private final Function<T, String> nameFunction;
+
+		private volatile Map<String, T> byId = Collections.emptyMap();
+
+		private volatile Map<String, T> byName = Collections.emptyMap();
+
+		private volatile long timestamp;
+
+		/**
+		 * When each ID or name was last not found after reloading the catalog.
+		 */
+		private final Map<String, Long> misses = new ConcurrentHashMap<>();
+
+		Catalog(String kind, Supplier<List<? extends T>> loader, Function<T, String> idFunction,
+				Function<T, String> nameFunction) {
+			this.kind = kind;
+			this.loader = loader;
+			this.idFunction = idFunction;
+			this.nameFunction = nameFunction;
+		}
+
+		Collection<T> all() {
+			long seen = timestamp;
+			if (isExpired(seen)) {
+				load(seen);
+			}
+			return byId.values();
+		}
+
+		T resolve(String idOrName) {
+			long seen = timestamp;
+			if (isExpired(seen)) {
+				load(seen);
+			}
+			T resource = lookup(idOrName);
+			if (resource == null && !isRecentMiss(idOrName)) {
+				// the resource may have been created since we last loaded the catalog
+				load(timestamp);
+				resource = lookup(idOrName);
+				if (resource == null) {
+					misses.put(idOrName, System.currentTimeMillis());
+				}
+			}
+			if (resource == null) {
+				throw new IllegalArgumentException(String.format("No %s with ID or name '%s'", kind, idOrName));
+			}
+			return resource;
+		}
+
+		private T lookup(String idOrName) {
+			T resource = byId.get(idOrName);
+			return resource != null ? resource : byName.get(idOrName);
+		}
+
+		private boolean isRecentMiss(String idOrName) {
+			Long missed = misses.get(idOrName);
+			if (missed == null) {
+				return false;
+			}
+			if (System.currentTimeMillis() - missed <= properties.getResourceMissCacheTtl()) {
+				return true;
+			}
+			misses.remove(idOrName, missed);
+			return false;
+		}
+
+		private boolean isExpired(long seen) {
+			return System.currentTimeMillis() - seen > properties.getResourceCacheTtl();
+		}
+
+		private synchronized void load(long seen) {
+			if (timestamp != seen) {
+				// loaded by another caller while we were waiting
+				return;
+			}
+			Map<String, T> ids = new HashMap<>();
+			Map<String, T> names = new HashMap<>();
+			for (T resource : loader.get()) {
+				ids.put(idFunction.apply(resource), resource);
+				names.put(nameFunction.apply(resource), resource);
+			}
+			this.byId = ids;
+			this.byName = names;
+			this.timestamp = System.currentTimeMillis();
+			// forget the misses that have expired, so names that are never asked for again go
+			misses.values().removeIf(missed -> timestamp - missed > properties.getResourceMissCacheTtl());
+			logger.debug(String.format("Loaded %d %ss", ids.size(), kind));
+		}
+	}
+
+}
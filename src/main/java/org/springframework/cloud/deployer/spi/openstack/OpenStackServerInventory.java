@@ -0,0 +1,343 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openstack4j.model.compute.Server;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static org.springframework.cloud.deployer.spi.openstack.AbstractOpenStackDeployer.SPRING_APP_KEY;
+import static org.springframework.cloud.deployer.spi.openstack.AbstractOpenStackDeployer.SPRING_DEPLOYMENT_KEY;
+import static org.springframework.cloud.deployer.spi.openstack.AbstractOpenStackDeployer.SPRING_GROUP_KEY;
+import static org.springframework.cloud.deployer.spi.openstack.AbstractOpenStackDeployer.SPRING_MARKER_KEY;
+import static org.springframework.cloud.deployer.spi.openstack.AbstractOpenStackDeployer.SPRING_MARKER_VALUE;
+
+/**
+ * In-memory inventory of all servers carrying the Spring marker metadata, indexed by
+ * app id and deployment id. The inventory is refreshed in the background every
+ * {@link OpenStackDeployerProperties#getInventoryRefreshInterval()} and synchronously
+ * on read once it is older than {@link OpenStackDeployerProperties#getInventoryMaxStaleness()}
+ * or has been invalidated by one of our own boot or delete calls. Listeners are told of
+ * every server a refresh finds deleted.
+ */
+public class OpenStackServerInventory implements DisposableBean {
+
+	private static final Log logger = LogFactory.getLog(OpenStackServerInventory.class);
+
+	private final OpenStackSessionManager sessionManager;
+
+	private final OpenStackDeployerProperties properties;
+
+	private final AtomicLong generation = new AtomicLong();
+
+	private final Object refreshMonitor = new Object();
+
+	private volatile Snapshot snapshot = new Snapshot(Collections.emptyList(), 0L, -1L);
+
+	private volatile ScheduledExecutorService scheduler;
+
+	private volatile OpenStackMetrics metrics = OpenStackMetrics.NONE;
+
+	/**
+	 * Our servers by server id, as of the last refresh.
+	 */
+	private Map<String, Server> servers = Collections.emptyMap();
+
+	/**
+	 * The newest change seen so far, from which the next refresh lists changes, or
+	 * {@code null} until Nova has reported a change time. Local time is never used, as
+	 * it may be ahead of Nova's clock and hide changes made since.
+	 */
+	private Date changesSince;
+
+	private long lastFullSync;
+
+	/**
+	 * Servers seen building, whose time to become active is still to be recorded.
+	 */
+	private final Set<String> building = ConcurrentHashMap.newKeySet();
+
+	private final List<Consumer<String>> deletionListeners = new CopyOnWriteArrayList<>();
+
+	public OpenStackServerInventory(OpenStackSessionManager sessionManager, OpenStackDeployerProperties properties) {
+		this.sessionManager = sessionManager;
+		this.properties = properties;
+	}
+
+	/**
+	 * Set the metrics the time servers take to become active is recorded to.
+	 */
+	public void setMetrics(OpenStackMetrics metrics) {
+		this.metrics = metrics != null ? metrics : OpenStackMetrics.NONE;
+	}
+
+	/**
+	 * Return the servers belonging to the given app, or an empty list if there are none.
+	 */
+	public List<Server> getServersForApp(String appId) {
+		List<Server> servers = current().byApp.get(appId);
+		return servers != null ? servers : Collections.emptyList();
+	}
+
+	/**
+	 * Return the servers of all apps, grouped by app id, as seen by a single listing.
+	 */
+	public Map<String, List<Server>> getServersByApp() {
+		return Collections.unmodifiableMap(current().byApp);
+	}
+
+	/**
+	 * Return the server for the given deployment id, or {@code null} if there is none.
+	 */
+	public Server getServerForDeployment(String deploymentId) {
+		return current().byDeployment.get(deploymentId);
+	}
+
+	/**
+	 * Add a listener that is given the id of every server a refresh finds deleted, either
+	 * reported as deleted by {@code changes-since} or missing from a full listing.
+	 */
+	public void addDeletionListener(Consumer<String> listener) {
+		deletionListeners.add(listener);
+	}
+
+	/**
+	 * Mark the inventory as outdated so that the next read lists the servers again.
+	 */
+	public void invalidate() {
+		generation.incrementAndGet();
+	}
+
+	/**
+	 * Bring the inventory up to date with Nova and replace the current snapshot. Only the
+	 * servers that changed since the newest change seen so far are listed, using Nova's
+	 * {@code changes-since} filter; until Nova has reported a change, and every
+	 * {@link OpenStackDeployerProperties#getInventoryFullResyncInterval()} all servers are
+	 * listed instead, in case a change was missed.
+	 */
+	public void refresh() {
+		synchronized (refreshMonitor) {
+			long refreshGeneration = generation.get();
+			long now = System.currentTimeMillis();
+			boolean full = changesSince == null
+					|| now - lastFullSync >= properties.getInventoryFullResyncInterval();
+			Map<String, String> filters = new HashMap<>();
+			filters.put(SPRING_MARKER_KEY, SPRING_MARKER_VALUE);
+			if (!full) {
+				filters.put("changes-since", formatChangesSince(changesSince));
+			}
+			Map<String, Server> updated = full ? new HashMap<>() : new HashMap<>(servers);
+			Date newest = full ? null : changesSince;
+			int changes = 0;
+			Set<String> deleted = new HashSet<>();
+			Iterator<Server> listed = OpenStackServerPages.stream(sessionManager, filters, properties.getListPageSize())
+					.iterator();
+			while (listed.hasNext()) {
+				Server server = listed.next();
+				changes++;
+				if (server.getUpdated() != null && (newest == null || server.getUpdated().after(newest))) {
+					newest = server.getUpdated();
+				}
+				// only our own servers are kept, however many other servers the tenant has
+				if (isMarked(server) && server.getStatus() != Server.Status.DELETED) {
+					updated.put(server.getId(), server);
+				}
+				else {
+					updated.remove(server.getId());
+					if (server.getStatus() == Server.Status.DELETED) {
+						deleted.add(server.getId());
+					}
+				}
+			}
+			if (full) {
+				for (String serverId : servers.keySet()) {
+					if (!updated.containsKey(serverId)) {
+						deleted.add(serverId);
+					}
+				}
+			}
+			this.servers = updated;
+			// without a time from Nova, refreshes keep listing all servers
+			this.changesSince = newest;
+			if (full) {
+				this.lastFullSync = now;
+			}
+			List<Server> current = new ArrayList<>(updated.values());
+			this.snapshot = new Snapshot(current, now, refreshGeneration);
+			if (metrics != OpenStackMetrics.NONE) {
+				recordActivations(current);
+			}
+			logger.debug(String.format("Refreshed server inventory (%s, %d changes): %d servers",
+					full ? "full" : "incremental", changes, this.snapshot.byDeployment.size()));
+			for (String serverId : deleted) {
+				for (Consumer<String> listener : deletionListeners) {
+					listener.accept(serverId);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void destroy() {
+		synchronized (refreshMonitor) {
+			if (scheduler != null) {
+				scheduler.shutdownNow();
+				scheduler = null;
+			}
+		}
+	}
+
+	/**
+	 * Record the build time of the servers that became active since they were last seen
+	 * building. The time is measured from the server's creation, so it is accurate to
+	 * within one refresh interval.
+	 */
+	private void recordActivations(List<? extends Server> servers) {
+		Set<String> seen = new HashSet<>();
+		for (Server server : servers) {
+			seen.add(server.getId());
+			if (server.getStatus() == Server.Status.BUILD) {
+				building.add(server.getId());
+			}
+			else if (building.remove(server.getId()) && server.getStatus() == Server.Status.ACTIVE
+					&& server.getCreated() != null && server.getMetadata() != null) {
+				Map<String, String> metadata = server.getMetadata();
+				String app = metadata.containsKey("task-name") ? metadata.get("task-name") : metadata.get(SPRING_APP_KEY);
+				long millis = System.currentTimeMillis() - server.getCreated().getTime();
+				metrics.recordPhase(OpenStackMetrics.PHASE_ACTIVE, app, metadata.get(SPRING_GROUP_KEY),
+						TimeUnit.MILLISECONDS.toNanos(millis));
+			}
+		}
+		building.retainAll(seen);
+	}
+
+	private static String formatChangesSince(Date date) {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format.format(date);
+	}
+
+	private static boolean isMarked(Server server) {
+		Map<String, String> metadata = server.getMetadata();
+		return metadata != null && SPRING_MARKER_VALUE.equals(metadata.get(SPRING_MARKER_KEY));
+	}
+
+	private Snapshot current() {
+		startIfNecessary();
+		Snapshot current = this.snapshot;
+		if (isUsable(current)) {
+			return current;
+		}
+		synchronized (refreshMonitor) {
+			// another caller may have refreshed while we were waiting
+			if (!isUsable(this.snapshot)) {
+				refresh();
+			}
+			return this.snapshot;
+		}
+	}
+
+	private boolean isUsable(Snapshot snapshot) {
+		return snapshot.generation == generation.get()
+				&& System.currentTimeMillis() - snapshot.timestamp <= properties.getInventoryMaxStaleness();
+	}
+
+	private void startIfNecessary() {
+		if (scheduler != null || properties.getInventoryRefreshInterval() <= 0) {
+			return;
+		}
+		synchronized (refreshMonitor) {
+			if (scheduler == null) {
+				CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("openstack-inventory-");
+				threadFactory.setDaemon(true);
+				scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+				long interval = properties.getInventoryRefreshInterval();
+				scheduler.scheduleWithFixedDelay(() -> {
+					try {
+						refresh();
+					}
+					catch (RuntimeException e) {
+						logger.warn(String.format("Failed to refresh server inventory: %s", e.getMessage()));
+					}
+				}, interval, interval, TimeUnit.MILLISECONDS);
+			}
+		}
+	}
+
+	private static class Snapshot {
+
+		private final Map<String, List<Server>> byApp = new HashMap<>();
+
+		private final Map<String, Server> byDeployment = new HashMap<>();
+
+		private final long timestamp;
+
+		private final long generation;
+
+		Snapshot(List<? extends Server> servers, long timestamp, long generation) {
+			this.timestamp = timestamp;
+			this.generation = generation;
+			Map<String, List<Server>> grouped = new HashMap<>();
+			if (servers != null) {
+				for (Server server : servers) {
+					Map<String, String> metadata = server.getMetadata();
+					if (metadata == null || !SPRING_MARKER_VALUE.equals(metadata.get(SPRING_MARKER_KEY))) {
+						continue;
+					}
+					String appId = metadata.get(SPRING_APP_KEY);
+					if (appId != null) {
+						List<Server> appServers = grouped.get(appId);
+						if (appServers == null) {
+							appServers = new ArrayList<>();
+							grouped.put(appId, appServers);
+						}
+						appServers.add(server);
+					}
+					String deploymentId = metadata.get(SPRING_DEPLOYMENT_KEY);
+					if (deploymentId != null) {
+						byDeployment.put(deploymentId, server);
+					}
+				}
+			}
+			for (Map.Entry<String, List<Server>> entry : grouped.entrySet()) {
+				byApp.put(entry.getKey(), Collections.unmodifiableList(entry.getValue()));
+			}
+		}
+	}
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.openstack4j.model.compute.Server;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static org.springframework.cloud.deployer.spi.openstack.OpenStackRequestScheduler.OperationClass.LIST;
+
+/**
+ * Lists servers page by page using Nova's {@code limit} and {@code marker} parameters.
+ * Pages are fetched lazily as the stream is consumed, so callers can process the first
+ * servers before the last page has arrived and never hold more than one page in memory.
+ * Listing in one call would be truncated at Nova's maximum page size instead.
+ * <p>
+ * Nova may return fewer servers than the requested limit when its
+ * {@code osapi_max_limit} is lower, and openstack4j drops the {@code servers_links} that
+ * would say whether more follow, so only an empty page ends the listing.
+ */
+final class OpenStackServerPages {
+
+	private OpenStackServerPages() {
+	}
+
+	/**
+	 * Stream all servers matching the given Nova filters.
+	 *
+	 * @param sessionManager the session manager to make the list calls through
+	 * @param filters the Nova list filters, may be empty
+	 * @param pageSize the number of servers to request per call
+	 */
+	static Stream<Server> stream(OpenStackSessionManager sessionManager, Map<String, String> filters, int pageSize) {
+		Iterator<Server> iterator = new PageIterator(sessionManager, filters, Math.max(1, pageSize));
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator,
+				Spliterator.ORDERED | Spliterator.NONNULL), false);
+	}
+
+	private static class PageIterator implements Iterator<Server> {
+
+		private final OpenStackSessionManager sessionManager;
+
+		private final Map<String, String> filters;
+
+		private final int pageSize;
+
+		private Iterator<? extends Server> page = Collections.emptyIterator();
+
+		private String marker;
+
+		private boolean lastPage;
+
+		PageIterator(OpenStackSessionManager sessionManager, Map<String, String> filters, int pageSize) {
+			this.sessionManager = sessionManager;
+			this.filters = filters;
+			this.pageSize = pageSize;
+		}
+
+		@Override
+		public boolean hasNext() {
+			while (!page.hasNext() && !lastPage) {
+				fetch();
+			}
+			return page.hasNext();
+		}
+
+		@Override
+		public Server next() {
+			if (!hasNext()) {
+				throw new NoSuchElementException();
+			}
+			Server server = page.next();
+			marker = server.getId();
+			return server;
+		}
+
+		private void fetch() {
+			Map<String, String> params = new HashMap<>(filters);
+			params.put("limit", String.valueOf(pageSize));
+			if (marker != null) {
+				params.put("marker", marker);
+			}
+			List<? extends Server> servers = sessionManager.execute(LIST,
+					client -> client.compute().servers().list(params));
+			lastPage = servers == null || servers.isEmpty();
+			page = servers != null ? servers.iterator() : Collections.emptyIterator();
+		}
+	}
+
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openstack4j.api.OSClient;
+import org.openstack4j.api.OSClient.OSClientV2;
+import org.openstack4j.core.transport.Config;
+import org.openstack4j.model.identity.v2.Access;
+import org.openstack4j.openstack.OSFactory;
+import org.openstack4j.openstack.internal.OSClientSession;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.cloud.deployer.spi.openstack.OpenStackRequestScheduler.OperationClass;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+
+/**
+ * Hands out {@link OSClient}s that can be used from any thread. openstack4j binds a
+ * session to the thread that created it, so each thread gets its own client derived
+ * from one shared Keystone token. The first token is requested in the background once
+ * the session manager is initialized, retrying with backoff until Keystone answers, so
+ * that startup does not wait for it; callers only wait while an attempt is in progress.
+ * The token is refreshed in the background
+ * {@link OpenStackDeployerProperties#getTokenRefreshMargin()} before it expires; if it
+ * does expire, exactly one caller re-authenticates while the others wait for it. Clients
+ * use the configured {@link OpenStackDeployerProperties#getRegion() region}, if any, and
+ * the connector and connection settings applied by {@link OpenStackConnector}.
+ * <p>
+ * Nova calls should be made through {@link #execute(OperationClass, Function)} so that
+ * they are throttled by the {@link OpenStackRequestScheduler}.
+ */
+public class OpenStackSessionManager implements InitializingBean, DisposableBean {
+
+	private static final Log logger = LogFactory.getLog(OpenStackSessionManager.class);
+
+	private final OpenStackDeployerProperties properties;
+
+	private final ThreadLocal<ThreadSession> sessions = new ThreadLocal<>();
+
+	private final ReentrantLock authLock = new ReentrantLock();
+
+	private final ScheduledExecutorService refresher;
+
+	private final OpenStackRequestScheduler requestScheduler;
+
+	private final Config config;
+
+	private volatile Access access;
+
+	public OpenStackSessionManager(OpenStackDeployerProperties properties) {
+		this.properties = properties;
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("openstack-token-");
+		threadFactory.setDaemon(true);
+		this.refresher = Executors.newSingleThreadScheduledExecutor(threadFactory);
+		this.requestScheduler = new OpenStackRequestScheduler(properties);
+		this.config = OpenStackConnector.configure(properties);
+	}
+
+	/**
+	 * Create a session manager seeded with the token of an already authenticated client.
+	 * Only Keystone v2 tokens are shared between threads, so the token of any other
+	 * client is not used, and the session manager authenticates with the configured
+	 * credentials instead.
+	 */
+	public OpenStackSessionManager(OpenStackDeployerProperties properties, OSClient client) {
+		this(properties);
+		if (client instanceof OSClientV2) {
+			this.access = ((OSClientV2) client).getAccess();
+			scheduleRefresh(this.access);
+		}
+		else if (client != null) {
+			logger.info(String.format("Not reusing the token of %s, authenticating against %s instead",
+					client.getClass().getSimpleName(), properties.getEndpoint()));
+		}
+	}
+
+	/**
+	 * Set the metrics every Nova call made through this session manager is recorded to.
+	 */
+	public void setMetrics(OpenStackMetrics metrics) {
+		requestScheduler.setMetrics(metrics);
+	}
+
+	/**
+	 * Return a client bound to the calling thread.
+	 */
+	public OSClient getClient() {
+		Access current = currentAccess();
+		ThreadSession session = sessions.get();
+		if (session == null || session.access != current || OSClientSession.getCurrent() != session.client) {
+			OSClient client = OSFactory.clientFromAccess(current, config);
+			if (properties.getRegion() != null) {
+				client.useRegion(properties.getRegion());
+			}
+			session = new ThreadSession(current, client);
+			sessions.set(session);
+		}
+		return session.client;
+	}
+
+	/**
+	 * Run a Nova call with a client bound to the calling thread, subject to the rate
+	 * limit of its operation class.
+	 */
+	public <T> T execute(OperationClass operationClass, Function<OSClient, T> call) {
+		return requestScheduler.execute(operationClass, () -> call.apply(getClient()));
+	}
+
+	/**
+	 * Start authenticating in the background, unless already authenticated.
+	 */
+	@Override
+	public void afterPropertiesSet() {
+		if (this.access == null) {
+			refresher.execute(() -> authenticateInBackground(properties.getAuthRetryInitialInterval()));
+		}
+	}
+
+	@Override
+	public void destroy() {
+		refresher.shutdownNow();
+	}
+
+	private Access currentAccess() {
+		Access current = this.access;
+		if (current != null && !isExpired(current)) {
+			return current;
+		}
+		authLock.lock();
+		try {
+			// another caller may have re-authenticated while we were waiting
+			if (this.access == current) {
+				authenticate();
+			}
+			return this.access;
+		}
+		finally {
+			authLock.unlock();
+		}
+	}
+
+	private void authenticate() {
+		logger.debug(String.format("Authenticating against %s", properties.getEndpoint()));
+		OSClientV2 client = OSFactory.builderV2()
+				.endpoint(properties.getEndpoint())
+				.credentials(properties.getUserId(), properties.getPassword())
+				.tenantName(properties.getTenantName())
+				.withConfig(config)
+				.authenticate();
+		this.access = client.getAccess();
+		scheduleRefresh(this.access);
+	}
+
+	private void authenticateInBackground(long backoff) {
+		authLock.lock();
+		try {
+			// a caller may have authenticated since the last attempt
+			if (this.access == null) {
+				authenticate();
+			}
+		}
+		catch (RuntimeException e) {
+			logger.warn(String.format("Authentication against %s failed, retrying in %d ms: %s",
+					properties.getEndpoint(), backoff, e.getMessage()));
+			long next = Math.min(backoff * 2, properties.getAuthRetryMaxInterval());
+			refresher.schedule(() -> authenticateInBackground(next), backoff, TimeUnit.MILLISECONDS);
+		}
+		finally {
+			authLock.unlock();
+		}
+	}
+
+	private void scheduleRefresh(Access scheduled) {
+		Date expires = scheduled.getToken().getExpires();
+		if (expires == null) {
+			return;
+		}
+		long delay = Math.max(0, expires.getTime() - properties.getTokenRefreshMargin() - System.currentTimeMillis());
+		refresher.schedule(() -> {
+			authLock.lock();
+			try {
+				if (this.access == scheduled) {
+					authenticate();
+				}
+			}
+			catch (RuntimeException e) {
+				logger.warn(String.format("Proactive token refresh failed: %s", e.getMessage()));
+				if (!isExpired(scheduled)) {
+					refresher.schedule(() -> scheduleRefresh(scheduled), 10, TimeUnit.SECONDS);
+				}
+			}
+			finally {
+				authLock.unlock();
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	private static boolean isExpired(Access access) {
+		Date expires = access.getToken().getExpires();
+		return expires != null && expires.getTime() <= System.currentTimeMillis();
+	}
+
+	private static class ThreadSession {
+
+		private final Access access;
+
+		private final OSClient client;
+
+		ThreadSession(Access access, OSClient client) {
+			this.access = access;
+			this.client = client;
+		}
+	}
+
+}
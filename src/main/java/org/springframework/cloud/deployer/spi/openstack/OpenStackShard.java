@@ -0,0 +1,386 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openstack4j.model.compute.AbsoluteLimit;
+import org.openstack4j.model.compute.Server;
+import org.springframework.beans.BeanUtils;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.cloud.deployer.spi.openstack.OpenStackDeployerProperties.Shard;
+import org.springframework.cloud.deployer.spi.openstack.OpenStackRequestScheduler.OperationClass;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.cloud.deployer.spi.openstack.OpenStackRequestScheduler.OperationClass.GET;
+
+/**
+ * One region or project deployments can be placed on, with its own session, server
+ * inventory and resource catalogs. Besides giving access to these, a shard keeps the
+ * figures {@link OpenStackShards} places deployments by: the number of servers deployed
+ * on it, the servers placed on it that have not shown up in its inventory yet, its
+ * quota headroom and its recent build times.
+ */
+public class OpenStackShard implements DisposableBean {
+
+	private static final Log logger = LogFactory.getLog(OpenStackShard.class);
+
+	/**
+	 * Time in milliseconds after which a placement that never showed up in the
+	 * inventory no longer counts against the shard.
+	 */
+	private static final long PLACEMENT_TIMEOUT = TimeUnit.MINUTES.toMillis(10);
+
+	/**
+	 * Weight of the latest build time in the moving average of build times.
+	 */
+	private static final double BUILD_TIME_ALPHA = 0.2;
+
+	private final String name;
+
+	private final OpenStackDeployerProperties properties;
+
+	private final OpenStackSessionManager sessionManager;
+
+	private final OpenStackServerInventory inventory;
+
+	private final OpenStackResourceResolver resourceResolver;
+
+	private final OpenStackDeletionTracker deletionTracker;
+
+	private final OpenStackDeploymentRegistry registry;
+
+	private final OpenStackWarmPool warmPool;
+
+	private final OpenStackImageBaker imageBaker;
+
+	private final boolean owned;
+
+	private final Set<Placement> placements = ConcurrentHashMap.newKeySet();
+
+	private final Object buildTimeMonitor = new Object();
+
+	private double buildTime = Double.NaN;
+
+	private volatile Quota quota;
+
+	/**
+	 * Create a shard over existing components, which remain owned by the caller.
+	 */
+	public OpenStackShard(String name, OpenStackDeployerProperties properties, OpenStackSessionManager sessionManager,
+			OpenStackServerInventory inventory, OpenStackResourceResolver resourceResolver,
+			OpenStackDeletionTracker deletionTracker, OpenStackDeploymentRegistry registry, OpenStackWarmPool warmPool,
+			OpenStackImageBaker imageBaker) {
+		this(name, properties, sessionManager, inventory, resourceResolver, deletionTracker, registry, warmPool,
+				imageBaker, false);
+	}
+
+	private OpenStackShard(String name, OpenStackDeployerProperties properties,
+			OpenStackSessionManager sessionManager, OpenStackServerInventory inventory,
+			OpenStackResourceResolver resourceResolver, OpenStackDeletionTracker deletionTracker,
+			OpenStackDeploymentRegistry registry, OpenStackWarmPool warmPool, OpenStackImageBaker imageBaker,
+			boolean owned) {
+		this.name = name;
+		this.properties = properties;
+		this.sessionManager = sessionManager;
+		this.inventory = inventory;
+		this.resourceResolver = resourceResolver;
+		this.deletionTracker = deletionTracker;
+		this.registry = registry;
+		this.warmPool = warmPool;
+		this.imageBaker = imageBaker;
+		this.owned = owned;
+	}
+
+	/**
+	 * Create a shard with components of its own, configured by the given shard settings
+	 * on top of the given defaults.
+	 */
+	static OpenStackShard create(String name, OpenStackDeployerProperties defaults, Shard shard,
+			OpenStackMetrics metrics) {
+		OpenStackDeployerProperties properties = new OpenStackDeployerProperties();
+		BeanUtils.copyProperties(defaults, properties, "shards");
+		if (shard.getEndpoint() != null) {
+			properties.setEndpoint(shard.getEndpoint());
+		}
+		if (shard.getUserId() != null) {
+			properties.setUserId(shard.getUserId());
+		}
+		if (shard.getPassword() != null) {
+			properties.setPassword(shard.getPassword());
+		}
+		if (shard.getTenantName() != null) {
+			properties.setTenantName(shard.getTenantName());
+		}
+		if (shard.getRegion() != null) {
+			properties.setRegion(shard.getRegion());
+		}
+		if (shard.getWeight() != null) {
+			properties.setShardWeight(shard.getWeight());
+		}
+		if (shard.getMaxInstances() != null) {
+			properties.setMaxInstances(shard.getMaxInstances());
+		}
+		if (defaults.getRegistryJournal() != null) {
+			properties.setRegistryJournal(defaults.getRegistryJournal() + "-" + name);
+		}
+		OpenStackSessionManager sessionManager = new OpenStackSessionManager(properties);
+		sessionManager.setMetrics(metrics);
+		sessionManager.afterPropertiesSet();
+		OpenStackServerInventory inventory = new OpenStackServerInventory(sessionManager, properties);
+		inventory.setMetrics(metrics);
+		OpenStackDeploymentRegistry registry = new OpenStackDeploymentRegistry(sessionManager, properties);
+		registry.afterPropertiesSet();
+		return new OpenStackShard(name, properties, sessionManager, inventory,
+				new OpenStackResourceResolver(sessionManager, properties),
+				new OpenStackDeletionTracker(inventory, properties), registry,
+				properties.getWarmPoolSize() > 0 ? new OpenStackWarmPool(sessionManager, properties) : null,
+				properties.isImageBaking() ? new OpenStackImageBaker(sessionManager, properties) : null, true);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public OpenStackDeployerProperties getProperties() {
+		return properties;
+	}
+
+	public OpenStackSessionManager getSessionManager() {
+		return sessionManager;
+	}
+
+	public OpenStackServerInventory getInventory() {
+		return inventory;
+	}
+
+	/**
+	 * Create an app deployer deploying to this shard.
+	 */
+	public OpenStackAppDeployer createAppDeployer() {
+		OpenStackAppDeployer appDeployer = new OpenStackAppDeployer(properties, sessionManager, inventory,
+				resourceResolver, deletionTracker, registry);
+		appDeployer.setImageBaker(imageBaker);
+		return appDeployer;
+	}
+
+	/**
+	 * Create a task launcher launching on this shard.
+	 */
+	public OpenStackTaskLauncher createTaskLauncher() {
+		OpenStackTaskLauncher taskLauncher = new OpenStackTaskLauncher(properties, sessionManager, inventory,
+				resourceResolver, deletionTracker, registry);
+		taskLauncher.setImageBaker(imageBaker);
+		taskLauncher.setWarmPool(warmPool);
+		return taskLauncher;
+	}
+
+	/**
+	 * Record the build times of this shard's servers, passing them and all other
+	 * metrics on to the given metrics.
+	 */
+	void trackBuildTimes(OpenStackMetrics metrics) {
+		inventory.setMetrics(new OpenStackMetrics() {
+
+			@Override
+			public void recordCall(OperationClass operationClass, long nanos, boolean success) {
+				metrics.recordCall(operationClass, nanos, success);
+			}
+
+			@Override
+			public void recordPhase(String phase, String app, String group, long nanos) {
+				if (PHASE_ACTIVE.equals(phase)) {
+					recordBuildTime(nanos);
+				}
+				metrics.recordPhase(phase, app, group, nanos);
+			}
+		});
+	}
+
+	/**
+	 * Return the number of servers deployed on this shard.
+	 */
+	int getInstanceCount() {
+		int count = 0;
+		for (List<Server> servers : inventory.getServersByApp().values()) {
+			count += servers.size();
+		}
+		return count;
+	}
+
+	/**
+	 * Return the number of servers placed on this shard that have not shown up in its
+	 * inventory yet.
+	 */
+	int getPendingCount() {
+		long now = System.currentTimeMillis();
+		int count = 0;
+		for (Iterator<Placement> it = placements.iterator(); it.hasNext();) {
+			Placement placement = it.next();
+			if (now - placement.placedAt > PLACEMENT_TIMEOUT || (placement.appId != null
+					&& !inventory.getServersForApp(placement.appId).isEmpty())) {
+				it.remove();
+			}
+			else {
+				count += placement.instances;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Return how many more servers fit on this shard, given the number deployed and
+	 * pending, by the configured maximum and the Nova instance quota.
+	 */
+	int getHeadroom(int deployed, int pending) {
+		int headroom = Integer.MAX_VALUE;
+		if (properties.getMaxInstances() > 0) {
+			headroom = properties.getMaxInstances() - deployed - pending;
+		}
+		Quota current = currentQuota();
+		if (current != null && current.maxInstances >= 0) {
+			// pending servers may already be counted as used, so this errs on the low side
+			headroom = Math.min(headroom, current.maxInstances - current.usedInstances - pending);
+		}
+		return headroom;
+	}
+
+	/**
+	 * Return the moving average of the time in milliseconds this shard's servers took to
+	 * become active, or {@code NaN} if none has been seen yet.
+	 */
+	double getBuildTime() {
+		synchronized (buildTimeMonitor) {
+			return buildTime;
+		}
+	}
+
+	Placement reserve(int instances) {
+		Placement placement = new Placement(this, instances);
+		placements.add(placement);
+		return placement;
+	}
+
+	void release(Placement placement) {
+		placements.remove(placement);
+	}
+
+	@Override
+	public void destroy() {
+		if (!owned) {
+			return;
+		}
+		if (warmPool != null) {
+			warmPool.destroy();
+		}
+		registry.destroy();
+		deletionTracker.destroy();
+		inventory.destroy();
+		sessionManager.destroy();
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+	private void recordBuildTime(long nanos) {
+		double millis = TimeUnit.NANOSECONDS.toMillis(nanos);
+		synchronized (buildTimeMonitor) {
+			buildTime = Double.isNaN(buildTime) ? millis : buildTime + BUILD_TIME_ALPHA * (millis - buildTime);
+		}
+	}
+
+	private Quota currentQuota() {
+		Quota current = this.quota;
+		long now = System.currentTimeMillis();
+		if (current != null && now - current.fetchedAt <= properties.getInventoryMaxStaleness()) {
+			return current;
+		}
+		try {
+			AbsoluteLimit limits = sessionManager.execute(GET,
+					client -> client.compute().quotaSets().limits().getAbsolute());
+			current = new Quota(limits.getMaxTotalInstances(), Math.max(0, limits.getTotalInstancesUsed()), now);
+		}
+		catch (RuntimeException e) {
+			logger.debug(String.format("Failed to read the instance quota of shard %s: %s", name, e.getMessage()));
+			// keep using the last known quota, and do not ask again before it is due
+			current = current != null ? new Quota(current.maxInstances, current.usedInstances, now)
+					: new Quota(-1, 0, now);
+		}
+		this.quota = current;
+		return current;
+	}
+
+	/**
+	 * Servers placed on a shard, counted against it until they show up in its inventory.
+	 */
+	static class Placement {
+
+		private final OpenStackShard shard;
+
+		private final int instances;
+
+		private final long placedAt = System.currentTimeMillis();
+
+		private volatile String appId;
+
+		Placement(OpenStackShard shard, int instances) {
+			this.shard = shard;
+			this.instances = instances;
+		}
+
+		OpenStackShard getShard() {
+			return shard;
+		}
+
+		/**
+		 * Note the id of the app or task the servers were deployed for.
+		 */
+		void deployed(String appId) {
+			this.appId = appId;
+		}
+
+		/**
+		 * Stop counting the servers against the shard, as they were never deployed.
+		 */
+		void cancel() {
+			shard.release(this);
+		}
+	}
+
+	private static class Quota {
+
+		private final int maxInstances;
+
+		private final int usedInstances;
+
+		private final long fetchedAt;
+
+		Quota(int maxInstances, int usedInstances, long fetchedAt) {
+			this.maxInstances = maxInstances;
+			this.usedInstances = usedInstances;
+			this.fetchedAt = fetchedAt;
+		}
+	}
+
+}
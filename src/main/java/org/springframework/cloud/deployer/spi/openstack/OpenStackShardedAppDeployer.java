@@ -0,0 +1,204 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.cloud.deployer.spi.app.AppDeployer;
+import org.springframework.cloud.deployer.spi.app.AppInstanceStatus;
+import org.springframework.cloud.deployer.spi.app.AppStatus;
+import org.springframework.cloud.deployer.spi.app.DeploymentState;
+import org.springframework.cloud.deployer.spi.core.AppDeploymentRequest;
+import org.springframework.cloud.deployer.spi.core.RuntimeEnvironmentInfo;
+import org.springframework.cloud.deployer.spi.openstack.OpenStackShard.Placement;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * An {@link AppDeployer} that places each app on one of several {@link OpenStackShards}
+ * and routes every later call to that shard by the app id.
+ */
+public class OpenStackShardedAppDeployer implements AppDeployer, DisposableBean {
+
+	private static final Log logger = LogFactory.getLog(OpenStackShardedAppDeployer.class);
+
+	private final OpenStackShards shards;
+
+	private final Map<OpenStackShard, OpenStackAppDeployer> deployers;
+
+	private final ExecutorService executor;
+
+	/**
+	 * @param shards the shards to deploy to
+	 * @param deployers the app deployer of each shard
+	 */
+	public OpenStackShardedAppDeployer(OpenStackShards shards, Map<OpenStackShard, OpenStackAppDeployer> deployers) {
+		this.shards = shards;
+		this.deployers = new LinkedHashMap<>(deployers);
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("openstack-shard-");
+		threadFactory.setDaemon(true);
+		this.executor = Executors.newFixedThreadPool(deployers.size(), threadFactory);
+	}
+
+	@Override
+	public String deploy(AppDeploymentRequest request) {
+		String localId = deployers.get(shards.getDefaultShard()).createDeploymentId(request);
+		for (Map.Entry<OpenStackShard, OpenStackAppDeployer> entry : deployers.entrySet()) {
+			if (!entry.getKey().getInventory().getServersForApp(localId).isEmpty()) {
+				throw new IllegalStateException(String.format("App '%s' is already deployed on shard %s", localId,
+						entry.getKey()));
+			}
+		}
+		String countProperty = request.getDeploymentProperties().get(COUNT_PROPERTY_KEY);
+		int count = (countProperty != null) ? Integer.parseInt(countProperty) : 1;
+		Placement placement = shards.place(count);
+		OpenStackShard shard = placement.getShard();
+		try {
+			String appId = deployers.get(shard).deploy(request);
+			placement.deployed(appId);
+			logger.debug(String.format("Deployed app %s on shard %s", appId, shard));
+			return shards.qualify(shard, appId);
+		}
+		catch (RuntimeException e) {
+			placement.cancel();
+			throw e;
+		}
+	}
+
+	@Override
+	public void undeploy(String id) {
+		deployerFor(id).undeploy(OpenStackShards.localId(id));
+	}
+
+	/**
+	 * Change the number of instances of a deployed app in place, on the shard it is
+	 * deployed on.
+	 *
+	 * @see OpenStackAppDeployer#scale(String, AppDeploymentRequest, int)
+	 */
+	public void scale(String id, AppDeploymentRequest request, int count) {
+		deployerFor(id).scale(OpenStackShards.localId(id), request, count);
+	}
+
+	/**
+	 * Replace the instances of a deployed app with a new generation, on the shard it is
+	 * deployed on.
+	 *
+	 * @see OpenStackAppDeployer#redeploy(String, AppDeploymentRequest)
+	 */
+	public void redeploy(String id, AppDeploymentRequest request) {
+		deployerFor(id).redeploy(OpenStackShards.localId(id), request);
+	}
+
+	@Override
+	public AppStatus status(String id) {
+		OpenStackShard shard = shards.route(id);
+		if (shard == null) {
+			return AppStatus.of(id).generalState(DeploymentState.unknown).build();
+		}
+		return qualify(id, deployers.get(shard).status(OpenStackShards.localId(id)));
+	}
+
+	/**
+	 * Return the status of several apps at once, listing the servers of all shards
+	 * involved in parallel.
+	 *
+	 * @param ids the ids of the apps
+	 * @return the status of each app, keyed by app id in the order requested
+	 */
+	public Map<String, AppStatus> statuses(String... ids) {
+		Map<OpenStackShard, List<String>> idsByShard = new LinkedHashMap<>();
+		for (String id : ids) {
+			OpenStackShard shard = shards.route(id);
+			if (shard != null) {
+				idsByShard.computeIfAbsent(shard, s -> new ArrayList<>()).add(OpenStackShards.localId(id));
+			}
+		}
+		Map<OpenStackShard, CompletableFuture<Map<String, AppStatus>>> lookups = new LinkedHashMap<>();
+		for (Map.Entry<OpenStackShard, List<String>> entry : idsByShard.entrySet()) {
+			OpenStackAppDeployer deployer = deployers.get(entry.getKey());
+			String[] localIds = entry.getValue().toArray(new String[0]);
+			lookups.put(entry.getKey(), CompletableFuture.supplyAsync(() -> deployer.statuses(localIds), executor));
+		}
+		Map<String, AppStatus> statuses = new LinkedHashMap<>();
+		for (String id : ids) {
+			OpenStackShard shard = shards.route(id);
+			if (shard == null) {
+				statuses.put(id, AppStatus.of(id).generalState(DeploymentState.unknown).build());
+			}
+			else {
+				statuses.put(id, qualify(id, lookups.get(shard).join().get(OpenStackShards.localId(id))));
+			}
+		}
+		return statuses;
+	}
+
+	/**
+	 * Return a future that completes with the status of the app once it is deployed,
+	 * failed or in error.
+	 *
+	 * @see OpenStackAppDeployer#whenDeployed(String, long)
+	 */
+	public CompletableFuture<AppStatus> whenDeployed(String id, long timeout) {
+		return deployerFor(id).whenDeployed(OpenStackShards.localId(id), timeout)
+				.thenApply(status -> qualify(id, status));
+	}
+
+	@Override
+	public RuntimeEnvironmentInfo environmentInfo() {
+		return deployers.get(shards.getDefaultShard()).environmentInfo();
+	}
+
+	@Override
+	public void destroy() {
+		executor.shutdownNow();
+		for (OpenStackAppDeployer deployer : deployers.values()) {
+			deployer.destroy();
+		}
+	}
+
+	private OpenStackAppDeployer deployerFor(String id) {
+		OpenStackShard shard = shards.route(id);
+		if (shard == null) {
+			throw new IllegalStateException(String.format("App '%s' is not deployed", id));
+		}
+		return deployers.get(shard);
+	}
+
+	private static AppStatus qualify(String id, AppStatus status) {
+		if (status.getDeploymentId().equals(id)) {
+			return status;
+		}
+		AppStatus.Builder builder = AppStatus.of(id);
+		if (status.getInstances().isEmpty()) {
+			return builder.generalState(status.getState()).build();
+		}
+		for (AppInstanceStatus instance : status.getInstances().values()) {
+			builder.with(instance);
+		}
+		return builder.build();
+	}
+
+}
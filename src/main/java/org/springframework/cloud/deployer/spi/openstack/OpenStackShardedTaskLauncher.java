@@ -0,0 +1,156 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.cloud.deployer.spi.core.AppDeploymentRequest;
+import org.springframework.cloud.deployer.spi.core.RuntimeEnvironmentInfo;
+import org.springframework.cloud.deployer.spi.openstack.OpenStackShard.Placement;
+import org.springframework.cloud.deployer.spi.task.LaunchState;
+import org.springframework.cloud.deployer.spi.task.TaskLauncher;
+import org.springframework.cloud.deployer.spi.task.TaskStatus;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * A {@link TaskLauncher} that launches each task on one of several
+ * {@link OpenStackShards} and routes every later call to that shard by the launch id.
+ */
+public class OpenStackShardedTaskLauncher implements TaskLauncher, DisposableBean {
+
+	private static final Log logger = LogFactory.getLog(OpenStackShardedTaskLauncher.class);
+
+	private final OpenStackShards shards;
+
+	private final Map<OpenStackShard, OpenStackTaskLauncher> launchers;
+
+	private final ExecutorService executor;
+
+	/**
+	 * @param shards the shards to launch on
+	 * @param launchers the task launcher of each shard
+	 */
+	public OpenStackShardedTaskLauncher(OpenStackShards shards, Map<OpenStackShard, OpenStackTaskLauncher> launchers) {
+		this.shards = shards;
+		this.launchers = new LinkedHashMap<>(launchers);
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("openstack-shard-");
+		threadFactory.setDaemon(true);
+		this.executor = Executors.newFixedThreadPool(launchers.size(), threadFactory);
+	}
+
+	@Override
+	public String launch(AppDeploymentRequest request) {
+		Placement placement = shards.place(1);
+		OpenStackShard shard = placement.getShard();
+		try {
+			String taskId = launchers.get(shard).launch(request);
+			placement.deployed(taskId);
+			logger.debug(String.format("Launched task %s on shard %s", taskId, shard));
+			return shards.qualify(shard, taskId);
+		}
+		catch (RuntimeException e) {
+			placement.cancel();
+			throw e;
+		}
+	}
+
+	@Override
+	public void cancel(String id) {
+		launcherFor(id).cancel(OpenStackShards.localId(id));
+	}
+
+	@Override
+	public void cleanup(String id) {
+		launcherFor(id).cleanup(OpenStackShards.localId(id));
+	}
+
+	@Override
+	public TaskStatus status(String id) {
+		OpenStackShard shard = shards.route(id);
+		if (shard == null) {
+			return new TaskStatus(id, LaunchState.unknown, new HashMap<>());
+		}
+		TaskStatus status = launchers.get(shard).status(OpenStackShards.localId(id));
+		return new TaskStatus(id, status.getState(), status.getAttributes());
+	}
+
+	/**
+	 * Delete all servers launched for the given task name on every shard, on all shards
+	 * in parallel. Failures are reported together once all shards are done.
+	 */
+	@Override
+	public void destroy(String appName) {
+		Map<OpenStackShard, Future<?>> destructions = new LinkedHashMap<>();
+		for (Map.Entry<OpenStackShard, OpenStackTaskLauncher> entry : launchers.entrySet()) {
+			OpenStackTaskLauncher launcher = entry.getValue();
+			destructions.put(entry.getKey(), executor.submit(() -> launcher.destroy(appName)));
+		}
+		Map<OpenStackShard, Throwable> failures = new LinkedHashMap<>();
+		for (Map.Entry<OpenStackShard, Future<?>> destruction : destructions.entrySet()) {
+			try {
+				destruction.getValue().get();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				failures.put(destruction.getKey(), e);
+				break;
+			}
+			catch (ExecutionException e) {
+				failures.put(destruction.getKey(), e.getCause());
+			}
+		}
+		if (!failures.isEmpty()) {
+			IllegalStateException exception = new IllegalStateException(String.format(
+					"Failed to destroy task %s on shards %s", appName, failures.keySet()));
+			for (Throwable failure : failures.values()) {
+				exception.addSuppressed(failure);
+			}
+			throw exception;
+		}
+	}
+
+	@Override
+	public RuntimeEnvironmentInfo environmentInfo() {
+		return launchers.get(shards.getDefaultShard()).environmentInfo();
+	}
+
+	@Override
+	public void destroy() {
+		executor.shutdownNow();
+		for (OpenStackTaskLauncher launcher : launchers.values()) {
+			launcher.destroy();
+		}
+	}
+
+	private OpenStackTaskLauncher launcherFor(String id) {
+		OpenStackShard shard = shards.route(id);
+		if (shard == null) {
+			throw new IllegalStateException(String.format("Task '%s' does not exist", id));
+		}
+		return launchers.get(shard);
+	}
+
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.cloud.deployer.spi.openstack.OpenStackDeployerProperties.Shard;
+import org.springframework.cloud.deployer.spi.openstack.OpenStackShard.Placement;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The shards deployments are spread over: the default shard configured by the
+ * top-level {@link OpenStackDeployerProperties}, followed by the
+ * {@link OpenStackDeployerProperties#getShards() configured shards}.
+ * <p>
+ * Deployments are placed on the shard with the lowest load, skipping shards without
+ * quota headroom for the requested number of servers. The load of a shard is the number
+ * of servers deployed or pending on it, divided by its weight and scaled by how much
+ * longer than the average its servers recently took to build.
+ * <p>
+ * The shard is part of the id of every deployment outside the default shard, as
+ * {@code <shard>.<id>}, so later calls are routed without asking any shard. Ids on the
+ * default shard are left as they are.
+ */
+public class OpenStackShards implements DisposableBean {
+
+	public static final String DEFAULT_SHARD = "default";
+
+	private static final char SEPARATOR = '.';
+
+	private static final Log logger = LogFactory.getLog(OpenStackShards.class);
+
+	private final Map<String, OpenStackShard> shards = new LinkedHashMap<>();
+
+	private final OpenStackShard defaultShard;
+
+	public OpenStackShards(OpenStackShard defaultShard, OpenStackDeployerProperties properties,
+			OpenStackMetrics metrics) {
+		OpenStackMetrics shardMetrics = metrics != null ? metrics : OpenStackMetrics.NONE;
+		this.defaultShard = defaultShard;
+		this.shards.put(defaultShard.getName(), defaultShard);
+		for (Map.Entry<String, Shard> entry : properties.getShards().entrySet()) {
+			String name = entry.getKey();
+			if (name.isEmpty() || name.indexOf(SEPARATOR) >= 0 || shards.containsKey(name)) {
+				throw new IllegalArgumentException(String.format("Invalid shard name '%s'", name));
+			}
+			shards.put(name, OpenStackShard.create(name, properties, entry.getValue(), shardMetrics));
+		}
+		if (isSharded()) {
+			for (OpenStackShard shard : shards.values()) {
+				shard.trackBuildTimes(shardMetrics);
+			}
+			logger.info(String.format("Spreading deployments over shards %s", shards.keySet()));
+		}
+	}
+
+	/**
+	 * Return whether there is more than the default shard.
+	 */
+	public boolean isSharded() {
+		return shards.size() > 1;
+	}
+
+	public List<OpenStackShard> getShards() {
+		return Collections.unmodifiableList(new ArrayList<>(shards.values()));
+	}
+
+	public OpenStackShard getDefaultShard() {
+		return defaultShard;
+	}
+
+	/**
+	 * Return the shard the given deployment id belongs to, or {@code null} if the id
+	 * names a shard that does not exist.
+	 */
+	public OpenStackShard route(String id) {
+		int separator = id.indexOf(SEPARATOR);
+		return separator < 0 ? defaultShard : shards.get(id.substring(0, separator));
+	}
+
+	/**
+	 * Return the id the given deployment id has within its shard.
+	 */
+	public static String localId(String id) {
+		return id.substring(id.indexOf(SEPARATOR) + 1);
+	}
+
+	/**
+	 * Return the deployment id of the given id within the given shard.
+	 */
+	public String qualify(OpenStackShard shard, String localId) {
+		return shard == defaultShard ? localId : shard.getName() + SEPARATOR + localId;
+	}
+
+	/**
+	 * Choose the shard to deploy the given number of servers on, and count them against
+	 * it until they show up in its inventory.
+	 *
+	 * @throws IllegalStateException if no shard has room for the servers
+	 */
+	public synchronized Placement place(int instances) {
+		List<OpenStackShard> candidates = new ArrayList<>();
+		List<Integer> loads = new ArrayList<>();
+		double totalBuildTime = 0;
+		int buildTimes = 0;
+		for (OpenStackShard shard : shards.values()) {
+			int weight = shard.getProperties().getShardWeight();
+			if (weight <= 0) {
+				continue;
+			}
+			int deployed = shard.getInstanceCount();
+			int pending = shard.getPendingCount();
+			if (shard.getHeadroom(deployed, pending) < instances) {
+				logger.debug(String.format("Shard %s has no room for %d more servers", shard, instances));
+				continue;
+			}
+			candidates.add(shard);
+			loads.add(deployed + pending + instances);
+			double buildTime = shard.getBuildTime();
+			if (!Double.isNaN(buildTime)) {
+				totalBuildTime += buildTime;
+				buildTimes++;
+			}
+		}
+		if (candidates.isEmpty()) {
+			throw new IllegalStateException(String.format("No shard has room for %d more servers", instances));
+		}
+		double averageBuildTime = buildTimes > 0 ? totalBuildTime / buildTimes : 0;
+		OpenStackShard best = null;
+		double bestLoad = Double.MAX_VALUE;
+		for (int i = 0; i < candidates.size(); i++) {
+			OpenStackShard shard = candidates.get(i);
+			double load = (double) loads.get(i) / shard.getProperties().getShardWeight();
+			double buildTime = shard.getBuildTime();
+			if (!Double.isNaN(buildTime) && averageBuildTime > 0) {
+				load *= buildTime / averageBuildTime;
+			}
+			if (load < bestLoad) {
+				best = shard;
+				bestLoad = load;
+			}
+		}
+		logger.debug(String.format("Placing %d servers on shard %s", instances, best));
+		return best.reserve(instances);
+	}
+
+	@Override
+	public void destroy() {
+		for (OpenStackShard shard : shards.values()) {
+			shard.destroy();
+		}
+	}
+
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.cloud.deployer.spi.app.AppStatus;
+import org.springframework.cloud.deployer.spi.app.DeploymentState;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+/**
+ * Waits for apps to reach a terminal {@link DeploymentState}. Every app is polled on
+ * its own adaptive schedule: it starts at
+ * {@link OpenStackDeployerProperties#getWaitInitialInterval()}, backs off with jitter
+ * up to {@link OpenStackDeployerProperties#getWaitMaxInterval()} while nothing changes,
+ * and drops back to the initial interval whenever the app's state changes. All apps
+ * that are due at the same time are served by a single refresh of the server inventory.
+ */
+public class OpenStackStatusWaiter implements DisposableBean {
+
+	private static final Log logger = LogFactory.getLog(OpenStackStatusWaiter.class);
+
+	static final double BACKOFF_MULTIPLIER = 1.5;
+
+	static final double JITTER = 0.2;
+
+	private final OpenStackServerInventory inventory;
+
+	private final OpenStackDeployerProperties properties;
+
+	private final Function<String, AppStatus> statusFunction;
+
+	private final ScheduledExecutorService scheduler;
+
+	private final List<Wait> waits = new ArrayList<>();
+
+	private ScheduledFuture<?> nextTick;
+
+	private long nextTickAt;
+
+	public OpenStackStatusWaiter(OpenStackServerInventory inventory, OpenStackDeployerProperties properties,
+			Function<String, AppStatus> statusFunction) {
+		this.inventory = inventory;
+		this.properties = properties;
+		this.statusFunction = statusFunction;
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("openstack-waiter-");
+		threadFactory.setDaemon(true);
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+	}
+
+	/**
+	 * Return a future completed with the app's status once it is deployed, failed or in
+	 * error, or completed exceptionally with a {@link TimeoutException} once the timeout
+	 * has passed.
+	 */
+	public CompletableFuture<AppStatus> await(String appId, long timeout) {
+		Wait wait = new Wait(appId, System.currentTimeMillis() + timeout, properties.getWaitInitialInterval());
+		synchronized (waits) {
+			waits.add(wait);
+			reschedule();
+		}
+		return wait.future;
+	}
+
+	@Override
+	public void destroy() {
+		scheduler.shutdownNow();
+	}
+
+	private void tick() {
+		long now = System.currentTimeMillis();
+		List<Wait> due = new ArrayList<>();
+		synchronized (waits) {
+			nextTick = null;
+			for (Wait wait : waits) {
+				if (wait.nextPollAt <= now || wait.deadline <= now) {
+					due.add(wait);
+				}
+			}
+		}
+		if (!due.isEmpty()) {
+			poll(due);
+		}
+		synchronized (waits) {
+			waits.removeIf(wait -> wait.future.isDone());
+			reschedule();
+		}
+	}
+
+	private void poll(List<Wait> due) {
+		try {
+			inventory.refresh();
+		}
+		catch (RuntimeException e) {
+			logger.warn(String.format("Failed to refresh servers while waiting for %d apps: %s", due.size(),
+					e.getMessage()));
+		}
+		long now = System.currentTimeMillis();
+		for (Wait wait : due) {
+			try {
+				AppStatus status = statusFunction.apply(wait.appId);
+				DeploymentState state = status.getState();
+				if (state == DeploymentState.deployed || state == DeploymentState.failed
+						|| state == DeploymentState.error) {
+					wait.future.complete(status);
+				}
+				else if (now >= wait.deadline) {
+					wait.future.completeExceptionally(new TimeoutException(String.format(
+							"App '%s' did not reach a terminal state in time, last state was %s", wait.appId, state)));
+				}
+				else {
+					wait.backOff(state, now);
+				}
+			}
+			catch (RuntimeException e) {
+				wait.future.completeExceptionally(e);
+			}
+		}
+	}
+
+	private void reschedule() {
+		if (waits.isEmpty()) {
+			return;
+		}
+		long earliest = Long.MAX_VALUE;
+		for (Wait wait : waits) {
+			earliest = Math.min(earliest, Math.min(wait.nextPollAt, wait.deadline));
+		}
+		if (nextTick != null) {
+			if (nextTickAt <= earliest) {
+				return;
+			}
+			nextTick.cancel(false);
+		}
+		nextTickAt = earliest;
+		nextTick = scheduler.schedule(this::tick, Math.max(0, earliest - System.currentTimeMillis()),
+				TimeUnit.MILLISECONDS);
+	}
+
+	private class Wait {
+
+		private final String appId;
+
+		private final long deadline;
+
+		private final CompletableFuture<AppStatus> future = new CompletableFuture<>();
+
+		private long interval;
+
+		private long nextPollAt;
+
+		private DeploymentState lastState;
+
+		Wait(String appId, long deadline, long interval) {
+			this.appId = appId;
+			this.deadline = deadline;
+			this.interval = interval;
+			this.nextPollAt = System.currentTimeMillis() + interval;
+		}
+
+		void backOff(DeploymentState state, long now) {
+			interval = nextInterval(interval, state != lastState, properties.getWaitInitialInterval(),
+					properties.getWaitMaxInterval());
+			lastState = state;
+			nextPollAt = now + jitter(interval);
+		}
+	}
+
+	/**
+	 * Return the interval to poll an app at next, given the interval it was polled at and
+	 * whether its state changed since.
+	 */
+	static long nextInterval(long interval, boolean changed, long initialInterval, long maxInterval) {
+		return changed ? initialInterval : Math.min((long) (interval * BACKOFF_MULTIPLIER), maxInterval);
+	}
+
+	/**
+	 * Return the given interval shifted randomly by up to {@link #JITTER} of it either
+	 * way.
+	 */
+	static long jitter(long interval) {
+		return (long) (interval * (1 + ThreadLocalRandom.current().nextDouble(-JITTER, JITTER)));
+	}
+
+}
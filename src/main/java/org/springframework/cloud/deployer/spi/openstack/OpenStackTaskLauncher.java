@@ -16,43 +16,97 @@
 
 package org.springframework.cloud.deployer.spi.openstack;
 
-import com.google.common.collect.ImmutableMap;
-import org.hashids.Hashids;
 import org.openstack4j.api.OSClient;
-import org.openstack4j.model.common.ActionResponse;
 import org.openstack4j.model.compute.Server;
 import org.openstack4j.model.compute.ServerCreate;
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cloud.deployer.spi.core.AppDeploymentRequest;
 import org.springframework.cloud.deployer.spi.core.RuntimeEnvironmentInfo;
+import org.springframework.cloud.deployer.spi.openstack.OpenStackLifecycleEngine.Operation;
 import org.springframework.cloud.deployer.spi.task.LaunchState;
 import org.springframework.cloud.deployer.spi.task.TaskLauncher;
 import org.springframework.cloud.deployer.spi.task.TaskStatus;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
 
 import static org.openstack4j.api.Builders.server;
-import static org.openstack4j.model.compute.Action.SUSPEND;
 import static org.openstack4j.model.compute.Server.Status.*;
+import static org.springframework.cloud.deployer.spi.openstack.OpenStackRequestScheduler.OperationClass.BOOT;
 
 /**
  * A task launcher that targets OpenStack.
  */
-public class OpenStackTaskLauncher extends AbstractOpenStackDeployer implements TaskLauncher {
+public class OpenStackTaskLauncher extends AbstractOpenStackDeployer implements TaskLauncher, DisposableBean {
+
+	private final ExecutorService destroyExecutor;
+
+	private OpenStackWarmPool warmPool;
+
+	private TaskIdGenerator taskIdGenerator = new DefaultTaskIdGenerator();
 
-	@Autowired
 	public OpenStackTaskLauncher(OpenStackDeployerProperties properties, OSClient client) {
+		this(properties, new OpenStackSessionManager(properties, client));
+		own(registry, deletionTracker, inventory, sessionManager);
+	}
+
+	private OpenStackTaskLauncher(OpenStackDeployerProperties properties, OpenStackSessionManager sessionManager) {
+		this(properties, sessionManager, new OpenStackServerInventory(sessionManager, properties));
+	}
+
+	private OpenStackTaskLauncher(OpenStackDeployerProperties properties, OpenStackSessionManager sessionManager,
+			OpenStackServerInventory inventory) {
+		this(properties, sessionManager, inventory, new OpenStackResourceResolver(sessionManager, properties),
+				new OpenStackDeletionTracker(inventory, properties),
+				createRegistry(sessionManager, properties));
+	}
+
+	@Autowired
+	public OpenStackTaskLauncher(OpenStackDeployerProperties properties, OpenStackSessionManager sessionManager,
+			OpenStackServerInventory inventory, OpenStackResourceResolver resourceResolver,
+			OpenStackDeletionTracker deletionTracker, OpenStackDeploymentRegistry registry) {
 		this.properties = properties;
-		this.client = client;
+		this.sessionManager = sessionManager;
+		this.inventory = inventory;
+		this.resourceResolver = resourceResolver;
+		this.deletionTracker = deletionTracker;
+		this.registry = registry;
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("openstack-destroy-");
+		threadFactory.setDaemon(true);
+		this.destroyExecutor = Executors.newFixedThreadPool(Math.max(1, properties.getDestroyParallelism()),
+				threadFactory);
+	}
+
+	/**
+	 * Set the pool of pre-booted servers to claim from before booting a new one.
+	 */
+	public void setWarmPool(OpenStackWarmPool warmPool) {
+		this.warmPool = warmPool;
+	}
+
+	/**
+	 * Set the generator of the ids of launched tasks.
+	 */
+	public void setTaskIdGenerator(TaskIdGenerator taskIdGenerator) {
+		this.taskIdGenerator = taskIdGenerator;
 	}
 
 	@Override
 	public String launch(AppDeploymentRequest request) {
 		String appId = createDeploymentId(request);
+		String taskName = request.getDefinition().getName();
+		long start = System.nanoTime();
 		TaskStatus status = status(appId);
+		metrics.recordPhase(OpenStackMetrics.PHASE_STATUS, taskName, null, System.nanoTime() - start);
 		if (!status.getState().equals(LaunchState.unknown)) {
 			throw new IllegalStateException("Task " + appId + " already exists with a state of " + status);
 		}
@@ -60,7 +114,16 @@ public class OpenStackTaskLauncher extends AbstractOpenStackDeployer implements
 
 		logger.debug(String.format("Launching pod for task: %s", appId));
 		try {
-			createTask(appId, request, idMap);
+			if (lifecycleEngine != null) {
+				lifecycleEngine.submit(appId, Operation.DEPLOY, () -> {
+					createTask(appId, request, idMap);
+					inventory.invalidate();
+				});
+			}
+			else {
+				createTask(appId, request, idMap);
+				inventory.invalidate();
+			}
 			return appId;
 		} catch (RuntimeException e) {
 			logger.error(e.getMessage(), e);
@@ -77,14 +140,62 @@ public class OpenStackTaskLauncher extends AbstractOpenStackDeployer implements
 	@Override
 	public void cleanup(String id) {
 		logger.debug(String.format("Deleting pod for task: %s", id));
-		deletePod(id);
+		if (lifecycleEngine != null) {
+			lifecycleEngine.submit(id, Operation.UNDEPLOY, () -> {
+				deletePod(id);
+				inventory.invalidate();
+			});
+		}
+		else {
+			deletePod(id);
+			inventory.invalidate();
+		}
 	}
 
+	/**
+	 * Delete all servers launched for the given task name. The deletions are spread over
+	 * {@link OpenStackDeployerProperties#getDestroyParallelism()} workers and a failure to
+	 * delete one server does not stop the others; failures are reported together once
+	 * all deletions have completed.
+	 */
 	@Override
 	public void destroy(String appName) {
-		for (String id : getPodIdsForTaskName(appName)) {
-			cleanup(id);
+		Map<String, Future<?>> deletions = new LinkedHashMap<>();
+		// deletions start while later pages are still being listed
+		getServersForTaskName(appName).forEach(server -> deletions.put(server.getId(),
+				destroyExecutor.submit(() -> deleteServer(server))));
+		Map<String, Throwable> failures = new LinkedHashMap<>();
+		for (Map.Entry<String, Future<?>> deletion : deletions.entrySet()) {
+			try {
+				deletion.getValue().get();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				failures.put(deletion.getKey(), e);
+				break;
+			}
+			catch (ExecutionException e) {
+				failures.put(deletion.getKey(), e.getCause());
+			}
 		}
+		inventory.invalidate();
+		logger.info(String.format("Destroyed task %s: %d of %d servers deleted", appName,
+				deletions.size() - failures.size(), deletions.size()));
+		if (!failures.isEmpty()) {
+			IllegalStateException exception = new IllegalStateException(String.format(
+					"Failed to delete %d of %d servers for task %s: %s", failures.size(), deletions.size(), appName,
+					failures.keySet()));
+			for (Throwable failure : failures.values()) {
+				exception.addSuppressed(failure);
+			}
+			throw exception;
+		}
+	}
+
+	@Override
+	public void destroy() {
+		destroyExecutor.shutdownNow();
+		destroyOwnedComponents();
 	}
 
 	@Override
@@ -101,58 +212,75 @@ public class OpenStackTaskLauncher extends AbstractOpenStackDeployer implements
 	}
 
 	protected String createDeploymentId(AppDeploymentRequest request) {
-		String name = request.getDefinition().getName();
-		Hashids hashids = new Hashids(name, 0, "abcdefghijklmnopqrstuvwxyz1234567890");
-		String hashid = hashids.encode(System.currentTimeMillis());
-		String deploymentId = name + "-" + hashid;
-		// OpenStack does not allow . in the name and does not allow uppercase in the name
-		return deploymentId.replace('.', '-').toLowerCase();
+		return taskIdGenerator.generate(request.getDefinition().getName());
 	}
 
 	private void createTask(String appId, AppDeploymentRequest request, Map<String, String> idMap) {
+		long start = System.nanoTime();
+		try {
+			bootTask(appId, request, idMap);
+		}
+		finally {
+			metrics.recordPhase(OpenStackMetrics.PHASE_BOOT, request.getDefinition().getName(), null,
+					System.nanoTime() - start);
+		}
+	}
+
+	private void bootTask(String appId, AppDeploymentRequest request, Map<String, String> idMap) {
 		Map<String, String> labelMap = new HashMap<>();
 		labelMap.put("task-name", request.getDefinition().getName());
 		labelMap.put(SPRING_MARKER_KEY, SPRING_MARKER_VALUE);
 
+		String flavorId = resourceResolver.resolveFlavor(request);
+		String imageId = resolveBootImage(request, flavorId);
+		if (warmPool != null) {
+			Map<String, String> metadata = new HashMap<>(idMap);
+			metadata.putAll(labelMap);
+			String serverId = warmPool.claim(flavorId, imageId, appId, metadata);
+			if (serverId != null) {
+				registry.put(appId, appId, serverId);
+				return;
+			}
+		}
+
 		// Create a Server Model Object
 		ServerCreate sc = server()
 				.name(appId)
-				.flavor("flavorId")
-				.image("imageId")
+				.flavor(flavorId)
+				.image(imageId)
 				.addMetadata(idMap)
 				.addMetadata(labelMap)
 				.build();
 
 		// Boot the Server
-		Server server = client
-				.compute()
-				.servers()
-				.boot(sc);
+		Server server = sessionManager.execute(BOOT, client -> client.compute().servers().boot(sc));
+		registry.put(appId, appId, server.getId());
 
 	}
 
-	private List<String> getPodIdsForTaskName(String taskName) {
-		List<String> ids = new ArrayList<>();
-		List<? extends Server> servers = client.compute().servers().list(ImmutableMap.of("task-name", taskName));
-		for (Server server : servers) {
-			ids.add(server.getName());
+	/**
+	 * Stream the servers launched for the given task name. Nova does not filter on
+	 * metadata, so the servers are matched as the pages arrive.
+	 */
+	private Stream<Server> getServersForTaskName(String taskName) {
+		return OpenStackServerPages.stream(sessionManager, Collections.emptyMap(), properties.getListPageSize())
+				.filter(server -> server.getMetadata() != null
+						&& taskName.equals(server.getMetadata().get("task-name")));
+	}
+
+	private void deleteServer(Server server) {
+		teardownServer(server.getId());
+		String appId = server.getMetadata().get(SPRING_APP_KEY);
+		if (appId != null) {
+			registry.remove(appId, server.getId());
 		}
-		return ids;
 	}
 
 
 	private void deletePod(String appId) {
 		try {
-			// Suspend Server
-			logger.debug(String.format("Suspending service: %s", appId));
-			ActionResponse suspensionResponse = client.compute().servers().action(appId, SUSPEND);
-			logger.debug(String.format("Suspension status: %s", suspensionResponse));
-
-			// Delete Server
 			logger.debug(String.format("Deleting service: %s", appId));
-			ActionResponse deletionResponse = client.compute().servers().delete(appId);
-			logger.debug(String.format("Deletion status: %s", deletionResponse));
-
+			teardownApp(appId);
 		} catch (RuntimeException e) {
 			logger.error(e.getMessage(), e);
 			throw e;
@@ -160,8 +288,15 @@ public class OpenStackTaskLauncher extends AbstractOpenStackDeployer implements
 	}
 
 	TaskStatus buildTaskStatus(String id) {
-		Server server = client.compute().servers().get(id);
+		// a task's deployment id is its launch id
+		Server server = inventory.getServerForDeployment(id);
 		if (server == null) {
+			if (lifecycleEngine != null && lifecycleEngine.getInFlight(id) == Operation.DEPLOY) {
+				return new TaskStatus(id, LaunchState.launching, new HashMap<>());
+			}
+			if (lifecycleEngine != null && lifecycleEngine.getFailure(id) != null) {
+				return new TaskStatus(id, LaunchState.failed, new HashMap<>());
+			}
 			return new TaskStatus(id, LaunchState.unknown, new HashMap<>());
 		}
 		Server.Status serverStatus = server.getStatus();
@@ -169,6 +304,18 @@ public class OpenStackTaskLauncher extends AbstractOpenStackDeployer implements
 			return new TaskStatus(id, LaunchState.unknown, new HashMap<>());
 		}
 		else {
+			String taskState = server.getMetadata() != null
+					? server.getMetadata().get(OpenStackWarmPool.TASK_STATE_KEY) : null;
+			if (taskState != null && serverStatus != ERROR) {
+				// claimed from the warm pool: the server was active before the task started
+				if (!OpenStackWarmPool.TASK_LAUNCHING.equals(taskState)) {
+					return new TaskStatus(id, mapTaskState(taskState), new HashMap<>());
+				}
+				if (serverStatus == REBOOT || serverStatus == HARD_REBOOT) {
+					// the reboot that starts the task stands in for the build
+					return new TaskStatus(id, LaunchState.launching, new HashMap<>());
+				}
+			}
 			if (serverStatus == BUILD) {
 				return new TaskStatus(id, LaunchState.launching, new HashMap<>());
 			}
@@ -184,4 +331,17 @@ public class OpenStackTaskLauncher extends AbstractOpenStackDeployer implements
 		}
 	}
 
+	private LaunchState mapTaskState(String taskState) {
+		switch (taskState) {
+			case "running":
+				return LaunchState.running;
+			case "complete":
+				return LaunchState.complete;
+			case "failed":
+				return LaunchState.failed;
+			default:
+				return LaunchState.launching;
+		}
+	}
+
 }
@@ -0,0 +1,328 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.openstack4j.model.common.ActionResponse;
+import org.openstack4j.model.compute.RebootType;
+import org.openstack4j.model.compute.Server;
+import org.openstack4j.model.compute.ServerCreate;
+import org.openstack4j.model.compute.ServerUpdateOptions;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.openstack4j.api.Builders.server;
+import static org.springframework.cloud.deployer.spi.openstack.AbstractOpenStackDeployer.SPRING_MARKER_KEY;
+import static org.springframework.cloud.deployer.spi.openstack.OpenStackRequestScheduler.OperationClass.ACTION;
+import static org.springframework.cloud.deployer.spi.openstack.OpenStackRequestScheduler.OperationClass.BOOT;
+import static org.springframework.cloud.deployer.spi.openstack.OpenStackRequestScheduler.OperationClass.DELETE;
+
+/**
+ * A pool of idle, already booted servers that task launches can claim instead of
+ * waiting for a new server to build. The pool keeps
+ * {@link OpenStackDeployerProperties#getWarmPoolSize()} servers ready for every
+ * flavor/image combination that was launched within the last
+ * {@link OpenStackDeployerProperties#getWarmPoolIdleTtl()}, replenishing it in the
+ * background. Idle servers older than that TTL are deleted.
+ * <p>
+ * Idle servers are tagged with {@link #WARM_MARKER_VALUE} instead of the Spring app
+ * marker, so they never show up in app or task status. Claiming a server hands it over
+ * to the task in three steps:
+ * <ol>
+ * <li>its marker is replaced with the launch metadata, with {@link #TASK_STATE_KEY} set
+ * to {@code claimed}, and it is renamed;</li>
+ * <li>it is rebooted, so that its per-boot configuration picks up the task from the new
+ * metadata, as a freshly booted server does;</li>
+ * <li>{@link #TASK_STATE_KEY} is set to {@code launching}.</li>
+ * </ol>
+ * A claimed server is reported {@code launching} until then, and from then on by its
+ * server status like a freshly booted server, the reboot standing in for the build. A
+ * task that knows better can report its progress by setting {@link #TASK_STATE_KEY} to
+ * {@code running}, {@code complete} or {@code failed}.
+ */
+public class OpenStackWarmPool implements DisposableBean {
+
+	static final String WARM_MARKER_VALUE = "spring-warm";
+
+	static final String WARM_FLAVOR_KEY = "spring-warm-flavor";
+
+	static final String WARM_IMAGE_KEY = "spring-warm-image";
+
+	static final String WARM_SINCE_KEY = "spring-warm-since";
+
+	/**
+	 * Metadata key through which a task on a claimed server reports its state.
+	 */
+	static final String TASK_STATE_KEY = "spring-task-state";
+
+	/**
+	 * Task state of a claimed server that has not been handed over to its task yet.
+	 */
+	static final String TASK_CLAIMED = "claimed";
+
+	/**
+	 * Task state of a claimed server that has been rebooted to start its task.
+	 */
+	static final String TASK_LAUNCHING = "launching";
+
+	private static final Log logger = LogFactory.getLog(OpenStackWarmPool.class);
+
+	private final OpenStackSessionManager sessionManager;
+
+	private final OpenStackDeployerProperties properties;
+
+	private final ConcurrentMap<PoolKey, ConcurrentLinkedDeque<String>> idle = new ConcurrentHashMap<>();
+
+	private final ConcurrentMap<PoolKey, Long> lastDemand = new ConcurrentHashMap<>();
+
+	/**
+	 * Servers taken from the pool whose new metadata has not been seen by a listing yet,
+	 * guarded by {@link #idle}.
+	 */
+	private final Set<String> claimed = new HashSet<>();
+
+	private final ScheduledExecutorService replenisher;
+
+	public OpenStackWarmPool(OpenStackSessionManager sessionManager, OpenStackDeployerProperties properties) {
+		this.sessionManager = sessionManager;
+		this.properties = properties;
+		if (properties.getWarmPoolSize() <= 0) {
+			logger.debug("Warm pool disabled");
+			this.replenisher = null;
+			return;
+		}
+		CustomizableThreadFactory threadFactory = new CustomizableThreadFactory("openstack-warm-pool-");
+		threadFactory.setDaemon(true);
+		this.replenisher = Executors.newSingleThreadScheduledExecutor(threadFactory);
+		long interval = properties.getWarmPoolReplenishInterval();
+		this.replenisher.scheduleWithFixedDelay(() -> {
+			try {
+				replenish();
+			}
+			catch (RuntimeException e) {
+				logger.warn(String.format("Failed to replenish warm pool: %s", e.getMessage()));
+			}
+		}, 0, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Claim an idle server of the given flavor and image, renaming it and tagging it with
+	 * the given metadata.
+	 *
+	 * @return the claimed server id, or {@code null} if no idle server was available
+	 */
+	public String claim(String flavorId, String imageId, String name, Map<String, String> metadata) {
+		if (properties.getWarmPoolSize() <= 0) {
+			return null;
+		}
+		PoolKey key = new PoolKey(flavorId, imageId);
+		lastDemand.put(key, System.currentTimeMillis());
+		String serverId;
+		synchronized (idle) {
+			ConcurrentLinkedDeque<String> servers = idle.get(key);
+			serverId = servers != null ? servers.pollFirst() : null;
+			if (serverId == null) {
+				logger.debug(String.format("No warm server available for %s", key));
+				return null;
+			}
+			claimed.add(serverId);
+		}
+		Map<String, String> claim = new HashMap<>(metadata);
+		claim.put(TASK_STATE_KEY, TASK_CLAIMED);
+		try {
+			sessionManager.execute(ACTION, client -> client.compute().servers().updateMetadata(serverId, claim));
+		}
+		catch (RuntimeException e) {
+			logger.warn(String.format("Failed to claim warm server %s: %s", serverId, e.getMessage()));
+			synchronized (idle) {
+				claimed.remove(serverId);
+			}
+			return null;
+		}
+		try {
+			sessionManager.execute(ACTION,
+					client -> client.compute().servers().update(serverId, ServerUpdateOptions.create().name(name)));
+		}
+		catch (RuntimeException e) {
+			// the server is the task's by its metadata, its name is only for people
+			logger.warn(String.format("Failed to rename claimed server %s to %s: %s", serverId, name,
+					e.getMessage()));
+		}
+		try {
+			ActionResponse response = sessionManager.execute(ACTION,
+					client -> client.compute().servers().reboot(serverId, RebootType.SOFT));
+			if (!response.isSuccess()) {
+				throw new IllegalStateException(response.getFault());
+			}
+			sessionManager.execute(ACTION, client -> client.compute().servers().updateMetadata(serverId,
+					Collections.singletonMap(TASK_STATE_KEY, TASK_LAUNCHING)));
+		}
+		catch (RuntimeException e) {
+			// the task may never start on the server, so it is of no use to anyone
+			logger.warn(String.format("Failed to hand warm server %s over to %s: %s", serverId, name,
+					e.getMessage()));
+			evict(serverId);
+			return null;
+		}
+		logger.debug(String.format("Claimed warm server %s for %s", serverId, name));
+		return serverId;
+	}
+
+	@Override
+	public void destroy() {
+		if (replenisher != null) {
+			replenisher.shutdownNow();
+		}
+	}
+
+	/**
+	 * Reconcile the pool with Nova: evict expired idle servers and boot new ones for every
+	 * flavor/image combination that is still in demand. Servers that have been claimed
+	 * are left out, even while the listing still shows them idle.
+	 */
+	synchronized void replenish() {
+		Map<String, String> selector = new HashMap<>();
+		selector.put(SPRING_MARKER_KEY, WARM_MARKER_VALUE);
+		long now = System.currentTimeMillis();
+		Map<PoolKey, List<String>> ready = new HashMap<>();
+		Map<PoolKey, Integer> available = new HashMap<>();
+		Set<String> warm = new HashSet<>();
+		Set<String> claimedBefore;
+		synchronized (idle) {
+			claimedBefore = new HashSet<>(claimed);
+		}
+		Iterator<Server> servers = OpenStackServerPages.stream(sessionManager, selector, properties.getListPageSize())
+				.iterator();
+		while (servers.hasNext()) {
+			Server server = servers.next();
+			Map<String, String> metadata = server.getMetadata();
+			if (metadata == null || !WARM_MARKER_VALUE.equals(metadata.get(SPRING_MARKER_KEY))) {
+				continue;
+			}
+			warm.add(server.getId());
+			if (claimedBefore.contains(server.getId())) {
+				continue;
+			}
+			PoolKey key = new PoolKey(metadata.get(WARM_FLAVOR_KEY), metadata.get(WARM_IMAGE_KEY));
+			long since = Long.parseLong(metadata.getOrDefault(WARM_SINCE_KEY, "0"));
+			if (now - since > properties.getWarmPoolIdleTtl() || server.getStatus() == Server.Status.ERROR) {
+				evict(server.getId());
+				continue;
+			}
+			available.merge(key, 1, Integer::sum);
+			if (server.getStatus() == Server.Status.ACTIVE) {
+				ready.computeIfAbsent(key, k -> new ArrayList<>()).add(server.getId());
+			}
+		}
+		synchronized (idle) {
+			for (Map.Entry<PoolKey, List<String>> entry : ready.entrySet()) {
+				List<String> unclaimed = new ArrayList<>(entry.getValue());
+				// claimed while we were listing
+				unclaimed.removeAll(claimed);
+				idle.put(entry.getKey(), new ConcurrentLinkedDeque<>(unclaimed));
+			}
+			idle.keySet().retainAll(ready.keySet());
+			// a claimed server is forgotten once a listing shows it is no longer idle
+			claimed.removeIf(serverId -> claimedBefore.contains(serverId) && !warm.contains(serverId));
+		}
+
+		lastDemand.entrySet().removeIf(entry -> now - entry.getValue() > properties.getWarmPoolIdleTtl());
+		for (PoolKey key : lastDemand.keySet()) {
+			int missing = properties.getWarmPoolSize() - available.getOrDefault(key, 0);
+			for (int i = 0; i < missing; i++) {
+				boot(key, now);
+			}
+		}
+	}
+
+	private void boot(PoolKey key, long now) {
+		ServerCreate sc = server()
+				.name("warm-" + UUID.randomUUID().toString().substring(0, 8))
+				.flavor(key.flavorId)
+				.image(key.imageId)
+				.addMetadataItem(SPRING_MARKER_KEY, WARM_MARKER_VALUE)
+				.addMetadataItem(WARM_FLAVOR_KEY, key.flavorId)
+				.addMetadataItem(WARM_IMAGE_KEY, key.imageId)
+				.addMetadataItem(WARM_SINCE_KEY, String.valueOf(now))
+				.build();
+		Server server = sessionManager.execute(BOOT, client -> client.compute().servers().boot(sc));
+		logger.debug(String.format("Booted warm server %s for %s", server.getId(), key));
+	}
+
+	private void evict(String serverId) {
+		logger.debug(String.format("Evicting warm server %s", serverId));
+		try {
+			sessionManager.execute(DELETE, client -> client.compute().servers().delete(serverId));
+		}
+		catch (RuntimeException e) {
+			logger.warn(String.format("Failed to evict warm server %s: %s", serverId, e.getMessage()));
+		}
+	}
+
+	private static class PoolKey {
+
+		private final String flavorId;
+
+		private final String imageId;
+
+		PoolKey(String flavorId, String imageId) {
+			this.flavorId = flavorId;
+			this.imageId = imageId;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (this == o) {
+				return true;
+			}
+			if (!(o instanceof PoolKey)) {
+				return false;
+			}
+			PoolKey other = (PoolKey) o;
+			return Objects.equals(flavorId, other.flavorId) && Objects.equals(imageId, other.imageId);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(flavorId, imageId);
+		}
+
+		@Override
+		public String toString() {
+			return flavorId + "/" + imageId;
+		}
+	}
+
+}
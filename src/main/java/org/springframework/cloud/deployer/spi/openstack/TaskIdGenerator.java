@@ -0,0 +1,33 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+/**
+ * Generates the ids of launched tasks. Ids become server names, so they must be unique
+ * across launches, lowercase and free of dots.
+ */
+public interface TaskIdGenerator {
+
+	/**
+	 * Generate a new id for a launch of the given task.
+	 *
+	 * @param taskName the name of the task being launched
+	 * @return a unique id that is a valid server name
+	 */
+	String generate(String taskName);
+
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Checks that the {@link DefaultTaskIdGenerator} generates unique, ordered ids that are
+ * valid server names.
+ */
+public class DefaultTaskIdGeneratorTests {
+
+	private static final int THREADS = 8;
+
+	private static final int IDS_PER_THREAD = 5000;
+
+	@Test
+	public void idsAreUniqueUnderConcurrentLaunches() throws Exception {
+		TaskIdGenerator generator = new DefaultTaskIdGenerator();
+		Set<String> ids = ConcurrentHashMap.newKeySet();
+		CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int i = 0; i < THREADS; i++) {
+				futures.add(executor.submit(() -> {
+					start.await();
+					for (int j = 0; j < IDS_PER_THREAD; j++) {
+						ids.add(generator.generate("task"));
+					}
+					return null;
+				}));
+			}
+			start.countDown();
+			for (Future<?> future : futures) {
+				future.get(30, TimeUnit.SECONDS);
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+
+		assertThat(ids.size(), is(THREADS * IDS_PER_THREAD));
+	}
+
+	@Test
+	public void idsIncreaseWhileTheClockStandsStill() {
+		DefaultTaskIdGenerator generator = new DefaultTaskIdGenerator(0, () -> 1500000000000L);
+
+		long previous = time(generator.generate("task"));
+		for (int i = 0; i < 2000; i++) {
+			long time = time(generator.generate("task"));
+			assertThat(time, greaterThan(previous));
+			previous = time;
+		}
+	}
+
+	@Test
+	public void idsIncreaseWhenTheClockGoesBackwards() {
+		AtomicLong clock = new AtomicLong(1500000000000L);
+		DefaultTaskIdGenerator generator = new DefaultTaskIdGenerator(0, clock::get);
+
+		long before = time(generator.generate("task"));
+		clock.addAndGet(-60000);
+
+		assertThat(time(generator.generate("task")), greaterThan(before));
+	}
+
+	@Test
+	public void nameIsSanitisedIntoTheIdPrefix() {
+		String id = new DefaultTaskIdGenerator(0).generate("My.Task.V2");
+
+		assertThat(id, startsWith("my-task-v2-"));
+		assertThat(id.matches("[a-z0-9-]+"), is(true));
+		assertThat(id.endsWith("0000"), is(true));
+	}
+
+	/**
+	 * Decode the time component of the given id, between the last dash and the four
+	 * character node component.
+	 */
+	private static long time(String id) {
+		return Long.parseLong(id.substring(id.lastIndexOf('-') + 1, id.length() - 4), 36);
+	}
+
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Checks that {@link MicrometerOpenStackMetrics} registers each phase timer once and
+ * only tags it with the app when asked to.
+ */
+public class MicrometerOpenStackMetricsTests {
+
+	@Test
+	public void phaseTimersAreSharedByAppsByDefault() {
+		MeterRegistry registry = new SimpleMeterRegistry();
+		OpenStackMetrics metrics = new MicrometerOpenStackMetrics(registry);
+
+		metrics.recordPhase(OpenStackMetrics.PHASE_BOOT, "app-1", null, 1000);
+		metrics.recordPhase(OpenStackMetrics.PHASE_BOOT, "app-2", null, 1000);
+
+		assertThat(registry.find(MicrometerOpenStackMetrics.PHASES).timers().size(), is(1));
+		Timer timer = registry.find(MicrometerOpenStackMetrics.PHASES).tags("phase", OpenStackMetrics.PHASE_BOOT,
+				"group", "none").timer();
+		assertThat(timer.count(), is(2L));
+		assertThat(timer.getId().getTag("app"), nullValue());
+	}
+
+	@Test
+	public void phaseTimersAreTaggedWithTheAppWhenEnabled() {
+		MeterRegistry registry = new SimpleMeterRegistry();
+		OpenStackMetrics metrics = new MicrometerOpenStackMetrics(registry, true);
+
+		metrics.recordPhase(OpenStackMetrics.PHASE_BOOT, "app-1", "group", 1000);
+		metrics.recordPhase(OpenStackMetrics.PHASE_BOOT, "app-1", "group", 1000);
+		metrics.recordPhase(OpenStackMetrics.PHASE_BOOT, "app-2", "group", 1000);
+
+		assertThat(registry.find(MicrometerOpenStackMetrics.PHASES).timers().size(), is(2));
+		assertThat(registry.find(MicrometerOpenStackMetrics.PHASES).tags("app", "app-1").timer().count(), is(2L));
+	}
+
+}
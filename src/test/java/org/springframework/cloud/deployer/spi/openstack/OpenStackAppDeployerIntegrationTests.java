@@ -56,6 +56,9 @@ public class OpenStackAppDeployerIntegrationTests extends AbstractAppDeployerInt
 	@Autowired
 	OSClient osClient;
 
+	@Autowired
+	OpenStackDeployerProperties properties;
+
 	@Override
 	protected AppDeployer provideAppDeployer() {
 		return appDeployer;
@@ -65,6 +68,9 @@ public class OpenStackAppDeployerIntegrationTests extends AbstractAppDeployerInt
 	public void testDeploymentWithGroupAndIndex() throws IOException {
 		log.info("Testing {}...", "DeploymentWithWithGroupAndIndex");
 		OpenStackDeployerProperties deployProperties = new OpenStackDeployerProperties();
+		// there is no built-in image to fall back to
+		deployProperties.setImage(properties.getImage());
+		deployProperties.setFlavor(properties.getFlavor());
 		OpenStackAppDeployer testAppDeployer = new OpenStackAppDeployer(deployProperties, osClient);
 
 		AppDefinition definition = new AppDefinition(randomName(), new HashMap<>());
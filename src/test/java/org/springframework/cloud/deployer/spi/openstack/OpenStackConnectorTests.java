@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.junit.Test;
+import org.openstack4j.core.transport.HttpExecutorService;
+import org.openstack4j.core.transport.internal.HttpExecutor;
+import org.springframework.util.ReflectionUtils;
+
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Properties;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Pins the openstack4j internals {@link OpenStackConnector} selects the connector
+ * through: the single {@link HttpExecutor} and the connector it loads into its
+ * {@code service} field on the first call. These are not part of the openstack4j API,
+ * so any upgrade of openstack4j has to keep these tests passing.
+ */
+public class OpenStackConnectorTests {
+
+	private static final String OPENSTACK4J_VERSION = "3.0.3";
+
+	@Test
+	public void openstack4jIsTheVersionTheConnectorSelectionIsWrittenFor() throws Exception {
+		Properties pom = new Properties();
+		try (InputStream in = HttpExecutor.class
+				.getResourceAsStream("/META-INF/maven/org.pacesys/openstack4j-core/pom.properties")) {
+			assertThat(in, is(notNullValue()));
+			pom.load(in);
+		}
+
+		assertThat(pom.getProperty("version"), is(OPENSTACK4J_VERSION));
+	}
+
+	@Test
+	public void executorIsSharedAndKeepsItsConnectorInAField() {
+		Field field = ReflectionUtils.findField(HttpExecutor.class, "service", HttpExecutorService.class);
+
+		assertThat(field, is(notNullValue()));
+		assertThat(Modifier.isStatic(field.getModifiers()), is(false));
+		assertThat(HttpExecutor.create(), sameInstance(HttpExecutor.create()));
+	}
+
+	@Test
+	public void executorNameLoadsTheConnectorIntoTheField() {
+		HttpExecutor executor = HttpExecutor.create();
+		String name = executor.getExecutorName();
+		Field field = ReflectionUtils.findField(HttpExecutor.class, "service", HttpExecutorService.class);
+		ReflectionUtils.makeAccessible(field);
+		HttpExecutorService service = (HttpExecutorService) ReflectionUtils.getField(field, executor);
+
+		assertThat(service, is(notNullValue()));
+		assertThat(service.getExecutorDisplayName(), is(name));
+	}
+
+	@Test
+	public void configuredConnectorIsTheOneTheExecutorCallsThrough() {
+		OpenStackConnector.configure(new OpenStackDeployerProperties());
+		Field field = ReflectionUtils.findField(HttpExecutor.class, "service", HttpExecutorService.class);
+		ReflectionUtils.makeAccessible(field);
+		HttpExecutorService service = (HttpExecutorService) ReflectionUtils.getField(field, HttpExecutor.create());
+
+		// the Apache HttpClient connector is the only one on the test classpath
+		assertThat(service.getClass().getName(), startsWith("org.openstack4j.connectors.httpclient."));
+		assertThat(HttpExecutor.create().getExecutorName(), is(service.getExecutorDisplayName()));
+	}
+
+}
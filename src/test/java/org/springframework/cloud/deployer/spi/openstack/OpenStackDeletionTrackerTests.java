@@ -0,0 +1,117 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openstack4j.model.compute.Server;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+import static org.openstack4j.api.Builders.server;
+import static org.springframework.cloud.deployer.spi.openstack.OpenStackRequestScheduler.OperationClass.BOOT;
+import static org.springframework.cloud.deployer.spi.openstack.OpenStackRequestScheduler.OperationClass.DELETE;
+
+/**
+ * Deletes servers of the {@link OpenStackStandIn} and checks that the
+ * {@link OpenStackDeletionTracker} confirms them from the inventory's listings rather
+ * than by polling each server.
+ */
+public class OpenStackDeletionTrackerTests {
+
+	private static final int SERVERS = 20;
+
+	private OpenStackStandIn standIn;
+
+	private OpenStackSessionManager sessionManager;
+
+	private OpenStackServerInventory inventory;
+
+	private OpenStackDeletionTracker deletionTracker;
+
+	@Before
+	public void setUp() throws Exception {
+		standIn = new OpenStackStandIn(0, 0);
+		OpenStackDeployerProperties properties = standIn.properties();
+		properties.setDeletionPollInterval(100);
+		properties.setInventoryRefreshInterval(0);
+		sessionManager = new OpenStackSessionManager(properties);
+		inventory = new OpenStackServerInventory(sessionManager, properties);
+		deletionTracker = new OpenStackDeletionTracker(inventory, properties);
+	}
+
+	@After
+	public void tearDown() {
+		deletionTracker.destroy();
+		inventory.destroy();
+		sessionManager.destroy();
+		standIn.close();
+	}
+
+	@Test
+	public void deletionsAreConfirmedFromTheInventory() throws Exception {
+		List<String> serverIds = new ArrayList<>();
+		for (int i = 0; i < SERVERS; i++) {
+			Server booted = sessionManager.execute(BOOT, client -> client.compute().servers().boot(server()
+					.name("tracked").flavor(OpenStackStandIn.FLAVOR_ID).image(OpenStackStandIn.IMAGE_ID)
+					.addMetadataItem(AbstractOpenStackDeployer.SPRING_APP_KEY, "tracked")
+					.addMetadataItem(AbstractOpenStackDeployer.SPRING_MARKER_KEY,
+							AbstractOpenStackDeployer.SPRING_MARKER_VALUE)
+					.build()));
+			serverIds.add(booted.getId());
+		}
+		assertThat(inventory.getServersForApp("tracked").size(), is(SERVERS));
+		long requests = standIn.getRequestCount();
+
+		for (String serverId : serverIds) {
+			sessionManager.execute(DELETE, client -> client.compute().servers().delete(serverId));
+			deletionTracker.track(serverId);
+		}
+		long deadline = System.currentTimeMillis() + 10000;
+		while (serverIds.stream().anyMatch(deletionTracker::isPending) && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+		}
+
+		assertThat(serverIds.stream().anyMatch(deletionTracker::isPending), is(false));
+		assertThat(inventory.getServersForApp("tracked").isEmpty(), is(true));
+		// the deletes themselves, and a listing or two for all of them
+		assertThat(standIn.getRequestCount() - requests, lessThan((long) SERVERS + 5));
+	}
+
+	@Test
+	public void deletionSeenBeforeItIsTrackedIsConfirmedAtOnce() {
+		Server booted = sessionManager.execute(BOOT, client -> client.compute().servers().boot(server()
+				.name("tracked").flavor(OpenStackStandIn.FLAVOR_ID).image(OpenStackStandIn.IMAGE_ID)
+				.addMetadataItem(AbstractOpenStackDeployer.SPRING_APP_KEY, "tracked")
+				.addMetadataItem(AbstractOpenStackDeployer.SPRING_MARKER_KEY,
+						AbstractOpenStackDeployer.SPRING_MARKER_VALUE)
+				.build()));
+		assertThat(inventory.getServersForApp("tracked").size(), is(1));
+
+		sessionManager.execute(DELETE, client -> client.compute().servers().delete(booted.getId()));
+		inventory.refresh();
+		deletionTracker.track(booted.getId());
+
+		assertThat(deletionTracker.isPending(booted.getId()), is(false));
+	}
+
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import org.junit.Rule;
+import org.junit.Test;
+import org.springframework.cloud.deployer.spi.app.AppStatus;
+import org.springframework.cloud.deployer.spi.app.DeploymentState;
+import org.springframework.cloud.deployer.spi.core.AppDeploymentRequest;
+
+import java.util.Map;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Deploys apps to the {@link OpenStackStandIn} and checks what is left of them when a
+ * boot fails, and that their statuses are reported alike one by one or in bulk.
+ */
+public class OpenStackDeployTests {
+
+	@Rule
+	public OpenStackStandInFixture fixture = new OpenStackStandInFixture();
+
+	@Test
+	public void failedBootRollsBackEveryServerOfTheApp() {
+		// boots overlap, so some are in flight when one fails and others not started yet
+		fixture.standIn().setLatency(50);
+		fixture.properties().setBootParallelism(3);
+		AppDeploymentRequest request = OpenStackStandInFixture.request("rolledback", 8, true);
+		fixture.standIn().failBoots("rolledback-4");
+
+		try {
+			fixture.deployer().deploy(request);
+			fail("Deploy should have failed on the boot of instance 4");
+		}
+		catch (RuntimeException e) {
+			// expected
+		}
+
+		assertThat(fixture.standIn().getServerCount(), is(0));
+		assertThat(fixture.registry().getServerIds("rolledback"), is(empty()));
+	}
+
+	@Test
+	public void failedBootOfAScaleUpKeepsTheServersDeployedBefore() {
+		OpenStackAppDeployer appDeployer = fixture.deployer();
+		AppDeploymentRequest request = OpenStackStandInFixture.request("rolledback", 2, true);
+		String appId = appDeployer.deploy(request);
+		appDeployer.waitForDeployed(appId, 10000);
+		fixture.standIn().failBoots("rolledback-3");
+
+		try {
+			appDeployer.scale(appId, request, 5);
+			fail("Scale should have failed on the boot of instance 3");
+		}
+		catch (RuntimeException e) {
+			// expected
+		}
+
+		assertThat(fixture.serverIds(appId).size(), is(2));
+		assertThat(fixture.standIn().getServerCount(), is(2));
+	}
+
+	@Test
+	public void instancesOfANonIndexedAppAreBootedInOneRequest() {
+		OpenStackAppDeployer appDeployer = fixture.deployer();
+		long boots = fixture.standIn().getBootCount();
+
+		String appId = appDeployer.deploy(OpenStackStandInFixture.request("multi", 4, false));
+		appDeployer.waitForDeployed(appId, 10000);
+
+		assertThat(fixture.standIn().getBootCount() - boots, is(1L));
+		JsonNode boot = fixture.standIn().getLastBootRequest();
+		assertThat(boot.path("min_count").asInt(), is(4));
+		assertThat(boot.path("max_count").asInt(), is(4));
+		assertThat(fixture.serverIds(appId).size(), is(4));
+		assertThat(appDeployer.status(appId).getInstances().size(), is(4));
+	}
+
+	@Test
+	public void bulkStatusesMatchTheStatusOfEachApp() {
+		fixture.properties().setInventoryRefreshInterval(0);
+		OpenStackAppDeployer appDeployer = fixture.deployer();
+		String indexed = appDeployer.deploy(OpenStackStandInFixture.request("indexed", 3, true));
+		String plain = appDeployer.deploy(OpenStackStandInFixture.request("plain", 2, false));
+		appDeployer.waitForDeployed(indexed, 10000);
+		appDeployer.waitForDeployed(plain, 10000);
+		long requests = fixture.standIn().getRequestCount();
+		fixture.inventory().invalidate();
+
+		Map<String, AppStatus> statuses = appDeployer.statuses(plain, "unknown", indexed);
+
+		// a single listing: its one page and the empty page that ends it
+		assertThat(fixture.standIn().getRequestCount() - requests, lessThanOrEqualTo(2L));
+		assertThat(statuses.keySet(), contains(plain, "unknown", indexed));
+		assertThat(statuses.get("unknown").getState(), is(DeploymentState.unknown));
+		for (Map.Entry<String, AppStatus> status : statuses.entrySet()) {
+			AppStatus single = appDeployer.status(status.getKey());
+			assertThat(status.getValue().getDeploymentId(), is(single.getDeploymentId()));
+			assertThat(status.getValue().getState(), is(single.getState()));
+			assertThat(status.getValue().getInstances().keySet(), is(single.getInstances().keySet()));
+		}
+		assertThat(statuses.get(indexed).getInstances().size(), is(3));
+		assertThat(statuses.get(plain).getInstances().size(), is(2));
+	}
+
+}
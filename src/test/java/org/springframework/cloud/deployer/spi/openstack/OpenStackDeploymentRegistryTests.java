@@ -0,0 +1,247 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.openstack4j.model.compute.Server;
+import org.springframework.cloud.deployer.spi.app.AppDeployer;
+import org.springframework.cloud.deployer.spi.core.AppDefinition;
+import org.springframework.cloud.deployer.spi.core.AppDeploymentRequest;
+import org.springframework.core.io.ByteArrayResource;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+import static org.openstack4j.api.Builders.server;
+import static org.springframework.cloud.deployer.spi.openstack.OpenStackRequestScheduler.OperationClass.BOOT;
+
+/**
+ * Records servers in an {@link OpenStackDeploymentRegistry} backed by a journal and
+ * checks what a restarted registry knows: after replay, compaction, a record torn by a
+ * crash, and reconciliation with the {@link OpenStackStandIn}.
+ */
+public class OpenStackDeploymentRegistryTests {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private OpenStackStandIn standIn;
+
+	private OpenStackDeployerProperties properties;
+
+	private OpenStackSessionManager sessionManager;
+
+	private Path journal;
+
+	private OpenStackDeploymentRegistry registry;
+
+	@Before
+	public void setUp() throws Exception {
+		standIn = new OpenStackStandIn(0, 0);
+		journal = folder.getRoot().toPath().resolve("registry.journal");
+		properties = standIn.properties();
+		properties.setRegistryJournal(journal.toString());
+		sessionManager = new OpenStackSessionManager(properties);
+		registry = new OpenStackDeploymentRegistry(sessionManager, properties);
+	}
+
+	@After
+	public void tearDown() {
+		registry.destroy();
+		sessionManager.destroy();
+		standIn.close();
+	}
+
+	@Test
+	public void journalIsReplayedOnRestart() throws Exception {
+		registry.put("app", "app-0", "server-0");
+		registry.put("app", "app-1", "server-1");
+		registry.put("task", "task", "server-2");
+		registry.remove("app", "server-0");
+
+		reopen();
+
+		assertThat(registry.getServerIds("app"), is(Collections.singleton("server-1")));
+		assertThat(registry.getServerIds("task"), is(Collections.singleton("server-2")));
+		assertThat(records(), hasItem(record("app", "app-1", "server-1")));
+	}
+
+	@Test
+	public void journalIsCompactedOnRestart() throws Exception {
+		for (int i = 0; i < 10; i++) {
+			registry.put("app", "app-" + i, "server-" + i);
+		}
+		for (int i = 0; i < 8; i++) {
+			registry.remove("app", "server-" + i);
+		}
+
+		reopen();
+
+		assertThat(records().size(), is(2));
+		assertThat(Files.exists(journal.resolveSibling(journal.getFileName() + ".compact")), is(false));
+		assertThat(registry.getServerIds("app"), is(new HashSet<>(Arrays.asList("server-8", "server-9"))));
+	}
+
+	@Test
+	public void journalIsCompactedWhileRunning() throws Exception {
+		registry.put("app", "app-0", "server-0");
+		for (int i = 0; i < 1000; i++) {
+			registry.put("app", "app-1", "churned");
+			registry.remove("app", "churned");
+		}
+
+		assertThat(records().size(), lessThan(1000));
+
+		reopen();
+
+		assertThat(registry.getServerIds("app"), is(Collections.singleton("server-0")));
+	}
+
+	@Test
+	public void tornLastRecordIsSkipped() throws Exception {
+		registry.put("app", "app-0", "server-0");
+		registry.put("app", "app-1", "server-1");
+		registry.destroy();
+		try (FileChannel channel = FileChannel.open(journal, StandardOpenOption.WRITE)) {
+			// cut the last record short within its server id
+			channel.truncate(channel.size() - 3);
+		}
+
+		reopen();
+
+		assertThat(registry.getServerIds("app"), is(Collections.singleton("server-0")));
+		registry.put("app", "app-1", "server-1");
+		reopen();
+		assertThat(registry.getServerIds("app"), is(new HashSet<>(Arrays.asList("server-0", "server-1"))));
+		assertThat(new String(Files.readAllBytes(journal), StandardCharsets.UTF_8), endsWith("\n"));
+	}
+
+	@Test
+	public void reconcileBringsTheRegistryInLineWithNova() throws Exception {
+		String kept = boot("app", "app-0");
+		String missed = boot("app", "app-1");
+		registry.put("app", "app-0", kept);
+		registry.put("app", "app-2", "deleted-while-down");
+		reopen();
+
+		registry.reconcile();
+
+		assertThat(registry.getServerIds("app"), is(new HashSet<>(Arrays.asList(kept, missed))));
+		assertThat(records(), hasItem(record("app", "app-1", missed)));
+		reopen();
+		assertThat(registry.getServerIds("app"), is(new HashSet<>(Arrays.asList(kept, missed))));
+	}
+
+	@Test
+	public void undeployTearsDownEveryServerOfAMultiInstanceBoot() {
+		OpenStackServerInventory inventory = new OpenStackServerInventory(sessionManager, properties);
+		OpenStackDeletionTracker deletionTracker = new OpenStackDeletionTracker(inventory, properties);
+		OpenStackAppDeployer appDeployer = new OpenStackAppDeployer(properties, sessionManager, inventory,
+				new OpenStackResourceResolver(sessionManager, properties), deletionTracker, registry);
+		try {
+			Map<String, String> deploymentProperties = new HashMap<>();
+			deploymentProperties.put(AppDeployer.COUNT_PROPERTY_KEY, "3");
+			String appId = appDeployer.deploy(new AppDeploymentRequest(new AppDefinition("multi",
+					Collections.emptyMap()), new ByteArrayResource(new byte[0]), deploymentProperties));
+			appDeployer.waitForDeployed(appId, 10000);
+			assertThat(registry.getServerIds(appId).size(), is(3));
+
+			appDeployer.undeploy(appId);
+
+			assertThat(standIn.getServerCount(), is(0));
+			assertThat(registry.getServerIds(appId).isEmpty(), is(true));
+		}
+		finally {
+			appDeployer.destroy();
+			deletionTracker.destroy();
+			inventory.destroy();
+		}
+	}
+
+	@Test
+	public void scaleRecordsTheDeploymentIdItsServersCarry() throws Exception {
+		OpenStackServerInventory inventory = new OpenStackServerInventory(sessionManager, properties);
+		OpenStackDeletionTracker deletionTracker = new OpenStackDeletionTracker(inventory, properties);
+		OpenStackAppDeployer appDeployer = new OpenStackAppDeployer(properties, sessionManager, inventory,
+				new OpenStackResourceResolver(sessionManager, properties), deletionTracker, registry);
+		try {
+			AppDeploymentRequest request = new AppDeploymentRequest(new AppDefinition("scaled",
+					Collections.emptyMap()), new ByteArrayResource(new byte[0]));
+			String appId = appDeployer.deploy(request);
+			appDeployer.waitForDeployed(appId, 10000);
+
+			appDeployer.scale(appId, request, 3);
+
+			Set<String> serverIds = registry.getServerIds(appId);
+			assertThat(serverIds.size(), is(3));
+			// the booted servers are named apart, but all carry the app id as deployment id
+			for (String serverId : serverIds) {
+				assertThat(records(), hasItem(record(appId, appId, serverId)));
+			}
+		}
+		finally {
+			appDeployer.destroy();
+			deletionTracker.destroy();
+			inventory.destroy();
+		}
+	}
+
+	private String boot(String appId, String deploymentId) {
+		Server server = sessionManager.execute(BOOT, client -> client.compute().servers().boot(server()
+				.name(deploymentId).flavor(OpenStackStandIn.FLAVOR_ID).image(OpenStackStandIn.IMAGE_ID)
+				.addMetadataItem(AbstractOpenStackDeployer.SPRING_APP_KEY, appId)
+				.addMetadataItem(AbstractOpenStackDeployer.SPRING_DEPLOYMENT_KEY, deploymentId)
+				.addMetadataItem(AbstractOpenStackDeployer.SPRING_MARKER_KEY,
+						AbstractOpenStackDeployer.SPRING_MARKER_VALUE)
+				.build()));
+		return server.getId();
+	}
+
+	private void reopen() {
+		registry.destroy();
+		registry = new OpenStackDeploymentRegistry(sessionManager, properties);
+	}
+
+	private static String record(String appId, String deploymentId, String serverId) {
+		return String.join("\t", "put", appId, deploymentId, serverId);
+	}
+
+	private List<String> records() throws IOException {
+		return Files.readAllLines(journal, StandardCharsets.UTF_8);
+	}
+
+}
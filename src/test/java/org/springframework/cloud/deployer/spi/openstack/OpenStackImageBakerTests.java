@@ -0,0 +1,160 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.cloud.deployer.resource.docker.DockerResource;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.UrlResource;
+
+import java.io.File;
+import java.net.InetSocketAddress;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Checks how the {@link OpenStackImageBaker} identifies artifacts of each resource type
+ * without fetching them, and how it passes them to the builder server.
+ */
+public class OpenStackImageBakerTests {
+
+	private static final String BASE_IMAGE = OpenStackStandIn.IMAGE_ID;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private HttpServer server;
+
+	private final AtomicInteger heads = new AtomicInteger();
+
+	private final AtomicInteger gets = new AtomicInteger();
+
+	private volatile String etag = "\"v1\"";
+
+	@Before
+	public void setUp() throws Exception {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/", exchange -> {
+			(exchange.getRequestMethod().equals("HEAD") ? heads : gets).incrementAndGet();
+			if (etag != null) {
+				exchange.getResponseHeaders().set("ETag", etag);
+			}
+			exchange.sendResponseHeaders(200, -1);
+			exchange.close();
+		});
+		server.start();
+	}
+
+	@After
+	public void tearDown() {
+		server.stop(0);
+	}
+
+	@Test
+	public void fileArtifactBootsFromTheBaseImage() throws Exception {
+		File artifact = folder.newFile("app.jar");
+		OpenStackImageBaker baker = new OpenStackImageBaker(null, new OpenStackDeployerProperties());
+
+		assertThat(OpenStackImageBaker.fetchScript(new FileSystemResource(artifact)), is(nullValue()));
+		assertThat(baker.resolve(new FileSystemResource(artifact), null, BASE_IMAGE, OpenStackStandIn.FLAVOR_ID),
+				is(BASE_IMAGE));
+	}
+
+	@Test
+	public void httpArtifactIsIdentifiedByItsHeadersWithoutDownloadingIt() throws Exception {
+		UrlResource artifact = new UrlResource(url("/app.jar"));
+		String v1 = OpenStackImageBaker.digest(artifact, null, BASE_IMAGE);
+
+		assertThat(OpenStackImageBaker.digest(artifact, null, BASE_IMAGE), is(v1));
+
+		etag = "\"v2\"";
+
+		assertThat(OpenStackImageBaker.digest(artifact, null, BASE_IMAGE), not(v1));
+		assertThat(heads.get(), is(3));
+		assertThat(gets.get(), is(0));
+	}
+
+	@Test
+	public void httpArtifactWithoutValidatorsIsIdentifiedByItsUri() throws Exception {
+		etag = null;
+
+		assertThat(OpenStackImageBaker.identify(new UrlResource(url("/app.jar")), null), is(url("/app.jar")));
+		assertThat(gets.get(), is(0));
+	}
+
+	@Test
+	public void dockerArtifactIsIdentifiedByItsReference() {
+		String digest = OpenStackImageBaker.digest(new DockerResource("springcloud/app:1.0"), null, BASE_IMAGE);
+
+		assertThat(OpenStackImageBaker.digest(new DockerResource("springcloud/app:1.0"), null, BASE_IMAGE),
+				is(digest));
+		assertThat(OpenStackImageBaker.digest(new DockerResource("springcloud/app:1.1"), null, BASE_IMAGE),
+				not(digest));
+		assertThat(OpenStackImageBaker.digest(new DockerResource("springcloud/app:1.0"), null, "other-base"),
+				not(digest));
+	}
+
+	@Test
+	public void dockerArtifactWithAMovingTagBootsFromTheBaseImage() {
+		OpenStackImageBaker baker = new OpenStackImageBaker(null, new OpenStackDeployerProperties());
+
+		assertThat(OpenStackImageBaker.isMovingTag(new DockerResource("springcloud/app")), is(true));
+		assertThat(OpenStackImageBaker.isMovingTag(new DockerResource("springcloud/app:latest")), is(true));
+		assertThat(OpenStackImageBaker.isMovingTag(new DockerResource("registry:5000/springcloud/app")), is(true));
+		assertThat(OpenStackImageBaker.isMovingTag(new DockerResource("registry:5000/springcloud/app:1.0")),
+				is(false));
+		assertThat(OpenStackImageBaker.isMovingTag(new DockerResource("springcloud/app@sha256:" + zeros(64))),
+				is(false));
+		assertThat(baker.resolve(new DockerResource("springcloud/app:latest"), null, BASE_IMAGE,
+				OpenStackStandIn.FLAVOR_ID), is(BASE_IMAGE));
+	}
+
+	@Test
+	public void versionIdentifiesArtifactWithoutAskingForIt() throws Exception {
+		UrlResource artifact = new UrlResource(url("/app.jar"));
+		String v1 = OpenStackImageBaker.digest(artifact, "1", BASE_IMAGE);
+
+		assertThat(OpenStackImageBaker.digest(artifact, "2", BASE_IMAGE), not(v1));
+		assertThat(heads.get() + gets.get(), is(0));
+	}
+
+	@Test
+	public void artifactUriIsQuotedInTheFetchScript() throws Exception {
+		String script = OpenStackImageBaker.fetchScript(new UrlResource(url("/it's.jar")));
+
+		assertThat(script, containsString("curl -fsSL -o /opt/spring/app.jar '" + url("/it'\\''s.jar") + "'\n"));
+	}
+
+	private static String zeros(int length) {
+		return new String(new char[length]).replace('\0', '0');
+	}
+
+	private String url(String path) {
+		return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+	}
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cloud.deployer.spi.openstack.OpenStackLifecycleEngine.Operation;
+
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Checks that the {@link OpenStackLifecycleEngine} forgets failures once they are no
+ * longer of use.
+ */
+public class OpenStackLifecycleEngineTests {
+
+	private OpenStackDeployerProperties properties;
+
+	private OpenStackLifecycleEngine engine;
+
+	@Before
+	public void setUp() {
+		properties = new OpenStackDeployerProperties();
+		properties.setLifecycleWorkers(1);
+		properties.setLifecycleFailureTtl(200);
+		engine = new OpenStackLifecycleEngine(properties);
+	}
+
+	@After
+	public void tearDown() {
+		engine.destroy();
+	}
+
+	@Test
+	public void failureIsForgottenByTheNextOperation() throws Exception {
+		fail("app");
+		assertThat(engine.getFailure("app"), notNullValue());
+
+		engine.submit("app", Operation.UNDEPLOY, () -> { });
+		await("app");
+
+		assertThat(engine.getFailure("app"), nullValue());
+	}
+
+	@Test
+	public void failureExpiresAfterItsTtl() throws Exception {
+		fail("app");
+		assertThat(engine.getFailure("app"), notNullValue());
+
+		Thread.sleep(properties.getLifecycleFailureTtl());
+
+		assertThat(engine.getFailure("app"), nullValue());
+	}
+
+	private void fail(String id) throws InterruptedException {
+		engine.submit(id, Operation.DEPLOY, () -> {
+			throw new IllegalStateException("boot failed");
+		});
+		await(id);
+	}
+
+	private void await(String id) throws InterruptedException {
+		while (engine.getInFlight(id) != null) {
+			Thread.sleep(10);
+		}
+	}
+
+}
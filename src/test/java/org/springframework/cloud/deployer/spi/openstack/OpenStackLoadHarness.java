@@ -0,0 +1,293 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.cloud.deployer.spi.core.AppDefinition;
+import org.springframework.cloud.deployer.spi.core.AppDeploymentRequest;
+import org.springframework.core.io.ByteArrayResource;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Drives an {@link OpenStackAppDeployer} and an {@link OpenStackTaskLauncher} against an
+ * {@link OpenStackStandIn} with many concurrent deploy, status and undeploy operations,
+ * and reports the throughput and latency percentiles of each operation.
+ * <p>
+ * Run it with {@code main}, configured through system properties such as
+ * {@code -Dharness.apps=2000 -Dharness.concurrency=128 -Dharness.latency=20}.
+ */
+public class OpenStackLoadHarness {
+
+	private static final Log logger = LogFactory.getLog(OpenStackLoadHarness.class);
+
+	private int apps = 1000;
+
+	private int tasks = 1000;
+
+	private int concurrency = 64;
+
+	private long latency = 10;
+
+	private long buildDelay = 1000;
+
+	private long deployTimeout = 120000;
+
+	private int listPageSize = new OpenStackDeployerProperties().getListPageSize();
+
+	public static void main(String[] args) throws Exception {
+		OpenStackLoadHarness harness = new OpenStackLoadHarness();
+		harness.setApps(Integer.getInteger("harness.apps", harness.apps));
+		harness.setTasks(Integer.getInteger("harness.tasks", harness.tasks));
+		harness.setConcurrency(Integer.getInteger("harness.concurrency", harness.concurrency));
+		harness.setLatency(Long.getLong("harness.latency", harness.latency));
+		harness.setBuildDelay(Long.getLong("harness.build-delay", harness.buildDelay));
+		logger.info(harness.run());
+		System.exit(0);
+	}
+
+	public void setApps(int apps) {
+		this.apps = apps;
+	}
+
+	public void setTasks(int tasks) {
+		this.tasks = tasks;
+	}
+
+	public void setConcurrency(int concurrency) {
+		this.concurrency = concurrency;
+	}
+
+	public void setLatency(long latency) {
+		this.latency = latency;
+	}
+
+	public void setBuildDelay(long buildDelay) {
+		this.buildDelay = buildDelay;
+	}
+
+	public void setDeployTimeout(long deployTimeout) {
+		this.deployTimeout = deployTimeout;
+	}
+
+	public void setListPageSize(int listPageSize) {
+		this.listPageSize = listPageSize;
+	}
+
+	/**
+	 * Run the load and return its report.
+	 */
+	public Report run() throws Exception {
+		try (OpenStackStandIn standIn = new OpenStackStandIn(latency, buildDelay)) {
+			OpenStackDeployerProperties properties = standIn.properties();
+			properties.setInventoryMaxStaleness(Math.max(100, buildDelay / 4));
+			properties.setWaitInitialInterval(Math.max(50, buildDelay / 10));
+			properties.setListPageSize(listPageSize);
+			OpenStackSessionManager sessionManager = new OpenStackSessionManager(properties);
+			OpenStackServerInventory inventory = new OpenStackServerInventory(sessionManager, properties);
+			OpenStackResourceResolver resolver = new OpenStackResourceResolver(sessionManager, properties);
+			OpenStackDeletionTracker deletionTracker = new OpenStackDeletionTracker(inventory, properties);
+			Path journal = Files.createTempFile("openstack-registry", ".journal");
+			properties.setRegistryJournal(journal.toString());
+			OpenStackDeploymentRegistry registry = new OpenStackDeploymentRegistry(sessionManager, properties);
+			OpenStackAppDeployer appDeployer = new OpenStackAppDeployer(properties, sessionManager, inventory,
+					resolver, deletionTracker, registry);
+			OpenStackTaskLauncher taskLauncher = new OpenStackTaskLauncher(properties, sessionManager, inventory,
+					resolver, deletionTracker, registry);
+			ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+			Report report = new Report();
+			long start = System.nanoTime();
+			try {
+				for (int i = 0; i < apps; i++) {
+					AppDeploymentRequest request = request("app-" + i);
+					workers.submit(() -> {
+						String appId = report.time("deploy", () -> appDeployer.deploy(request));
+						if (appId == null) {
+							return;
+						}
+						report.time("wait-deployed", () -> appDeployer.waitForDeployed(appId, deployTimeout));
+						report.time("status", () -> appDeployer.status(appId));
+						report.time("undeploy", () -> {
+							appDeployer.undeploy(appId);
+							return appId;
+						});
+					});
+				}
+				for (int i = 0; i < tasks; i++) {
+					AppDeploymentRequest request = request("task-" + i);
+					workers.submit(() -> {
+						String taskId = report.time("launch", () -> taskLauncher.launch(request));
+						if (taskId == null) {
+							return;
+						}
+						report.time("task-status", () -> taskLauncher.status(taskId));
+						report.time("cleanup", () -> {
+							taskLauncher.cleanup(taskId);
+							return taskId;
+						});
+					});
+				}
+				workers.shutdown();
+				workers.awaitTermination(1, TimeUnit.HOURS);
+			}
+			finally {
+				workers.shutdownNow();
+				appDeployer.destroy();
+				taskLauncher.destroy();
+				deletionTracker.destroy();
+				registry.destroy();
+				Files.deleteIfExists(journal);
+				inventory.destroy();
+				sessionManager.destroy();
+			}
+			report.finish(System.nanoTime() - start, standIn.getRequestCount(), standIn.getServerCount());
+			return report;
+		}
+	}
+
+	private static AppDeploymentRequest request(String name) {
+		return new AppDeploymentRequest(new AppDefinition(name, Collections.emptyMap()),
+				new ByteArrayResource(new byte[0]), Collections.emptyMap());
+	}
+
+	/**
+	 * Latencies and failures of each operation of one run.
+	 */
+	public static class Report {
+
+		private final Map<String, ConcurrentLinkedQueue<Long>> latencies = new ConcurrentHashMap<>();
+
+		private final Map<String, AtomicLong> failures = new ConcurrentHashMap<>();
+
+		private final Map<String, Throwable> firstFailures = new ConcurrentHashMap<>();
+
+		private long elapsedNanos;
+
+		private long requests;
+
+		private int remainingServers;
+
+		<T> T time(String operation, Supplier<T> call) {
+			long start = System.nanoTime();
+			try {
+				T result = call.get();
+				latencies.computeIfAbsent(operation, o -> new ConcurrentLinkedQueue<>())
+						.add(System.nanoTime() - start);
+				return result;
+			}
+			catch (RuntimeException e) {
+				failures.computeIfAbsent(operation, o -> new AtomicLong()).incrementAndGet();
+				firstFailures.putIfAbsent(operation, e);
+				return null;
+			}
+		}
+
+		void finish(long elapsedNanos, long requests, int remainingServers) {
+			this.elapsedNanos = elapsedNanos;
+			this.requests = requests;
+			this.remainingServers = remainingServers;
+		}
+
+		/**
+		 * Return the number of successful calls of the given operation.
+		 */
+		public int getCount(String operation) {
+			ConcurrentLinkedQueue<Long> operationLatencies = latencies.get(operation);
+			return operationLatencies != null ? operationLatencies.size() : 0;
+		}
+
+		/**
+		 * Return the number of failed calls of the given operation.
+		 */
+		public long getFailures(String operation) {
+			AtomicLong operationFailures = failures.get(operation);
+			return operationFailures != null ? operationFailures.get() : 0;
+		}
+
+		/**
+		 * Return the first failure of each failed operation.
+		 */
+		public Map<String, Throwable> getFirstFailures() {
+			return firstFailures;
+		}
+
+		/**
+		 * Return the number of servers left on the stand-in after the run.
+		 */
+		public int getRemainingServers() {
+			return remainingServers;
+		}
+
+		@Override
+		public String toString() {
+			double seconds = elapsedNanos / 1e9;
+			StringBuilder report = new StringBuilder();
+			report.append(String.format("%d requests to the stand-in in %.1f s, %d servers left%n", requests,
+					seconds, remainingServers));
+			report.append(String.format("%-14s %8s %8s %10s %9s %9s %9s %9s%n", "operation", "ok", "failed",
+					"ops/s", "p50 ms", "p95 ms", "p99 ms", "max ms"));
+			Map<String, ConcurrentLinkedQueue<Long>> sorted = new TreeMap<>(latencies);
+			for (String operation : failures.keySet()) {
+				sorted.putIfAbsent(operation, new ConcurrentLinkedQueue<>());
+			}
+			for (Map.Entry<String, ConcurrentLinkedQueue<Long>> entry : sorted.entrySet()) {
+				long[] values = toSortedArray(entry.getValue());
+				report.append(String.format("%-14s %8d %8d %10.1f %9.1f %9.1f %9.1f %9.1f%n", entry.getKey(),
+						values.length, getFailures(entry.getKey()), values.length / seconds, percentile(values, 50),
+						percentile(values, 95), percentile(values, 99), percentile(values, 100)));
+			}
+			for (Map.Entry<String, Throwable> failure : firstFailures.entrySet()) {
+				report.append(String.format("first %s failure: %s%n", failure.getKey(), failure.getValue()));
+			}
+			return report.toString();
+		}
+
+		private static long[] toSortedArray(ConcurrentLinkedQueue<Long> latencies) {
+			List<Long> copy = new ArrayList<>(latencies);
+			long[] values = new long[copy.size()];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = copy.get(i);
+			}
+			Arrays.sort(values);
+			return values;
+		}
+
+		private static double percentile(long[] sorted, int percentile) {
+			if (sorted.length == 0) {
+				return 0;
+			}
+			int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+			return sorted[Math.max(0, index)] / 1e6;
+		}
+	}
+
+}
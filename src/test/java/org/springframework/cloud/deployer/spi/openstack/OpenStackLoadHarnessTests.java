@@ -0,0 +1,52 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Runs a small load through the {@link OpenStackLoadHarness} to keep the stand-in and
+ * the harness working.
+ */
+public class OpenStackLoadHarnessTests {
+
+	@Test
+	public void smallLoadCompletes() throws Exception {
+		OpenStackLoadHarness harness = new OpenStackLoadHarness();
+		harness.setApps(40);
+		harness.setTasks(20);
+		harness.setConcurrency(16);
+		harness.setLatency(2);
+		harness.setBuildDelay(200);
+		harness.setDeployTimeout(30000);
+		// several pages per listing
+		harness.setListPageSize(7);
+
+		OpenStackLoadHarness.Report report = harness.run();
+
+		assertThat(report.toString(), report.getFirstFailures().isEmpty(), is(true));
+		assertThat(report.getCount("deploy"), is(40));
+		assertThat(report.getCount("wait-deployed"), is(40));
+		assertThat(report.getCount("launch"), is(20));
+		// undeploy and cleanup find every server by its id
+		assertThat(report.getRemainingServers(), is(0));
+	}
+
+}
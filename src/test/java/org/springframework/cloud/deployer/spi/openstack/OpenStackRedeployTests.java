@@ -0,0 +1,129 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.springframework.cloud.deployer.spi.core.AppDeploymentRequest;
+
+import java.util.Set;
+
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.isIn;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Redeploys apps deployed to the {@link OpenStackStandIn} and checks that every instance
+ * is replaced by one of the new generation, in batches or all at once.
+ */
+public class OpenStackRedeployTests {
+
+	@Rule
+	public OpenStackStandInFixture fixture = new OpenStackStandInFixture();
+
+	@Test
+	public void rollingRedeployReplacesIndexedInstancesInBatches() {
+		fixture.properties().setRedeployBatchSize(2);
+		OpenStackAppDeployer appDeployer = fixture.deployer();
+		AppDeploymentRequest request = OpenStackStandInFixture.request("redeployed", 6, true);
+		String appId = appDeployer.deploy(request);
+		appDeployer.waitForDeployed(appId, 10000);
+		Set<String> deployed = fixture.serverIds(appId);
+		long boots = fixture.standIn().getBootCount();
+
+		appDeployer.redeploy(appId, request);
+
+		assertThat(fixture.standIn().getBootCount() - boots, is(6L));
+		assertThat(fixture.serverIds(appId).size(), is(6));
+		assertThat(fixture.serverIds(appId), everyItem(not(isIn(deployed))));
+		assertThat(fixture.generations(appId), everyItem(is("1")));
+		assertThat(appDeployer.status(appId).getInstances().containsKey(appId + "-5"), is(true));
+		assertThat(fixture.standIn().getServerCount(), is(6));
+	}
+
+	@Test
+	public void rollingRedeployKeepsEveryInstanceOfAnAppWithoutIndices() {
+		fixture.properties().setRedeployBatchSize(1);
+		OpenStackAppDeployer appDeployer = fixture.deployer();
+		AppDeploymentRequest request = OpenStackStandInFixture.request("redeployed", 3, false);
+		String appId = appDeployer.deploy(request);
+		appDeployer.waitForDeployed(appId, 10000);
+		Set<String> deployed = fixture.serverIds(appId);
+
+		appDeployer.redeploy(appId, request);
+
+		assertThat(fixture.serverIds(appId).size(), is(3));
+		assertThat(fixture.serverIds(appId), everyItem(not(isIn(deployed))));
+		assertThat(fixture.generations(appId), everyItem(is("1")));
+		assertThat(appDeployer.status(appId).getInstances().size(), is(3));
+		assertThat(fixture.standIn().getServerCount(), is(3));
+	}
+
+	@Test
+	public void blueGreenRedeployBootsTheNewGenerationAtOnce() {
+		fixture.properties().setRedeployBatchSize(0);
+		OpenStackAppDeployer appDeployer = fixture.deployer();
+		AppDeploymentRequest request = OpenStackStandInFixture.request("redeployed", 3, false);
+		String appId = appDeployer.deploy(request);
+		appDeployer.waitForDeployed(appId, 10000);
+		Set<String> deployed = fixture.serverIds(appId);
+		long boots = fixture.standIn().getBootCount();
+
+		appDeployer.redeploy(appId, request);
+
+		assertThat(fixture.standIn().getBootCount() - boots, is(1L));
+		assertThat(fixture.serverIds(appId).size(), is(3));
+		assertThat(fixture.serverIds(appId), everyItem(not(isIn(deployed))));
+		assertThat(fixture.generations(appId), everyItem(is("1")));
+		assertThat(appDeployer.status(appId).getInstances().size(), is(3));
+
+		appDeployer.redeploy(appId, request);
+
+		assertThat(fixture.generations(appId), everyItem(is("2")));
+		assertThat(appDeployer.status(appId).getInstances().size(), is(3));
+		assertThat(fixture.standIn().getServerCount(), is(3));
+	}
+
+	@Test
+	public void redeployStopsAtABatchThatDoesNotBecomeActive() {
+		fixture.properties().setRedeployBatchSize(2);
+		fixture.properties().setRedeployBatchTimeout(500);
+		OpenStackAppDeployer appDeployer = fixture.deployer();
+		AppDeploymentRequest request = OpenStackStandInFixture.request("redeployed", 4, true);
+		String appId = appDeployer.deploy(request);
+		appDeployer.waitForDeployed(appId, 10000);
+		Set<String> deployed = fixture.serverIds(appId);
+		fixture.standIn().setBuildDelay(60000);
+
+		try {
+			appDeployer.redeploy(appId, request);
+			fail("Redeploy should have stopped at the first batch");
+		}
+		catch (IllegalStateException e) {
+			assertThat(e.getMessage().contains("became active"), is(true));
+		}
+
+		assertThat(fixture.serverIds(appId), is(deployed));
+		assertThat(fixture.generations(appId), is(empty()));
+		assertThat(fixture.standIn().getServerCount(), is(4));
+	}
+
+}
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.junit.Test;
+import org.openstack4j.api.OSClient;
+import org.openstack4j.api.exceptions.ClientResponseException;
+import org.openstack4j.api.exceptions.ResponseException;
+import org.openstack4j.model.common.ActionResponse;
+import org.openstack4j.model.compute.Server;
+import org.springframework.cloud.deployer.spi.openstack.OpenStackRequestScheduler.OperationClass;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.openstack4j.api.Builders.server;
+import static org.springframework.cloud.deployer.spi.openstack.OpenStackRequestScheduler.OperationClass.BOOT;
+import static org.springframework.cloud.deployer.spi.openstack.OpenStackRequestScheduler.OperationClass.DELETE;
+import static org.springframework.cloud.deployer.spi.openstack.OpenStackRequestScheduler.OperationClass.GET;
+import static org.springframework.cloud.deployer.spi.openstack.OpenStackRequestScheduler.OperationClass.LIST;
+
+/**
+ * Checks the rate limiting and the retries of rate limited calls of the
+ * {@link OpenStackRequestScheduler}, on its own and against the {@link OpenStackStandIn}.
+ */
+public class OpenStackRequestSchedulerTests {
+
+	@Test
+	public void tokenBucketRefillsAtTheConfiguredRate() {
+		OpenStackDeployerProperties properties = new OpenStackDeployerProperties();
+		properties.setRateLimitGet(20);
+		OpenStackRequestScheduler scheduler = new OpenStackRequestScheduler(properties);
+
+		long start = System.nanoTime();
+		// one second worth of calls is allowed at once, the next 20 at 20 per second
+		for (int i = 0; i < 40; i++) {
+			scheduler.execute(GET, () -> null);
+		}
+
+		assertThat(elapsed(start), greaterThanOrEqualTo(900L));
+	}
+
+	@Test
+	public void operationClassesAreLimitedIndependently() {
+		OpenStackDeployerProperties properties = new OpenStackDeployerProperties();
+		properties.setRateLimitBoot(1);
+		OpenStackRequestScheduler scheduler = new OpenStackRequestScheduler(properties);
+		scheduler.execute(BOOT, () -> null);
+
+		long start = System.nanoTime();
+		for (int i = 0; i < 100; i++) {
+			scheduler.execute(GET, () -> null);
+		}
+
+		assertThat(elapsed(start), lessThan(500L));
+	}
+
+	@Test
+	public void retryAfterIsParsedFromTheFault() {
+		OpenStackDeployerProperties properties = new OpenStackDeployerProperties();
+		properties.setRateLimitRetryBackoff(1);
+		OpenStackRequestScheduler scheduler = new OpenStackRequestScheduler(properties);
+		AtomicInteger calls = new AtomicInteger();
+
+		long start = System.nanoTime();
+		String result = scheduler.execute(LIST, () -> {
+			if (calls.incrementAndGet() == 1) {
+				throw new ClientResponseException("Rate limited, Retry-After: 1", 429);
+			}
+			return "listed";
+		});
+
+		assertThat(result, is("listed"));
+		assertThat(calls.get(), is(2));
+		assertThat(elapsed(start), greaterThanOrEqualTo(1000L));
+	}
+
+	@Test
+	public void quotaExceededIsNotRetried() {
+		OpenStackDeployerProperties properties = new OpenStackDeployerProperties();
+		properties.setRateLimitRetryBackoff(1);
+		OpenStackRequestScheduler scheduler = new OpenStackRequestScheduler(properties);
+		AtomicInteger calls = new AtomicInteger();
+
+		try {
+			scheduler.execute(BOOT, () -> {
+				calls.incrementAndGet();
+				throw new ClientResponseException("Quota exceeded for instances: Requested 1, but already used 10 "
+						+ "of 10 instances", 413);
+			});
+			fail("The quota error should have been thrown without a retry");
+		}
+		catch (ResponseException e) {
+			assertThat(e.getStatus(), is(413));
+		}
+
+		assertThat(calls.get(), is(1));
+	}
+
+	@Test
+	public void overLimitWithRetryAfterIsRetried() {
+		OpenStackDeployerProperties properties = new OpenStackDeployerProperties();
+		properties.setRateLimitRetryBackoff(1);
+		OpenStackRequestScheduler scheduler = new OpenStackRequestScheduler(properties);
+		AtomicInteger calls = new AtomicInteger();
+
+		String result = scheduler.execute(BOOT, () -> {
+			if (calls.incrementAndGet() == 1) {
+				throw new ClientResponseException("{\"overLimit\": {\"code\": 413, \"retryAfter\": \"0\"}}", 413);
+			}
+			return "booted";
+		});
+
+		assertThat(result, is("booted"));
+		assertThat(calls.get(), is(2));
+	}
+
+	@Test
+	public void retryAfterHeaderIsHonoured() throws Exception {
+		try (StandInScheduler standIn = new StandInScheduler(5, 1)) {
+			standIn.rejectNext(2, 1);
+
+			long start = System.nanoTime();
+			List<? extends Server> servers = standIn.execute(LIST, client -> client.compute().servers().list());
+
+			assertThat(servers.isEmpty(), is(true));
+			assertThat(standIn.getRejectionCount(), is(2L));
+			assertThat(elapsed(start), greaterThanOrEqualTo(2000L));
+		}
+	}
+
+	@Test
+	public void backoffGrowsWithoutRetryAfterAndRetriesAreBounded() throws Exception {
+		try (StandInScheduler standIn = new StandInScheduler(2, 100)) {
+			standIn.rejectNext(5, null);
+
+			long start = System.nanoTime();
+			try {
+				standIn.execute(LIST, client -> client.compute().servers().list());
+				fail("The call should have been rejected once the retries were used up");
+			}
+			catch (ResponseException e) {
+				assertThat(e.getStatus(), is(429));
+			}
+
+			// the first attempt and two retries, after 100 and 200 ms
+			assertThat(standIn.getRejectionCount(), is(3L));
+			assertThat(elapsed(start), greaterThanOrEqualTo(300L));
+		}
+	}
+
+	@Test
+	public void rateLimitedDeleteIsRetried() throws Exception {
+		try (StandInScheduler standIn = new StandInScheduler(5, 10)) {
+			Server booted = standIn.execute(BOOT, client -> client.compute().servers().boot(server().name("limited")
+					.flavor(OpenStackStandIn.FLAVOR_ID).image(OpenStackStandIn.IMAGE_ID).build()));
+			standIn.rejectNext(1, null);
+
+			ActionResponse response = standIn.execute(DELETE,
+					client -> client.compute().servers().delete(booted.getId()));
+
+			assertThat(response.isSuccess(), is(true));
+			assertThat(standIn.getRejectionCount(), is(1L));
+			assertThat(standIn.getServerCount(), is(0));
+		}
+	}
+
+	@Test
+	public void rateLimitedDeleteFailsOnceRetriesAreUsedUp() throws Exception {
+		try (StandInScheduler standIn = new StandInScheduler(0, 10)) {
+			standIn.rejectNext(1, null);
+
+			ActionResponse response = standIn.execute(DELETE, client -> client.compute().servers().delete("any"));
+
+			assertThat(response.isSuccess(), is(false));
+			assertThat(response.getCode(), is(429));
+		}
+	}
+
+	private static long elapsed(long start) {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+	}
+
+	/**
+	 * A stand-in with a session manager, whose calls go through the scheduler.
+	 */
+	private static class StandInScheduler extends OpenStackStandIn {
+
+		private final OpenStackSessionManager sessionManager;
+
+		StandInScheduler(int maxRetries, long backoff) throws Exception {
+			super(0, 0);
+			OpenStackDeployerProperties properties = properties();
+			properties.setRateLimitMaxRetries(maxRetries);
+			properties.setRateLimitRetryBackoff(backoff);
+			sessionManager = new OpenStackSessionManager(properties);
+			// authenticate before any request is rejected
+			sessionManager.getClient();
+		}
+
+		<T> T execute(OperationClass operationClass, Function<OSClient, T> call) {
+			return sessionManager.execute(operationClass, call);
+		}
+
+		@Override
+		public void close() {
+			sessionManager.destroy();
+			super.close();
+		}
+	}
+
+}
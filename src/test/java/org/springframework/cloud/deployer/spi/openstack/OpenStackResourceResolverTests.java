@@ -0,0 +1,168 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cloud.deployer.spi.app.AppDeployer;
+import org.springframework.cloud.deployer.spi.core.AppDefinition;
+import org.springframework.cloud.deployer.spi.core.AppDeploymentRequest;
+import org.springframework.core.io.ByteArrayResource;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Resolves flavors against the two flavors of the {@link OpenStackStandIn}, m1.small
+ * with 2048 MB and 1 vcpu and m1.medium with 4096 MB and 2 vcpus, and checks how
+ * memory specifications are parsed.
+ */
+public class OpenStackResourceResolverTests {
+
+	private static final String MEDIUM_FLAVOR_ID = "2";
+
+	private OpenStackStandIn standIn;
+
+	private OpenStackDeployerProperties properties;
+
+	private OpenStackSessionManager sessionManager;
+
+	private OpenStackResourceResolver resolver;
+
+	@Before
+	public void setUp() throws Exception {
+		standIn = new OpenStackStandIn(0, 0);
+		properties = standIn.properties();
+		sessionManager = new OpenStackSessionManager(properties);
+		resolver = new OpenStackResourceResolver(sessionManager, properties);
+	}
+
+	@After
+	public void tearDown() {
+		sessionManager.destroy();
+		standIn.close();
+	}
+
+	@Test
+	public void memoryIsParsedInMegabytes() {
+		assertThat(OpenStackResourceResolver.parseMemory("512"), is(512));
+		assertThat(OpenStackResourceResolver.parseMemory("512m"), is(512));
+		assertThat(OpenStackResourceResolver.parseMemory("512M"), is(512));
+		assertThat(OpenStackResourceResolver.parseMemory("2g"), is(2048));
+		assertThat(OpenStackResourceResolver.parseMemory(" 2G "), is(2048));
+		assertThat(OpenStackResourceResolver.parseMemory("1.5g"), is(1536));
+		assertThat(OpenStackResourceResolver.parseMemory("0.5G"), is(512));
+		assertThat(OpenStackResourceResolver.parseMemory("512.5m"), is(513));
+		assertThat(OpenStackResourceResolver.parseMemory(null), is(0));
+		assertThat(OpenStackResourceResolver.parseMemory(""), is(0));
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void memoryWithAnUnknownUnitIsRejected() {
+		OpenStackResourceResolver.parseMemory("2t");
+	}
+
+	@Test(expected = NumberFormatException.class)
+	public void memoryWithATypeSuffixIsRejected() {
+		OpenStackResourceResolver.parseMemory("2d");
+	}
+
+	@Test
+	public void cpuIsRoundedUp() {
+		assertThat(OpenStackResourceResolver.parseCpu("1"), is(1));
+		assertThat(OpenStackResourceResolver.parseCpu("1.5"), is(2));
+		assertThat(OpenStackResourceResolver.parseCpu(null), is(0));
+	}
+
+	@Test
+	public void smallestFlavorWithEnoughMemoryIsPicked() {
+		assertThat(resolver.resolveFlavor(request(AppDeployer.MEMORY_PROPERTY_KEY, "1g")),
+				is(OpenStackStandIn.FLAVOR_ID));
+		assertThat(resolver.resolveFlavor(request(AppDeployer.MEMORY_PROPERTY_KEY, "2048m")),
+				is(OpenStackStandIn.FLAVOR_ID));
+		assertThat(resolver.resolveFlavor(request(AppDeployer.MEMORY_PROPERTY_KEY, "2049")), is(MEDIUM_FLAVOR_ID));
+	}
+
+	@Test
+	public void smallestFlavorWithEnoughCpusIsPicked() {
+		assertThat(resolver.resolveFlavor(request(AppDeployer.CPU_PROPERTY_KEY, "1")), is(OpenStackStandIn.FLAVOR_ID));
+		assertThat(resolver.resolveFlavor(request(AppDeployer.CPU_PROPERTY_KEY, "1.5")), is(MEDIUM_FLAVOR_ID));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void noFlavorWithEnoughMemoryIsAnError() {
+		resolver.resolveFlavor(request(AppDeployer.MEMORY_PROPERTY_KEY, "8g"));
+	}
+
+	@Test
+	public void requestedFlavorIsResolvedByName() {
+		assertThat(resolver.resolveFlavor(request(OpenStackResourceResolver.FLAVOR_PROPERTY_KEY, "m1.medium")),
+				is(MEDIUM_FLAVOR_ID));
+		assertThat(resolver.resolveFlavor(request(OpenStackResourceResolver.FLAVOR_PROPERTY_KEY, MEDIUM_FLAVOR_ID)),
+				is(MEDIUM_FLAVOR_ID));
+	}
+
+	@Test
+	public void missingFlavorIsRememberedForAWhile() throws Exception {
+		properties.setResourceMissCacheTtl(300);
+		resolveMissing();
+		long requests = standIn.getRequestCount();
+
+		resolveMissing();
+
+		assertThat(standIn.getRequestCount(), is(requests));
+
+		Thread.sleep(400);
+		resolveMissing();
+
+		// the catalog is loaded once more to look for it
+		assertThat(standIn.getRequestCount(), is(requests + 1));
+	}
+
+	@Test
+	public void smallestFlavorIsTheFallbackWithoutADefault() {
+		properties.setFlavor(null);
+
+		assertThat(resolver.resolveFlavor(request(null, null)), is(OpenStackStandIn.FLAVOR_ID));
+	}
+
+	private void resolveMissing() {
+		try {
+			resolver.resolveFlavor(request(OpenStackResourceResolver.FLAVOR_PROPERTY_KEY, "m1.missing"));
+			fail("There is no flavor m1.missing");
+		}
+		catch (IllegalArgumentException e) {
+			assertThat(e.getMessage(), is("No flavor with ID or name 'm1.missing'"));
+		}
+	}
+
+	private static AppDeploymentRequest request(String key, String value) {
+		Map<String, String> deploymentProperties = new HashMap<>();
+		if (key != null) {
+			deploymentProperties.put(key, value);
+		}
+		return new AppDeploymentRequest(new AppDefinition("resolved", Collections.emptyMap()),
+				new ByteArrayResource(new byte[0]), deploymentProperties);
+	}
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.springframework.cloud.deployer.spi.core.AppDeploymentRequest;
+
+import java.util.Set;
+
+import static org.hamcrest.Matchers.hasItems;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Scales apps deployed to the {@link OpenStackStandIn} and checks that only the missing
+ * instances are booted and only the surplus ones torn down.
+ */
+public class OpenStackScaleTests {
+
+	@Rule
+	public OpenStackStandInFixture fixture = new OpenStackStandInFixture();
+
+	@Test
+	public void indexedAppBootsAndTearsDownOnlyTheDifference() {
+		OpenStackAppDeployer appDeployer = fixture.deployer();
+		AppDeploymentRequest request = OpenStackStandInFixture.request("scaled", 20, true);
+		String appId = appDeployer.deploy(request);
+		appDeployer.waitForDeployed(appId, 10000);
+		Set<String> deployed = fixture.serverIds(appId);
+		long boots = fixture.standIn().getBootCount();
+
+		appDeployer.scale(appId, request, 22);
+		appDeployer.waitForDeployed(appId, 10000);
+
+		assertThat(fixture.standIn().getBootCount() - boots, is(2L));
+		assertThat(fixture.serverIds(appId).size(), is(22));
+		assertThat(fixture.serverIds(appId), hasItems(deployed.toArray(new String[0])));
+		assertThat(appDeployer.status(appId).getInstances().containsKey(appId + "-21"), is(true));
+
+		appDeployer.scale(appId, request, 18);
+
+		assertThat(fixture.standIn().getBootCount() - boots, is(2L));
+		assertThat(appDeployer.status(appId).getInstances().size(), is(18));
+		assertThat(appDeployer.status(appId).getInstances().containsKey(appId + "-17"), is(true));
+		assertThat(appDeployer.status(appId).getInstances().containsKey(appId + "-18"), is(false));
+		assertThat(fixture.standIn().getServerCount(), is(18));
+	}
+
+	@Test
+	public void appWithoutIndicesBootsTheShortfallAtOnce() {
+		OpenStackAppDeployer appDeployer = fixture.deployer();
+		AppDeploymentRequest request = OpenStackStandInFixture.request("scaled", 3, false);
+		String appId = appDeployer.deploy(request);
+		appDeployer.waitForDeployed(appId, 10000);
+		Set<String> deployed = fixture.serverIds(appId);
+		long boots = fixture.standIn().getBootCount();
+
+		appDeployer.scale(appId, request, 5);
+		appDeployer.waitForDeployed(appId, 10000);
+
+		assertThat(fixture.standIn().getBootCount() - boots, is(1L));
+		assertThat(fixture.serverIds(appId).size(), is(5));
+		assertThat(fixture.serverIds(appId), hasItems(deployed.toArray(new String[0])));
+		assertThat(appDeployer.status(appId).getInstances().size(), is(5));
+
+		appDeployer.scale(appId, request, 2);
+
+		assertThat(fixture.standIn().getBootCount() - boots, is(1L));
+		assertThat(fixture.serverIds(appId).size(), is(2));
+		assertThat(appDeployer.status(appId).getInstances().size(), is(2));
+		assertThat(fixture.standIn().getServerCount(), is(2));
+	}
+
+	@Test
+	public void singleInstanceAppScalesUpToDistinctInstances() {
+		OpenStackAppDeployer appDeployer = fixture.deployer();
+		AppDeploymentRequest request = OpenStackStandInFixture.request("scaled", 1, false);
+		String appId = appDeployer.deploy(request);
+		appDeployer.waitForDeployed(appId, 10000);
+
+		appDeployer.scale(appId, request, 2);
+		appDeployer.scale(appId, request, 3);
+		appDeployer.waitForDeployed(appId, 10000);
+
+		assertThat(fixture.serverIds(appId).size(), is(3));
+		assertThat(appDeployer.status(appId).getInstances().size(), is(3));
+	}
+
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openstack4j.model.compute.Server;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.openstack4j.api.Builders.server;
+import static org.springframework.cloud.deployer.spi.openstack.OpenStackRequestScheduler.OperationClass.ACTION;
+import static org.springframework.cloud.deployer.spi.openstack.OpenStackRequestScheduler.OperationClass.BOOT;
+import static org.springframework.cloud.deployer.spi.openstack.OpenStackRequestScheduler.OperationClass.DELETE;
+
+/**
+ * Changes servers of the {@link OpenStackStandIn} and checks that the
+ * {@link OpenStackServerInventory} picks the changes up from {@code changes-since}
+ * listings, and lists all servers again once the full resync interval has passed.
+ */
+public class OpenStackServerInventoryTests {
+
+	private OpenStackStandIn standIn;
+
+	private OpenStackDeployerProperties properties;
+
+	private OpenStackSessionManager sessionManager;
+
+	private OpenStackServerInventory inventory;
+
+	private final List<String> deleted = new CopyOnWriteArrayList<>();
+
+	@Before
+	public void setUp() throws Exception {
+		standIn = new OpenStackStandIn(0, 0);
+		properties = standIn.properties();
+		properties.setInventoryRefreshInterval(0);
+		sessionManager = new OpenStackSessionManager(properties);
+		inventory = new OpenStackServerInventory(sessionManager, properties);
+		inventory.addDeletionListener(deleted::add);
+	}
+
+	@After
+	public void tearDown() {
+		inventory.destroy();
+		sessionManager.destroy();
+		standIn.close();
+	}
+
+	@Test
+	public void updateIsSeenByAnIncrementalRefresh() {
+		String serverId = boot("inventoried");
+		assertThat(inventory.getServersForApp("inventoried").size(), is(1));
+		long listings = standIn.getChangesSinceListingCount();
+
+		sessionManager.execute(ACTION, client -> client.compute().servers().updateMetadata(serverId,
+				Collections.singletonMap("updated", "yes")));
+		inventory.refresh();
+
+		assertThat(standIn.getChangesSinceListingCount() - listings, is(1L));
+		Server server = inventory.getServersForApp("inventoried").get(0);
+		assertThat(server.getMetadata().get("updated"), is("yes"));
+	}
+
+	@Test
+	public void deletionIsSeenByAnIncrementalRefresh() {
+		String kept = boot("inventoried");
+		String removed = boot("inventoried");
+		assertThat(inventory.getServersForApp("inventoried").size(), is(2));
+		long listings = standIn.getChangesSinceListingCount();
+
+		sessionManager.execute(DELETE, client -> client.compute().servers().delete(removed));
+		inventory.refresh();
+
+		assertThat(standIn.getChangesSinceListingCount() - listings, is(1L));
+		assertThat(inventory.getServersForApp("inventoried").size(), is(1));
+		assertThat(inventory.getServersForApp("inventoried").get(0).getId(), is(kept));
+		assertThat(deleted, contains(removed));
+	}
+
+	@Test
+	public void allServersAreListedAgainAfterTheFullResyncInterval() throws Exception {
+		properties.setInventoryFullResyncInterval(300);
+		boot("inventoried");
+		inventory.refresh();
+		inventory.refresh();
+		long listings = standIn.getListingCount();
+		long incremental = standIn.getChangesSinceListingCount();
+
+		inventory.refresh();
+
+		assertThat(standIn.getListingCount() - listings, is(1L));
+		assertThat(standIn.getChangesSinceListingCount() - incremental, is(1L));
+
+		Thread.sleep(400);
+		inventory.refresh();
+
+		assertThat(standIn.getListingCount() - listings, is(2L));
+		assertThat(standIn.getChangesSinceListingCount() - incremental, is(1L));
+		assertThat(inventory.getServersForApp("inventoried").size(), is(1));
+	}
+
+	@Test
+	public void allServersAreListedUntilNovaReportsAChange() {
+		inventory.refresh();
+		inventory.refresh();
+		assertThat(standIn.getChangesSinceListingCount(), is(0L));
+
+		// booted after the empty listings, so a changes-since from local time could miss it
+		boot("inventoried");
+		inventory.refresh();
+
+		assertThat(standIn.getChangesSinceListingCount(), is(0L));
+		assertThat(inventory.getServersForApp("inventoried").size(), is(1));
+
+		inventory.refresh();
+
+		assertThat(standIn.getChangesSinceListingCount(), is(1L));
+		assertThat(inventory.getServersForApp("inventoried").size(), is(1));
+	}
+
+	private String boot(String appId) {
+		return sessionManager.execute(BOOT, client -> client.compute().servers().boot(server()
+				.name(appId).flavor(OpenStackStandIn.FLAVOR_ID).image(OpenStackStandIn.IMAGE_ID)
+				.addMetadataItem(AbstractOpenStackDeployer.SPRING_APP_KEY, appId)
+				.addMetadataItem(AbstractOpenStackDeployer.SPRING_MARKER_KEY,
+						AbstractOpenStackDeployer.SPRING_MARKER_VALUE)
+				.build())).getId();
+	}
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openstack4j.model.compute.Server;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.openstack4j.api.Builders.server;
+import static org.springframework.cloud.deployer.spi.openstack.OpenStackRequestScheduler.OperationClass.BOOT;
+
+/**
+ * Lists servers of the {@link OpenStackStandIn} page by page and checks that no page
+ * shorter than the requested limit cuts the listing short.
+ */
+public class OpenStackServerPagesTests {
+
+	private static final int SERVERS = 25;
+
+	private OpenStackStandIn standIn;
+
+	private OpenStackSessionManager sessionManager;
+
+	@Before
+	public void setUp() throws Exception {
+		standIn = new OpenStackStandIn(0, 0);
+		sessionManager = new OpenStackSessionManager(standIn.properties());
+		for (int i = 0; i < SERVERS; i++) {
+			sessionManager.execute(BOOT, client -> client.compute().servers().boot(server()
+					.name("paged").flavor(OpenStackStandIn.FLAVOR_ID).image(OpenStackStandIn.IMAGE_ID).build()));
+		}
+	}
+
+	@After
+	public void tearDown() {
+		sessionManager.destroy();
+		standIn.close();
+	}
+
+	@Test
+	public void listingFollowsPagesCappedByNova() {
+		standIn.setMaxLimit(10);
+
+		assertThat(list(20).size(), is(SERVERS));
+	}
+
+	@Test
+	public void listingEndsOnAnEmptyPage() {
+		long requests = standIn.getRequestCount();
+
+		assertThat(list(10).size(), is(SERVERS));
+		// three pages of servers and the empty one ending the listing
+		assertThat(standIn.getRequestCount() - requests, is(4L));
+	}
+
+	private Set<String> list(int pageSize) {
+		return OpenStackServerPages.stream(sessionManager, Collections.emptyMap(), pageSize)
+				.map(Server::getId)
+				.collect(Collectors.toSet());
+	}
+
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openstack4j.api.OSClient;
+import org.openstack4j.api.OSClient.OSClientV2;
+import org.openstack4j.model.identity.v2.Access;
+import org.openstack4j.openstack.OSFactory;
+import org.openstack4j.openstack.internal.OSClientSession;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Hands out clients of an {@link OpenStackSessionManager} on the
+ * {@link OpenStackStandIn} to many threads at once and around the expiry of their token,
+ * counting the tokens Keystone issues. Also pins the openstack4j internal the session
+ * manager tells whether a thread's client is still bound to it by,
+ * {@link OSClientSession#getCurrent()}.
+ */
+public class OpenStackSessionManagerTests {
+
+	private static final int THREADS = 16;
+
+	private OpenStackStandIn standIn;
+
+	private OpenStackDeployerProperties properties;
+
+	private OpenStackSessionManager sessionManager;
+
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() throws Exception {
+		standIn = new OpenStackStandIn(0, 0);
+		properties = standIn.properties();
+		executor = Executors.newFixedThreadPool(THREADS);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+		if (sessionManager != null) {
+			sessionManager.destroy();
+		}
+		standIn.close();
+	}
+
+	@Test
+	public void concurrentCallersShareOneToken() throws Exception {
+		// slow enough for every caller to arrive while the first token is requested
+		standIn.setLatency(200);
+		sessionManager = new OpenStackSessionManager(properties);
+
+		List<OSClient> clients = getClients();
+
+		assertThat(standIn.getTokenCount(), is(1L));
+		Set<String> tokenIds = new HashSet<>();
+		Set<OSClient> distinct = new HashSet<>();
+		for (OSClient client : clients) {
+			tokenIds.add(tokenId(client));
+			distinct.add(client);
+		}
+		assertThat(tokenIds.size(), is(1));
+		// each thread has a client of its own
+		assertThat(distinct.size(), is(THREADS));
+	}
+
+	@Test
+	public void tokenIsRefreshedBeforeItExpires() throws Exception {
+		standIn.setTokenLifetime(10000);
+		properties.setTokenRefreshMargin(8000);
+		sessionManager = new OpenStackSessionManager(properties);
+		Access first = ((OSClientV2) sessionManager.getClient()).getAccess();
+
+		long deadline = first.getToken().getExpires().getTime();
+		while (standIn.getTokenCount() < 2 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(20);
+		}
+
+		assertThat(standIn.getTokenCount(), is(2L));
+		assertThat(first.getToken().getExpires().getTime() > System.currentTimeMillis(), is(true));
+		// callers pick the refreshed token up without asking for one
+		assertThat(tokenId(sessionManager.getClient()), not(first.getToken().getId()));
+		assertThat(standIn.getTokenCount(), is(2L));
+	}
+
+	@Test
+	public void onlyOneCallerReauthenticatesOnceTheTokenExpired() throws Exception {
+		standIn.setTokenLifetime(1000);
+		properties.setTokenRefreshMargin(0);
+		sessionManager = new OpenStackSessionManager(properties);
+		Access first = ((OSClientV2) sessionManager.getClient()).getAccess();
+		standIn.setTokenLifetime(3600000);
+		standIn.setLatency(200);
+		while (first.getToken().getExpires().getTime() > System.currentTimeMillis()) {
+			Thread.sleep(20);
+		}
+
+		List<OSClient> clients = getClients();
+
+		// the expired token and one new one, whether the refresher or a caller got it
+		assertThat(standIn.getTokenCount(), is(2L));
+		for (OSClient client : clients) {
+			assertThat(tokenId(client), not(first.getToken().getId()));
+		}
+	}
+
+	@Test
+	public void clientIsBoundToTheThreadThatCreatedIt() throws Exception {
+		sessionManager = new OpenStackSessionManager(properties);
+		OSClient client = sessionManager.getClient();
+
+		assertThat(OSClientSession.getCurrent() == client, is(true));
+		assertThat(sessionManager.getClient(), sameInstance(client));
+		assertThat(executor.submit(() -> OSClientSession.getCurrent() == client).get(10, TimeUnit.SECONDS),
+				is(false));
+	}
+
+	@Test
+	public void clientCreatedElsewhereOnTheThreadIsNoticed() {
+		sessionManager = new OpenStackSessionManager(properties);
+		OSClient client = sessionManager.getClient();
+
+		// openstack4j binds every client it creates to the creating thread
+		OSFactory.clientFromAccess(((OSClientV2) client).getAccess());
+		assertThat(OSClientSession.getCurrent() == client, is(false));
+
+		OSClient rebound = sessionManager.getClient();
+		assertThat(rebound, not(sameInstance(client)));
+		assertThat(OSClientSession.getCurrent() == rebound, is(true));
+		assertThat(standIn.getTokenCount(), is(1L));
+	}
+
+	/**
+	 * Get a client on each of {@link #THREADS} threads, all asking at the same time.
+	 */
+	private List<OSClient> getClients() throws Exception {
+		CountDownLatch start = new CountDownLatch(1);
+		List<Future<OSClient>> futures = new ArrayList<>();
+		for (int i = 0; i < THREADS; i++) {
+			Callable<OSClient> call = () -> {
+				start.await();
+				return sessionManager.getClient();
+			};
+			futures.add(executor.submit(call));
+		}
+		start.countDown();
+		List<OSClient> clients = new ArrayList<>();
+		for (Future<OSClient> future : futures) {
+			clients.add(future.get(10, TimeUnit.SECONDS));
+		}
+		return clients;
+	}
+
+	private static String tokenId(OSClient client) {
+		return ((OSClientV2) client).getAccess().getToken().getId();
+	}
+
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cloud.deployer.spi.app.AppStatus;
+import org.springframework.cloud.deployer.spi.app.DeploymentState;
+import org.springframework.cloud.deployer.spi.core.AppDefinition;
+import org.springframework.cloud.deployer.spi.core.AppDeploymentRequest;
+import org.springframework.cloud.deployer.spi.openstack.OpenStackDeployerProperties.Shard;
+import org.springframework.core.io.ByteArrayResource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.hamcrest.Matchers.startsWith;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Spreads deployments over a default shard and a {@code remote} shard, each on an
+ * {@link OpenStackStandIn} of its own, and checks where they are placed, how their ids
+ * are routed and that calls fanned out to both shards are answered by both.
+ */
+public class OpenStackShardsTests {
+
+	private OpenStackStandIn home;
+
+	private OpenStackStandIn remote;
+
+	private OpenStackDeployerProperties properties;
+
+	private Shard remoteShard;
+
+	private OpenStackSessionManager sessionManager;
+
+	private OpenStackServerInventory inventory;
+
+	private OpenStackDeletionTracker deletionTracker;
+
+	private OpenStackDeploymentRegistry registry;
+
+	private OpenStackShards shards;
+
+	private OpenStackShardedAppDeployer appDeployer;
+
+	private OpenStackShardedTaskLauncher taskLauncher;
+
+	@Before
+	public void setUp() throws Exception {
+		home = new OpenStackStandIn(0, 0);
+		remote = new OpenStackStandIn(0, 0);
+		properties = home.properties();
+		remoteShard = new Shard();
+		remoteShard.setEndpoint(remote.getEndpoint());
+		properties.getShards().put("remote", remoteShard);
+		sessionManager = new OpenStackSessionManager(properties);
+		inventory = new OpenStackServerInventory(sessionManager, properties);
+		deletionTracker = new OpenStackDeletionTracker(inventory, properties);
+		registry = new OpenStackDeploymentRegistry(sessionManager, properties);
+	}
+
+	@After
+	public void tearDown() {
+		if (appDeployer != null) {
+			appDeployer.destroy();
+		}
+		if (taskLauncher != null) {
+			taskLauncher.destroy();
+		}
+		if (shards != null) {
+			shards.destroy();
+		}
+		registry.destroy();
+		deletionTracker.destroy();
+		inventory.destroy();
+		sessionManager.destroy();
+		remote.close();
+		home.close();
+	}
+
+	@Test
+	public void deploymentsAreSpreadByShardWeight() {
+		remoteShard.setWeight(3);
+
+		assertThat(place(8, 1), contains("remote", "remote", "default", "remote", "remote", "default", "remote",
+				"remote"));
+	}
+
+	@Test
+	public void shardWithoutWeightTakesNoDeployments() {
+		remoteShard.setWeight(0);
+
+		assertThat(place(3, 1), contains("default", "default", "default"));
+	}
+
+	@Test
+	public void shardAtItsMaximumIsSkipped() {
+		properties.setMaxInstances(2);
+		remoteShard.setMaxInstances(3);
+
+		assertThat(place(1, 3), contains("remote"));
+		assertThat(place(1, 2), contains("default"));
+		try {
+			place(1, 1);
+			fail("No shard should have room left");
+		}
+		catch (IllegalStateException e) {
+			assertThat(e.getMessage(), is("No shard has room for 1 more servers"));
+		}
+	}
+
+	@Test
+	public void shardWithoutQuotaHeadroomIsSkipped() {
+		home.setInstanceQuota(1);
+
+		// the placement pending on the default shard uses up its quota
+		assertThat(place(3, 1), contains("default", "remote", "remote"));
+	}
+
+	@Test
+	public void idsRoundTripThroughTheirShard() {
+		OpenStackShards shards = shards();
+
+		for (OpenStackShard shard : shards.getShards()) {
+			String id = shards.qualify(shard, "app-1");
+			assertThat(shards.route(id), sameInstance(shard));
+			assertThat(OpenStackShards.localId(id), is("app-1"));
+		}
+		assertThat(shards.qualify(shards.getDefaultShard(), "app-1"), is("app-1"));
+		assertThat(shards.route("app-1"), sameInstance(shards.getDefaultShard()));
+		assertThat(shards.route("remote.app-1").getName(), is("remote"));
+		assertThat(shards.qualify(shards.route("remote.app-1"), "app-1"), is("remote.app-1"));
+		assertThat(shards.route("missing.app-1"), is(nullValue()));
+	}
+
+	@Test
+	public void statusesAreGatheredFromEveryShard() {
+		OpenStackShardedAppDeployer appDeployer = appDeployer();
+		String first = appDeployer.deploy(request("first"));
+		String second = appDeployer.deploy(request("second"));
+		assertThat(shards.route(first).getName(), is(OpenStackShards.DEFAULT_SHARD));
+		assertThat(second, startsWith("remote."));
+
+		Map<String, AppStatus> statuses = appDeployer.statuses(second, "missing.app", first, "unknown");
+
+		assertThat(statuses.keySet(), contains(second, "missing.app", first, "unknown"));
+		assertThat(statuses.get("missing.app").getState(), is(DeploymentState.unknown));
+		assertThat(statuses.get("unknown").getState(), is(DeploymentState.unknown));
+		assertThat(statuses.get(first).getInstances().size(), is(1));
+		assertThat(statuses.get(second).getInstances().size(), is(1));
+		for (Map.Entry<String, AppStatus> status : statuses.entrySet()) {
+			AppStatus single = appDeployer.status(status.getKey());
+			assertThat(status.getValue().getDeploymentId(), is(status.getKey()));
+			assertThat(single.getDeploymentId(), is(status.getKey()));
+			assertThat(status.getValue().getState(), is(single.getState()));
+			assertThat(status.getValue().getInstances().keySet(), is(single.getInstances().keySet()));
+		}
+	}
+
+	@Test
+	public void destroyDeletesTheTaskOnEveryShard() {
+		launch(4);
+		assertThat(home.getServerCount() > 0 && remote.getServerCount() > 0, is(true));
+
+		taskLauncher.destroy("batch");
+
+		assertThat(home.getServerCount(), is(0));
+		assertThat(remote.getServerCount(), is(0));
+	}
+
+	@Test
+	public void destroyReportsTheShardsItFailedOn() {
+		launch(4);
+		int remoteServers = remote.getServerCount();
+		remote.failDeletes(".*");
+
+		try {
+			taskLauncher.destroy("batch");
+			fail("Destroy should have reported the shard it could not delete on");
+		}
+		catch (IllegalStateException e) {
+			assertThat(e.getMessage(), is("Failed to destroy task batch on shards [remote]"));
+			assertThat(e.getSuppressed().length, is(1));
+		}
+
+		assertThat(home.getServerCount(), is(0));
+		assertThat(remote.getServerCount(), is(remoteServers));
+	}
+
+	private OpenStackShards shards() {
+		if (shards == null) {
+			OpenStackShard defaultShard = new OpenStackShard(OpenStackShards.DEFAULT_SHARD, properties,
+					sessionManager, inventory, new OpenStackResourceResolver(sessionManager, properties),
+					deletionTracker, registry, null, null);
+			shards = new OpenStackShards(defaultShard, properties, null);
+		}
+		return shards;
+	}
+
+	private OpenStackShardedAppDeployer appDeployer() {
+		Map<OpenStackShard, OpenStackAppDeployer> deployers = new LinkedHashMap<>();
+		for (OpenStackShard shard : shards().getShards()) {
+			deployers.put(shard, shard.createAppDeployer());
+		}
+		appDeployer = new OpenStackShardedAppDeployer(shards, deployers);
+		return appDeployer;
+	}
+
+	/**
+	 * Place the given number of deployments of the given number of servers, returning
+	 * the name of the shard each was placed on.
+	 */
+	private List<String> place(int deployments, int instances) {
+		List<String> placed = new ArrayList<>();
+		for (int i = 0; i < deployments; i++) {
+			placed.add(shards().place(instances).getShard().getName());
+		}
+		return placed;
+	}
+
+	private void launch(int tasks) {
+		Map<OpenStackShard, OpenStackTaskLauncher> launchers = new LinkedHashMap<>();
+		for (OpenStackShard shard : shards().getShards()) {
+			launchers.put(shard, shard.createTaskLauncher());
+		}
+		taskLauncher = new OpenStackShardedTaskLauncher(shards, launchers);
+		for (int i = 0; i < tasks; i++) {
+			taskLauncher.launch(request("batch"));
+		}
+	}
+
+	private static AppDeploymentRequest request(String name) {
+		return new AppDeploymentRequest(new AppDefinition(name, Collections.emptyMap()),
+				new ByteArrayResource(new byte[0]));
+	}
+
+}
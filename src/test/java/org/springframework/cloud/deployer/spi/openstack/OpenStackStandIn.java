@@ -0,0 +1,754 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An embedded stand-in for the Keystone v2 token and Nova server APIs, for measuring
+ * the deployer without an OpenStack installation. Servers are kept in memory; they stay
+ * in BUILD for a configurable delay before becoming ACTIVE, and every request is
+ * answered after a configurable latency.
+ * <p>
+ * Server listings support the {@code name}, {@code limit}, {@code marker} and
+ * {@code changes-since} parameters. Deleted servers are kept as DELETED so that
+ * {@code changes-since} listings report them, as Nova does.
+ * <p>
+ * Nova requests can be rejected with 429, as Nova's rate limiting does, to exercise the
+ * deployer's retries, and boots or deletes of servers can be made to fail. Token
+ * requests can be held back, to check what does and does not wait for Keystone.
+ */
+public class OpenStackStandIn implements AutoCloseable {
+
+	public static final String TENANT_ID = "stand-in-tenant";
+
+	public static final String FLAVOR_ID = "1";
+
+	public static final String FLAVOR_NAME = "m1.small";
+
+	public static final String IMAGE_ID = "00000000-0000-0000-0000-00000000cafe";
+
+	public static final String IMAGE_NAME = "stand-in-image";
+
+	private static final Pattern SERVER_PATH = Pattern.compile("/v2\\.1/[^/]+/servers/([^/]+)(/action|/metadata)?");
+
+	private static final Pattern LIST_PATH = Pattern.compile("/v2\\.1/[^/]+/(servers|flavors|images)(/detail)?");
+
+	private static final Pattern LIMITS_PATH = Pattern.compile("/v2\\.1/[^/]+/limits");
+
+	static {
+		// the server writes headers and body separately, which on a kept-alive connection
+		// otherwise stalls every response until the client's delayed acknowledgement
+		System.setProperty("sun.net.httpserver.nodelay", "true");
+	}
+
+	private final ObjectMapper mapper = new ObjectMapper();
+
+	private final Map<String, StandInServer> servers = new ConcurrentSkipListMap<>();
+
+	private final AtomicLong requests = new AtomicLong();
+
+	private final AtomicLong boots = new AtomicLong();
+
+	private volatile JsonNode lastBoot;
+
+	private final AtomicLong tokens = new AtomicLong();
+
+	private final AtomicLong listings = new AtomicLong();
+
+	private final AtomicLong changesSinceListings = new AtomicLong();
+
+	private final AtomicLong sequence = new AtomicLong();
+
+	private final AtomicInteger pendingRejections = new AtomicInteger();
+
+	private final AtomicLong rejections = new AtomicLong();
+
+	private volatile Integer retryAfter;
+
+	private final HttpServer httpServer;
+
+	private final ExecutorService executor;
+
+	private volatile long latency;
+
+	private volatile long buildDelay;
+
+	private volatile long rebootDelay;
+
+	private volatile long tokenLifetime = 3600000;
+
+	private volatile int maxLimit = Integer.MAX_VALUE;
+
+	private volatile Pattern failingBoots;
+
+	private volatile Pattern failingDeletes;
+
+	private volatile int instanceQuota = -1;
+
+	private volatile CountDownLatch tokenGate;
+
+	private final CountDownLatch tokenRequested = new CountDownLatch(1);
+
+	public OpenStackStandIn(long latency, long buildDelay) throws IOException {
+		this.latency = latency;
+		this.buildDelay = buildDelay;
+		this.httpServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		this.executor = Executors.newCachedThreadPool();
+		this.httpServer.setExecutor(executor);
+		this.httpServer.createContext("/", this::handle);
+		this.httpServer.start();
+	}
+
+	/**
+	 * Return the Keystone endpoint to configure the deployer with.
+	 */
+	public String getEndpoint() {
+		return baseUrl() + "/v2.0";
+	}
+
+	/**
+	 * Return deployer properties pointing at this stand-in.
+	 */
+	public OpenStackDeployerProperties properties() {
+		OpenStackDeployerProperties properties = new OpenStackDeployerProperties();
+		properties.setEndpoint(getEndpoint());
+		properties.setUserId("stand-in");
+		properties.setPassword("stand-in");
+		properties.setTenantName(TENANT_ID);
+		properties.setFlavor(FLAVOR_NAME);
+		properties.setImage(IMAGE_NAME);
+		return properties;
+	}
+
+	public void setLatency(long latency) {
+		this.latency = latency;
+	}
+
+	public void setBuildDelay(long buildDelay) {
+		this.buildDelay = buildDelay;
+	}
+
+	/**
+	 * Keep rebooted servers in REBOOT for the given time before they are ACTIVE again.
+	 */
+	public void setRebootDelay(long rebootDelay) {
+		this.rebootDelay = rebootDelay;
+	}
+
+	public void setTokenLifetime(long tokenLifetime) {
+		this.tokenLifetime = tokenLifetime;
+	}
+
+	/**
+	 * Cap the number of servers listed per page, like Nova's {@code osapi_max_limit},
+	 * whatever limit the request asks for.
+	 */
+	public void setMaxLimit(int maxLimit) {
+		this.maxLimit = maxLimit;
+	}
+
+	/**
+	 * Fail the boot requests for servers whose name matches the given pattern with 500,
+	 * or none if it is {@code null}.
+	 */
+	public void failBoots(String namePattern) {
+		this.failingBoots = namePattern != null ? Pattern.compile(namePattern) : null;
+	}
+
+	/**
+	 * Fail the delete requests for servers whose name matches the given pattern with 500,
+	 * or none if it is {@code null}.
+	 */
+	public void failDeletes(String namePattern) {
+		this.failingDeletes = namePattern != null ? Pattern.compile(namePattern) : null;
+	}
+
+	/**
+	 * Limit the number of servers of the tenant reported by the Nova limits, or report
+	 * no limit if it is negative. Boots are not refused beyond it.
+	 */
+	public void setInstanceQuota(int instanceQuota) {
+		this.instanceQuota = instanceQuota;
+	}
+
+	/**
+	 * Hold every token request until {@link #releaseTokens()} is called.
+	 */
+	public void holdTokens() {
+		this.tokenGate = new CountDownLatch(1);
+	}
+
+	/**
+	 * Answer the held token requests, and no longer hold any.
+	 */
+	public void releaseTokens() {
+		CountDownLatch gate = this.tokenGate;
+		this.tokenGate = null;
+		if (gate != null) {
+			gate.countDown();
+		}
+	}
+
+	/**
+	 * Wait for the first token request to arrive, returning whether it did in time.
+	 */
+	public boolean awaitTokenRequest(long timeout, TimeUnit unit) throws InterruptedException {
+		return tokenRequested.await(timeout, unit);
+	}
+
+	/**
+	 * Reject the next Nova requests with 429, asking to retry after the given number of
+	 * seconds, or without saying when if it is {@code null}.
+	 */
+	public void rejectNext(int requests, Integer retryAfter) {
+		this.retryAfter = retryAfter;
+		pendingRejections.set(requests);
+	}
+
+	/**
+	 * Return the number of requests rejected with 429 so far.
+	 */
+	public long getRejectionCount() {
+		return rejections.get();
+	}
+
+	/**
+	 * Return the number of requests answered so far.
+	 */
+	public long getRequestCount() {
+		return requests.get();
+	}
+
+	/**
+	 * Return the number of tokens issued so far.
+	 */
+	public long getTokenCount() {
+		return tokens.get();
+	}
+
+	/**
+	 * Return the number of boot requests answered so far, each of which may have booted
+	 * several servers.
+	 */
+	public long getBootCount() {
+		return boots.get();
+	}
+
+	/**
+	 * Return the {@code server} spec of the last boot request, or {@code null} if there
+	 * was none.
+	 */
+	public JsonNode getLastBootRequest() {
+		return lastBoot;
+	}
+
+	/**
+	 * Return the number of server listings started so far, that is listings of a first
+	 * page, with or without {@code changes-since}.
+	 */
+	public long getListingCount() {
+		return listings.get();
+	}
+
+	/**
+	 * Return the number of server listings with {@code changes-since} started so far.
+	 */
+	public long getChangesSinceListingCount() {
+		return changesSinceListings.get();
+	}
+
+	/**
+	 * Return the number of servers that have not been deleted.
+	 */
+	public int getServerCount() {
+		int count = 0;
+		for (StandInServer server : servers.values()) {
+			if (!server.deleted) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Override
+	public void close() {
+		releaseTokens();
+		httpServer.stop(0);
+		executor.shutdownNow();
+	}
+
+	private String baseUrl() {
+		return "http://127.0.0.1:" + httpServer.getAddress().getPort();
+	}
+
+	private void handle(HttpExchange exchange) throws IOException {
+		requests.incrementAndGet();
+		try {
+			if (latency > 0) {
+				Thread.sleep(latency);
+			}
+			route(exchange);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			respond(exchange, 503, null);
+		}
+		catch (RuntimeException e) {
+			ObjectNode fault = mapper.createObjectNode();
+			fault.putObject("computeFault").put("message", String.valueOf(e.getMessage())).put("code", 500);
+			respond(exchange, 500, fault);
+		}
+		finally {
+			exchange.close();
+		}
+	}
+
+	private void route(HttpExchange exchange) throws IOException, InterruptedException {
+		String method = exchange.getRequestMethod();
+		String path = exchange.getRequestURI().getPath();
+		if (path.equals("/v2.0/tokens") && method.equals("POST")) {
+			tokenRequested.countDown();
+			CountDownLatch gate = this.tokenGate;
+			if (gate != null) {
+				gate.await();
+			}
+			tokens.incrementAndGet();
+			respond(exchange, 200, token());
+			return;
+		}
+		if (pendingRejections.getAndUpdate(pending -> Math.max(0, pending - 1)) > 0) {
+			rejections.incrementAndGet();
+			reject(exchange);
+			return;
+		}
+		Matcher list = LIST_PATH.matcher(path);
+		if (list.matches()) {
+			if (list.group(1).equals("servers") && method.equals("POST")) {
+				respond(exchange, 202, boot(read(exchange)));
+			}
+			else if (list.group(1).equals("servers")) {
+				respond(exchange, 200, listServers(query(exchange)));
+			}
+			else if (list.group(1).equals("flavors")) {
+				respond(exchange, 200, flavors());
+			}
+			else {
+				respond(exchange, 200, images());
+			}
+			return;
+		}
+		if (LIMITS_PATH.matcher(path).matches()) {
+			respond(exchange, 200, limits());
+			return;
+		}
+		Matcher server = SERVER_PATH.matcher(path);
+		if (server.matches()) {
+			StandInServer target = servers.get(server.group(1));
+			if (target == null || target.deleted) {
+				ObjectNode fault = mapper.createObjectNode();
+				fault.putObject("itemNotFound").put("message", "Instance could not be found").put("code", 404);
+				respond(exchange, 404, fault);
+				return;
+			}
+			String subresource = server.group(2);
+			if ("/action".equals(subresource)) {
+				action(target, read(exchange));
+				respond(exchange, 202, null);
+			}
+			else if ("/metadata".equals(subresource)) {
+				respond(exchange, 200, metadata(target, method.equals("GET") ? null : read(exchange)));
+			}
+			else if (method.equals("DELETE")) {
+				delete(target);
+				respond(exchange, 204, null);
+			}
+			else if (method.equals("PUT")) {
+				JsonNode update = read(exchange).path("server");
+				synchronized (target) {
+					if (update.hasNonNull("name")) {
+						target.name = update.get("name").asText();
+					}
+					target.touch();
+				}
+				respond(exchange, 200, wrap("server", target));
+			}
+			else {
+				respond(exchange, 200, wrap("server", target));
+			}
+			return;
+		}
+		respond(exchange, 404, null);
+	}
+
+	private void reject(HttpExchange exchange) throws IOException {
+		ObjectNode body = mapper.createObjectNode();
+		ObjectNode overLimit = body.putObject("overLimit");
+		overLimit.put("code", 429).put("message", "This request was rate-limited.");
+		Integer retryAfter = this.retryAfter;
+		if (retryAfter != null) {
+			overLimit.put("retryAfter", String.valueOf(retryAfter));
+			exchange.getResponseHeaders().set("Retry-After", String.valueOf(retryAfter));
+		}
+		exchange.getRequestBody().close();
+		respond(exchange, 429, body);
+	}
+
+	private ObjectNode token() {
+		ObjectNode body = mapper.createObjectNode();
+		ObjectNode access = body.putObject("access");
+		ObjectNode token = access.putObject("token");
+		token.put("id", UUID.randomUUID().toString());
+		token.put("issued_at", format(new Date()));
+		token.put("expires", format(new Date(System.currentTimeMillis() + tokenLifetime)));
+		token.putObject("tenant").put("id", TENANT_ID).put("name", TENANT_ID).put("enabled", true);
+		ArrayNode catalog = access.putArray("serviceCatalog");
+		ObjectNode compute = catalog.addObject();
+		compute.put("type", "compute").put("name", "nova");
+		String url = baseUrl() + "/v2.1/" + TENANT_ID;
+		compute.putArray("endpoints").addObject()
+				.put("region", "RegionOne")
+				.put("publicURL", url)
+				.put("internalURL", url)
+				.put("adminURL", url)
+				.put("id", "compute");
+		compute.putArray("endpoints_links");
+		ObjectNode user = access.putObject("user");
+		user.put("id", "stand-in").put("name", "stand-in").put("username", "stand-in");
+		user.putArray("roles").addObject().put("name", "member");
+		return body;
+	}
+
+	private ObjectNode boot(JsonNode request) {
+		boots.incrementAndGet();
+		JsonNode spec = request.path("server");
+		lastBoot = spec;
+		Pattern failingBoots = this.failingBoots;
+		if (failingBoots != null && failingBoots.matcher(spec.path("name").asText()).matches()) {
+			throw new IllegalStateException("No valid host was found");
+		}
+		int count = Math.max(1, spec.path("min_count").asInt(1));
+		StandInServer first = null;
+		for (int i = 1; i <= count; i++) {
+			StandInServer server = new StandInServer();
+			server.id = UUID.randomUUID().toString();
+			server.name = count > 1 ? spec.path("name").asText() + "-" + i : spec.path("name").asText();
+			server.flavorId = spec.path("flavorRef").asText(FLAVOR_ID);
+			server.imageId = spec.path("imageRef").asText(IMAGE_ID);
+			server.address = "10.0." + (sequence.get() / 250 % 250) + "." + (sequence.getAndIncrement() % 250 + 1);
+			Iterator<Map.Entry<String, JsonNode>> metadata = spec.path("metadata").fields();
+			while (metadata.hasNext()) {
+				Map.Entry<String, JsonNode> item = metadata.next();
+				server.metadata.put(item.getKey(), item.getValue().asText());
+			}
+			server.created = System.currentTimeMillis();
+			server.touch();
+			servers.put(server.id, server);
+			if (first == null) {
+				first = server;
+			}
+		}
+		ObjectNode body = mapper.createObjectNode();
+		body.putObject("server").put("id", first.id).put("adminPass", "stand-in");
+		return body;
+	}
+
+	private void action(StandInServer server, JsonNode request) {
+		synchronized (server) {
+			if (request.has("suspend")) {
+				server.suspended = true;
+			}
+			else if (request.has("resume")) {
+				server.suspended = false;
+			}
+			else if (request.has("reboot")) {
+				server.rebooted = System.currentTimeMillis();
+			}
+			else if (request.has("forceDelete")) {
+				server.deleted = true;
+			}
+			server.touch();
+		}
+	}
+
+	private void delete(StandInServer server) {
+		Pattern failingDeletes = this.failingDeletes;
+		if (failingDeletes != null && failingDeletes.matcher(server.name).matches()) {
+			throw new IllegalStateException("Cannot delete the server");
+		}
+		synchronized (server) {
+			server.deleted = true;
+			server.touch();
+		}
+	}
+
+	private ObjectNode metadata(StandInServer server, JsonNode request) {
+		synchronized (server) {
+			if (request != null) {
+				Iterator<Map.Entry<String, JsonNode>> items = request.path("metadata").fields();
+				while (items.hasNext()) {
+					Map.Entry<String, JsonNode> item = items.next();
+					server.metadata.put(item.getKey(), item.getValue().asText());
+				}
+				server.touch();
+			}
+			ObjectNode body = mapper.createObjectNode();
+			ObjectNode metadata = body.putObject("metadata");
+			for (Map.Entry<String, String> item : server.metadata.entrySet()) {
+				metadata.put(item.getKey(), item.getValue());
+			}
+			return body;
+		}
+	}
+
+	private ObjectNode listServers(Map<String, String> query) {
+		long changesSince = query.containsKey("changes-since") ? parse(query.get("changes-since")) : -1;
+		int limit = Math.min(maxLimit,
+				query.containsKey("limit") ? Integer.parseInt(query.get("limit")) : Integer.MAX_VALUE);
+		String marker = query.get("marker");
+		if (marker == null) {
+			listings.incrementAndGet();
+			if (changesSince >= 0) {
+				changesSinceListings.incrementAndGet();
+			}
+		}
+		Pattern name = query.containsKey("name") ? Pattern.compile(query.get("name")) : null;
+		ObjectNode body = mapper.createObjectNode();
+		ArrayNode list = body.putArray("servers");
+		boolean afterMarker = marker == null;
+		String last = null;
+		int listed = 0;
+		for (StandInServer server : servers.values()) {
+			if (!afterMarker) {
+				afterMarker = server.id.equals(marker);
+				continue;
+			}
+			if (changesSince >= 0 ? server.updated(buildDelay, rebootDelay) < changesSince : server.deleted) {
+				continue;
+			}
+			if (name != null && !name.matcher(server.name).find()) {
+				continue;
+			}
+			if (listed == limit) {
+				body.putArray("servers_links").addObject().put("rel", "next")
+						.put("href", baseUrl() + "/v2.1/" + TENANT_ID + "/servers/detail?limit=" + limit
+								+ "&marker=" + last);
+				break;
+			}
+			list.add(toJson(server));
+			last = server.id;
+			listed++;
+		}
+		return body;
+	}
+
+	private ObjectNode flavors() {
+		ObjectNode body = mapper.createObjectNode();
+		ArrayNode flavors = body.putArray("flavors");
+		flavors.addObject().put("id", FLAVOR_ID).put("name", FLAVOR_NAME).put("ram", 2048).put("vcpus", 1)
+				.put("disk", 20);
+		flavors.addObject().put("id", "2").put("name", "m1.medium").put("ram", 4096).put("vcpus", 2)
+				.put("disk", 40);
+		return body;
+	}
+
+	private ObjectNode limits() {
+		ObjectNode body = mapper.createObjectNode();
+		ObjectNode limits = body.putObject("limits");
+		limits.putArray("rate");
+		limits.putObject("absolute").put("maxTotalInstances", instanceQuota)
+				.put("totalInstancesUsed", getServerCount());
+		return body;
+	}
+
+	private ObjectNode images() {
+		ObjectNode body = mapper.createObjectNode();
+		ObjectNode image = body.putArray("images").addObject();
+		image.put("id", IMAGE_ID).put("name", IMAGE_NAME).put("status", "ACTIVE").put("minDisk", 0)
+				.put("minRam", 0).put("progress", 100);
+		image.putObject("metadata");
+		return body;
+	}
+
+	private ObjectNode wrap(String name, StandInServer server) {
+		ObjectNode body = mapper.createObjectNode();
+		body.set(name, toJson(server));
+		return body;
+	}
+
+	private ObjectNode toJson(StandInServer server) {
+		synchronized (server) {
+			ObjectNode json = mapper.createObjectNode();
+			json.put("id", server.id);
+			json.put("name", server.name);
+			json.put("status", server.status(buildDelay, rebootDelay));
+			json.put("tenant_id", TENANT_ID);
+			json.put("accessIPv4", server.address);
+			json.put("created", format(new Date(server.created)));
+			json.put("updated", format(new Date(server.updated(buildDelay, rebootDelay))));
+			json.putObject("flavor").put("id", server.flavorId);
+			json.putObject("image").put("id", server.imageId);
+			json.putObject("addresses").putArray("private").addObject().put("addr", server.address)
+					.put("version", 4);
+			ObjectNode metadata = json.putObject("metadata");
+			for (Map.Entry<String, String> item : server.metadata.entrySet()) {
+				metadata.put(item.getKey(), item.getValue());
+			}
+			return json;
+		}
+	}
+
+	private JsonNode read(HttpExchange exchange) throws IOException {
+		try (InputStream body = exchange.getRequestBody()) {
+			return mapper.readTree(body);
+		}
+	}
+
+	private Map<String, String> query(HttpExchange exchange) throws IOException {
+		Map<String, String> query = new LinkedHashMap<>();
+		String raw = exchange.getRequestURI().getRawQuery();
+		if (raw != null) {
+			for (String pair : raw.split("&")) {
+				int eq = pair.indexOf('=');
+				if (eq > 0) {
+					query.put(URLDecoder.decode(pair.substring(0, eq), "UTF-8"),
+							URLDecoder.decode(pair.substring(eq + 1), "UTF-8"));
+				}
+			}
+		}
+		return query;
+	}
+
+	private void respond(HttpExchange exchange, int status, JsonNode body) throws IOException {
+		if (body == null) {
+			// the server quietly closes the connection after a response without a body
+			// if the request was not read to the end, failing the client's next request
+			exchange.getRequestBody().close();
+			exchange.sendResponseHeaders(status, -1);
+			return;
+		}
+		byte[] bytes = mapper.writeValueAsBytes(body);
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(status, bytes.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(bytes);
+		}
+	}
+
+	private static String format(Date date) {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss'Z'");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		return format.format(date);
+	}
+
+	private static long parse(String date) {
+		SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		try {
+			return format.parse(date).getTime();
+		}
+		catch (java.text.ParseException e) {
+			throw new IllegalArgumentException("Invalid changes-since " + date, e);
+		}
+	}
+
+	private static class StandInServer {
+
+		private String id;
+
+		private String name;
+
+		private String flavorId;
+
+		private String imageId;
+
+		private String address;
+
+		private final Map<String, String> metadata = new LinkedHashMap<>();
+
+		private long created;
+
+		private long updated;
+
+		private long rebooted = -1;
+
+		private boolean suspended;
+
+		private boolean deleted;
+
+		void touch() {
+			updated = System.currentTimeMillis();
+		}
+
+		/**
+		 * Return when the server last changed, including its transitions to ACTIVE after
+		 * its build and its last reboot.
+		 */
+		long updated(long buildDelay, long rebootDelay) {
+			long now = System.currentTimeMillis();
+			long last = updated;
+			if (now >= created + buildDelay) {
+				last = Math.max(last, created + buildDelay);
+			}
+			if (rebooted >= 0 && now >= rebooted + rebootDelay) {
+				last = Math.max(last, rebooted + rebootDelay);
+			}
+			return last;
+		}
+
+		String status(long buildDelay, long rebootDelay) {
+			if (deleted) {
+				return "DELETED";
+			}
+			if (System.currentTimeMillis() - created < buildDelay) {
+				return "BUILD";
+			}
+			if (rebooted >= 0 && System.currentTimeMillis() - rebooted < rebootDelay) {
+				return "REBOOT";
+			}
+			return suspended ? "SUSPENDED" : "ACTIVE";
+		}
+	}
+
+}
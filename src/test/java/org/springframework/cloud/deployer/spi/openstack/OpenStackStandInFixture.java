@@ -0,0 +1,156 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.junit.rules.ExternalResource;
+import org.openstack4j.model.compute.Server;
+import org.springframework.cloud.deployer.spi.app.AppDeployer;
+import org.springframework.cloud.deployer.spi.core.AppDefinition;
+import org.springframework.cloud.deployer.spi.core.AppDeploymentRequest;
+import org.springframework.core.io.ByteArrayResource;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * JUnit {@link org.junit.Rule} that starts an {@link OpenStackStandIn} and an
+ * {@link OpenStackAppDeployer} on it, for tests that deploy apps and check the servers
+ * they end up with.
+ */
+public class OpenStackStandInFixture extends ExternalResource {
+
+	private OpenStackStandIn standIn;
+
+	private OpenStackDeployerProperties properties;
+
+	private OpenStackSessionManager sessionManager;
+
+	private OpenStackServerInventory inventory;
+
+	private OpenStackDeletionTracker deletionTracker;
+
+	private OpenStackDeploymentRegistry registry;
+
+	private OpenStackAppDeployer appDeployer;
+
+	@Override
+	protected void before() throws Throwable {
+		standIn = new OpenStackStandIn(0, 0);
+		properties = standIn.properties();
+		properties.setWaitInitialInterval(50);
+		properties.setWaitMaxInterval(200);
+		sessionManager = new OpenStackSessionManager(properties);
+		inventory = new OpenStackServerInventory(sessionManager, properties);
+		deletionTracker = new OpenStackDeletionTracker(inventory, properties);
+		registry = new OpenStackDeploymentRegistry(sessionManager, properties);
+	}
+
+	@Override
+	protected void after() {
+		if (appDeployer != null) {
+			appDeployer.destroy();
+		}
+		registry.destroy();
+		deletionTracker.destroy();
+		inventory.destroy();
+		sessionManager.destroy();
+		standIn.close();
+	}
+
+	public OpenStackStandIn standIn() {
+		return standIn;
+	}
+
+	/**
+	 * Return the properties of the deployer, which can be changed until
+	 * {@link #deployer()} is first called.
+	 */
+	public OpenStackDeployerProperties properties() {
+		return properties;
+	}
+
+	public OpenStackSessionManager sessionManager() {
+		return sessionManager;
+	}
+
+	public OpenStackServerInventory inventory() {
+		return inventory;
+	}
+
+	public OpenStackDeploymentRegistry registry() {
+		return registry;
+	}
+
+	/**
+	 * Return the deployer, creating it on first use.
+	 */
+	public OpenStackAppDeployer deployer() {
+		if (appDeployer == null) {
+			appDeployer = new OpenStackAppDeployer(properties, sessionManager, inventory,
+					new OpenStackResourceResolver(sessionManager, properties), deletionTracker, registry);
+		}
+		return appDeployer;
+	}
+
+	/**
+	 * Return the ids of the servers of the given app that are not being deleted.
+	 */
+	public Set<String> serverIds(String appId) {
+		inventory.invalidate();
+		Set<String> serverIds = new TreeSet<>();
+		for (Server server : inventory.getServersForApp(appId)) {
+			if (!deletionTracker.isPending(server.getId())) {
+				serverIds.add(server.getId());
+			}
+		}
+		return serverIds;
+	}
+
+	/**
+	 * Return the generations of the servers of the given app that are not being deleted
+	 * and were booted by a redeploy.
+	 */
+	public Collection<String> generations(String appId) {
+		inventory.invalidate();
+		List<String> generations = new ArrayList<>();
+		for (Server server : inventory.getServersForApp(appId)) {
+			String generation = server.getMetadata().get(AbstractOpenStackDeployer.SPRING_GENERATION_KEY);
+			if (!deletionTracker.isPending(server.getId()) && generation != null) {
+				generations.add(generation);
+			}
+		}
+		return generations;
+	}
+
+	/**
+	 * Return a request for the given number of instances of an app of the given name.
+	 */
+	public static AppDeploymentRequest request(String name, int count, boolean indexed) {
+		Map<String, String> deploymentProperties = new HashMap<>();
+		deploymentProperties.put(AppDeployer.COUNT_PROPERTY_KEY, String.valueOf(count));
+		deploymentProperties.put(AppDeployer.INDEXED_PROPERTY_KEY, String.valueOf(indexed));
+		return new AppDeploymentRequest(new AppDefinition(name, Collections.emptyMap()),
+				new ByteArrayResource(new byte[0]), deploymentProperties);
+	}
+
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.junit.Test;
+import org.openstack4j.api.OSClient;
+import org.springframework.boot.test.util.EnvironmentTestUtils;
+import org.springframework.cloud.deployer.spi.app.AppDeployer;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+
+import java.net.ServerSocket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Starts the {@link OpenStackAutoConfiguration} against the {@link OpenStackStandIn} to
+ * check that startup does not wait for, or depend on, Keystone.
+ */
+public class OpenStackStartupTests {
+
+	private static final long TIMEOUT = 10;
+
+	@Test
+	public void startupDoesNotWaitForKeystone() throws Exception {
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try (OpenStackStandIn standIn = new OpenStackStandIn(0, 0)) {
+			// Keystone answers no token until released, so a startup waiting for one never ends
+			standIn.holdTokens();
+			Future<AnnotationConfigApplicationContext> startup = executor.submit(() -> context(standIn.getEndpoint()));
+			try (AnnotationConfigApplicationContext context = startup.get(TIMEOUT, TimeUnit.SECONDS)) {
+				assertThat(standIn.awaitTokenRequest(TIMEOUT, TimeUnit.SECONDS), is(true));
+				Future<OSClient> client = executor.submit(
+						() -> context.getBean(OpenStackSessionManager.class).getClient());
+
+				// the first client waits for the token requested in the background
+				assertThat(client.isDone(), is(false));
+				standIn.releaseTokens();
+				assertThat(client.get(TIMEOUT, TimeUnit.SECONDS), notNullValue());
+			}
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	@Test
+	public void startupSurvivesUnavailableKeystone() throws Exception {
+		int port;
+		try (ServerSocket socket = new ServerSocket(0)) {
+			port = socket.getLocalPort();
+		}
+		try (AnnotationConfigApplicationContext context = context("http://127.0.0.1:" + port + "/v2.0")) {
+			assertThat(context.getBean(AppDeployer.class), notNullValue());
+		}
+	}
+
+	private static AnnotationConfigApplicationContext context(String endpoint) {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		EnvironmentTestUtils.addEnvironment(context,
+				"spring.cloud.deployer.openstack.endpoint=" + endpoint,
+				"spring.cloud.deployer.openstack.userId=stand-in",
+				"spring.cloud.deployer.openstack.password=stand-in",
+				"spring.cloud.deployer.openstack.tenantName=" + OpenStackStandIn.TENANT_ID,
+				"spring.cloud.deployer.openstack.flavor=" + OpenStackStandIn.FLAVOR_NAME,
+				"spring.cloud.deployer.openstack.image=" + OpenStackStandIn.IMAGE_NAME);
+		context.register(OpenStackAutoConfiguration.class);
+		context.refresh();
+		return context;
+	}
+
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cloud.deployer.spi.app.AppStatus;
+import org.springframework.cloud.deployer.spi.app.DeploymentState;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Waits for apps with an {@link OpenStackStatusWaiter} over an inventory of the
+ * {@link OpenStackStandIn}, and checks that waiters due together share one inventory
+ * refresh, and one listing, and that each app is polled at an interval that backs off
+ * within its bounds.
+ */
+public class OpenStackStatusWaiterTests {
+
+	private static final long INITIAL_INTERVAL = 50;
+
+	private static final long MAX_INTERVAL = 200;
+
+	private static final int WAITERS = 8;
+
+	private OpenStackStandIn standIn;
+
+	private OpenStackDeployerProperties properties;
+
+	private OpenStackSessionManager sessionManager;
+
+	private GatedInventory inventory;
+
+	private final Map<String, DeploymentState> states = new ConcurrentHashMap<>();
+
+	private final Map<String, List<Long>> polls = new ConcurrentHashMap<>();
+
+	private OpenStackStatusWaiter waiter;
+
+	@Before
+	public void setUp() throws Exception {
+		standIn = new OpenStackStandIn(0, 0);
+		properties = standIn.properties();
+		properties.setInventoryRefreshInterval(0);
+		properties.setWaitInitialInterval(INITIAL_INTERVAL);
+		properties.setWaitMaxInterval(MAX_INTERVAL);
+		sessionManager = new OpenStackSessionManager(properties);
+		inventory = new GatedInventory(sessionManager, properties);
+		waiter = new OpenStackStatusWaiter(inventory, properties, appId -> {
+			polls.computeIfAbsent(appId, id -> new CopyOnWriteArrayList<>()).add(System.currentTimeMillis());
+			return AppStatus.of(appId).generalState(states.getOrDefault(appId, DeploymentState.deploying)).build();
+		});
+	}
+
+	@After
+	public void tearDown() {
+		waiter.destroy();
+		inventory.destroy();
+		sessionManager.destroy();
+		standIn.close();
+	}
+
+	@Test
+	public void waitersDueTogetherShareOneRefresh() throws Exception {
+		states.put("first", DeploymentState.deployed);
+		inventory.hold();
+		CompletableFuture<AppStatus> first = waiter.await("first", 10000);
+		// the first poll is under way, so the waiters added now all fall due before the next
+		assertThat(inventory.awaitHeld(10, TimeUnit.SECONDS), is(true));
+		List<CompletableFuture<AppStatus>> others = new ArrayList<>();
+		for (int i = 0; i < WAITERS; i++) {
+			states.put("app-" + i, DeploymentState.deployed);
+			others.add(waiter.await("app-" + i, 10000));
+		}
+		Thread.sleep(INITIAL_INTERVAL * 2);
+		long listings = standIn.getListingCount();
+
+		inventory.release();
+
+		assertThat(first.get(10, TimeUnit.SECONDS).getState(), is(DeploymentState.deployed));
+		for (CompletableFuture<AppStatus> other : others) {
+			assertThat(other.get(10, TimeUnit.SECONDS).getState(), is(DeploymentState.deployed));
+		}
+		assertThat(inventory.getRefreshCount(), is(2));
+		assertThat(standIn.getListingCount() - listings, is(2L));
+	}
+
+	@Test
+	public void pollIntervalBacksOffWithinItsBounds() throws Exception {
+		CompletableFuture<AppStatus> wait = waiter.await("slow", 1500);
+
+		try {
+			wait.get(10, TimeUnit.SECONDS);
+			fail("The app never leaves deploying, so the wait should time out");
+		}
+		catch (ExecutionException e) {
+			assertThat(e.getCause() instanceof TimeoutException, is(true));
+		}
+
+		List<Long> times = polls.get("slow");
+		long interval = INITIAL_INTERVAL;
+		// the last poll is made at the deadline rather than after an interval
+		for (int i = 1; i < times.size() - 1; i++) {
+			long gap = times.get(i) - times.get(i - 1);
+			// the scheduler never polls early; a few ms go by between taking the time and polling
+			assertThat(gap, greaterThanOrEqualTo((long) (interval * (1 - OpenStackStatusWaiter.JITTER)) - 5));
+			interval = OpenStackStatusWaiter.nextInterval(interval, false, INITIAL_INTERVAL, MAX_INTERVAL);
+		}
+		// no more polls than at the shortest interval, no fewer than at the longest
+		long shortest = (long) (INITIAL_INTERVAL * (1 - OpenStackStatusWaiter.JITTER)) - 5;
+		long longest = (long) (MAX_INTERVAL * (1 + OpenStackStatusWaiter.JITTER));
+		assertThat(times.size(), lessThanOrEqualTo((int) (1500 / shortest) + 2));
+		assertThat(times.size(), greaterThanOrEqualTo((int) (1500 / longest)));
+	}
+
+	@Test
+	public void intervalGrowsToItsMaximumAndResetsOnChange() {
+		List<Long> intervals = new ArrayList<>();
+		long interval = INITIAL_INTERVAL;
+		for (int i = 0; i < 6; i++) {
+			interval = OpenStackStatusWaiter.nextInterval(interval, false, INITIAL_INTERVAL, MAX_INTERVAL);
+			intervals.add(interval);
+		}
+
+		assertThat(intervals, contains(75L, 112L, 168L, 200L, 200L, 200L));
+		assertThat(OpenStackStatusWaiter.nextInterval(MAX_INTERVAL, true, INITIAL_INTERVAL, MAX_INTERVAL),
+				is(INITIAL_INTERVAL));
+	}
+
+	@Test
+	public void jitterStaysWithinItsBounds() {
+		for (int i = 0; i < 1000; i++) {
+			long jittered = OpenStackStatusWaiter.jitter(1000);
+			assertThat(jittered, greaterThanOrEqualTo(800L));
+			assertThat(jittered, lessThanOrEqualTo(1200L));
+		}
+	}
+
+	/**
+	 * Counts refreshes, and holds the first one after {@link #hold()} until
+	 * {@link #release()}.
+	 */
+	private static class GatedInventory extends OpenStackServerInventory {
+
+		private final AtomicInteger refreshes = new AtomicInteger();
+
+		private final CountDownLatch held = new CountDownLatch(1);
+
+		private final CountDownLatch gate = new CountDownLatch(1);
+
+		private volatile boolean holding;
+
+		GatedInventory(OpenStackSessionManager sessionManager, OpenStackDeployerProperties properties) {
+			super(sessionManager, properties);
+		}
+
+		void hold() {
+			holding = true;
+		}
+
+		boolean awaitHeld(long timeout, TimeUnit unit) throws InterruptedException {
+			return held.await(timeout, unit);
+		}
+
+		void release() {
+			gate.countDown();
+		}
+
+		int getRefreshCount() {
+			return refreshes.get();
+		}
+
+		@Override
+		public void refresh() {
+			refreshes.incrementAndGet();
+			if (holding) {
+				holding = false;
+				held.countDown();
+				try {
+					gate.await();
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			super.refresh();
+		}
+	}
+
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.cloud.deployer.spi.core.AppDefinition;
+import org.springframework.cloud.deployer.spi.core.AppDeploymentRequest;
+import org.springframework.core.io.ByteArrayResource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Destroys tasks launched on the {@link OpenStackStandIn} and checks that servers that
+ * cannot be deleted neither stop the deletion of the others nor go unreported.
+ */
+public class OpenStackTaskLauncherTests {
+
+	private static final int TASKS = 6;
+
+	private OpenStackStandIn standIn;
+
+	private OpenStackSessionManager sessionManager;
+
+	private OpenStackServerInventory inventory;
+
+	private OpenStackDeletionTracker deletionTracker;
+
+	private OpenStackTaskLauncher taskLauncher;
+
+	@Before
+	public void setUp() throws Exception {
+		standIn = new OpenStackStandIn(0, 0);
+		OpenStackDeployerProperties properties = standIn.properties();
+		properties.setDestroyParallelism(3);
+		sessionManager = new OpenStackSessionManager(properties);
+		inventory = new OpenStackServerInventory(sessionManager, properties);
+		deletionTracker = new OpenStackDeletionTracker(inventory, properties);
+		taskLauncher = new OpenStackTaskLauncher(properties, sessionManager, inventory,
+				new OpenStackResourceResolver(sessionManager, properties), deletionTracker,
+				new OpenStackDeploymentRegistry(sessionManager, properties));
+	}
+
+	@After
+	public void tearDown() {
+		taskLauncher.destroy();
+		deletionTracker.destroy();
+		inventory.destroy();
+		sessionManager.destroy();
+		standIn.close();
+	}
+
+	@Test
+	public void destroyDeletesEveryServerOfTheTask() {
+		launch(TASKS);
+
+		taskLauncher.destroy("batch");
+
+		assertThat(standIn.getServerCount(), is(0));
+	}
+
+	@Test
+	public void destroyReportsTheServersItCouldNotDelete() {
+		List<String> taskIds = launch(TASKS);
+		standIn.failDeletes(Pattern.quote(taskIds.get(1)) + "|" + Pattern.quote(taskIds.get(4)));
+
+		try {
+			taskLauncher.destroy("batch");
+			fail("Destroy should have reported the servers it could not delete");
+		}
+		catch (IllegalStateException e) {
+			assertThat(e.getMessage(), containsString("Failed to delete 2 of " + TASKS + " servers for task batch"));
+			assertThat(e.getSuppressed().length, is(2));
+		}
+
+		assertThat(standIn.getServerCount(), is(2));
+		assertThat(inventory.getServerForDeployment(taskIds.get(1)) != null, is(true));
+		assertThat(inventory.getServerForDeployment(taskIds.get(4)) != null, is(true));
+	}
+
+	private List<String> launch(int tasks) {
+		List<String> taskIds = new ArrayList<>();
+		for (int i = 0; i < tasks; i++) {
+			taskIds.add(taskLauncher.launch(new AppDeploymentRequest(new AppDefinition("batch",
+					Collections.emptyMap()), new ByteArrayResource(new byte[0]))));
+		}
+		return taskIds;
+	}
+
+}
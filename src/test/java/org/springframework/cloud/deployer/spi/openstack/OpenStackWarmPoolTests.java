@@ -0,0 +1,226 @@
+/*
+ * Copyright 2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.spi.openstack;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.openstack4j.api.OSClient;
+import org.springframework.boot.test.util.EnvironmentTestUtils;
+import org.springframework.cloud.deployer.spi.core.AppDefinition;
+import org.springframework.cloud.deployer.spi.core.AppDeploymentRequest;
+import org.springframework.cloud.deployer.spi.openstack.OpenStackRequestScheduler.OperationClass;
+import org.springframework.cloud.deployer.spi.task.LaunchState;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.io.ByteArrayResource;
+
+import java.util.Collections;
+import java.util.function.Function;
+
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.springframework.cloud.deployer.spi.openstack.OpenStackRequestScheduler.OperationClass.ACTION;
+
+/**
+ * Claims servers from an {@link OpenStackWarmPool} on the {@link OpenStackStandIn} and
+ * checks that a server is never handed out twice, that tasks on claimed servers
+ * complete once their server has rebooted or report their own state, and that a pool
+ * of size 0 is not created at all.
+ */
+public class OpenStackWarmPoolTests {
+
+	private OpenStackStandIn standIn;
+
+	private OpenStackDeployerProperties properties;
+
+	private InterceptingSessionManager sessionManager;
+
+	private OpenStackServerInventory inventory;
+
+	private OpenStackWarmPool warmPool;
+
+	@Before
+	public void setUp() throws Exception {
+		standIn = new OpenStackStandIn(0, 0);
+		properties = standIn.properties();
+		properties.setWarmPoolSize(2);
+		properties.setWarmPoolReplenishInterval(3600000);
+		sessionManager = new InterceptingSessionManager(properties);
+		inventory = new OpenStackServerInventory(sessionManager, properties);
+		warmPool = new OpenStackWarmPool(sessionManager, properties);
+	}
+
+	@After
+	public void tearDown() {
+		warmPool.destroy();
+		inventory.destroy();
+		sessionManager.destroy();
+		standIn.close();
+	}
+
+	@Test
+	public void serverClaimedDuringReplenishIsNotHandedOutAgain() {
+		fill();
+		// the listing taken while the first claim relabels its server still shows it idle
+		sessionManager.beforeAction = warmPool::replenish;
+
+		String first = claim("first");
+		String second = claim("second");
+
+		assertThat(first, notNullValue());
+		assertThat(second, notNullValue());
+		assertThat(second, not(first));
+	}
+
+	@Test
+	public void claimedTaskCompletesOnceItsServerHasRebooted() throws Exception {
+		fill();
+		standIn.setRebootDelay(300);
+		OpenStackTaskLauncher taskLauncher = taskLauncher();
+		long boots = standIn.getBootCount();
+
+		String taskId = launch(taskLauncher);
+
+		assertThat(standIn.getBootCount(), is(boots));
+		assertThat(taskLauncher.status(taskId).getState(), is(LaunchState.launching));
+		long deadline = System.currentTimeMillis() + 10000;
+		LaunchState state = LaunchState.launching;
+		while (state == LaunchState.launching && System.currentTimeMillis() < deadline) {
+			Thread.sleep(50);
+			inventory.invalidate();
+			state = taskLauncher.status(taskId).getState();
+		}
+		assertThat(state, is(LaunchState.complete));
+	}
+
+	@Test
+	public void claimedTaskReportsItsOwnState() {
+		fill();
+		// the server does not come back from the reboot, so only the task's reports count
+		standIn.setRebootDelay(3600000);
+		OpenStackTaskLauncher taskLauncher = taskLauncher();
+		long boots = standIn.getBootCount();
+
+		String taskId = launch(taskLauncher);
+
+		assertThat(standIn.getBootCount(), is(boots));
+		assertThat(taskLauncher.status(taskId).getState(), is(LaunchState.launching));
+		reportState(taskId, "running");
+		assertThat(taskLauncher.status(taskId).getState(), is(LaunchState.running));
+		reportState(taskId, "complete");
+		assertThat(taskLauncher.status(taskId).getState(), is(LaunchState.complete));
+	}
+
+	@Test
+	public void poolOfSizeZeroIsNotCreated() throws Exception {
+		try (AnnotationConfigApplicationContext context = context()) {
+			assertThat(context.getBeanNamesForType(OpenStackWarmPool.class).length, is(0));
+		}
+		try (AnnotationConfigApplicationContext context = context(
+				"spring.cloud.deployer.openstack.warm-pool-size=1")) {
+			assertThat(context.getBean(OpenStackWarmPool.class), notNullValue());
+		}
+		properties.setWarmPoolSize(0);
+		long threads = poolThreads();
+		new OpenStackWarmPool(sessionManager, properties).destroy();
+		assertThat(poolThreads(), lessThanOrEqualTo(threads));
+	}
+
+	/**
+	 * Record demand, boot the pool and list it once the servers are active.
+	 */
+	private void fill() {
+		assertThat(claim("demand"), nullValue());
+		warmPool.replenish();
+		warmPool.replenish();
+	}
+
+	private String claim(String name) {
+		return warmPool.claim(OpenStackStandIn.FLAVOR_ID, OpenStackStandIn.IMAGE_ID, name,
+				Collections.singletonMap(AbstractOpenStackDeployer.SPRING_MARKER_KEY,
+						AbstractOpenStackDeployer.SPRING_MARKER_VALUE));
+	}
+
+	private OpenStackTaskLauncher taskLauncher() {
+		OpenStackShard shard = new OpenStackShard(OpenStackShards.DEFAULT_SHARD, properties, sessionManager,
+				inventory, new OpenStackResourceResolver(sessionManager, properties),
+				new OpenStackDeletionTracker(inventory, properties),
+				new OpenStackDeploymentRegistry(sessionManager, properties), warmPool, null);
+		return shard.createTaskLauncher();
+	}
+
+	private static String launch(OpenStackTaskLauncher taskLauncher) {
+		return taskLauncher.launch(new AppDeploymentRequest(new AppDefinition("warm", Collections.emptyMap()),
+				new ByteArrayResource(new byte[0])));
+	}
+
+	private void reportState(String taskId, String state) {
+		String serverId = inventory.getServerForDeployment(taskId).getId();
+		sessionManager.execute(ACTION, client -> client.compute().servers().updateMetadata(serverId,
+				Collections.singletonMap(OpenStackWarmPool.TASK_STATE_KEY, state)));
+		inventory.invalidate();
+	}
+
+	private static long poolThreads() {
+		return Thread.getAllStackTraces().keySet().stream()
+				.filter(thread -> thread.getName().startsWith("openstack-warm-pool-"))
+				.count();
+	}
+
+	private AnnotationConfigApplicationContext context(String... pairs) {
+		AnnotationConfigApplicationContext context = new AnnotationConfigApplicationContext();
+		EnvironmentTestUtils.addEnvironment(context,
+				"spring.cloud.deployer.openstack.endpoint=" + standIn.getEndpoint(),
+				"spring.cloud.deployer.openstack.userId=stand-in",
+				"spring.cloud.deployer.openstack.password=stand-in",
+				"spring.cloud.deployer.openstack.tenantName=" + OpenStackStandIn.TENANT_ID,
+				"spring.cloud.deployer.openstack.flavor=" + OpenStackStandIn.FLAVOR_NAME,
+				"spring.cloud.deployer.openstack.image=" + OpenStackStandIn.IMAGE_NAME);
+		EnvironmentTestUtils.addEnvironment(context, pairs);
+		context.register(OpenStackAutoConfiguration.class);
+		context.refresh();
+		return context;
+	}
+
+	/**
+	 * Runs a hook once, before the next {@link OperationClass#ACTION} call.
+	 */
+	private static class InterceptingSessionManager extends OpenStackSessionManager {
+
+		private volatile Runnable beforeAction;
+
+		InterceptingSessionManager(OpenStackDeployerProperties properties) {
+			super(properties);
+		}
+
+		@Override
+		public <T> T execute(OperationClass operationClass, Function<OSClient, T> call) {
+			Runnable hook = beforeAction;
+			if (operationClass == ACTION && hook != null) {
+				beforeAction = null;
+				hook.run();
+			}
+			return super.execute(operationClass, call);
+		}
+
+	}
+
+}